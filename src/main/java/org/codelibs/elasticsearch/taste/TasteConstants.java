@@ -37,6 +37,12 @@ public class TasteConstants {
 
     public static final String RESULT_TYPE = "result";
 
+    public static final String STATE_TYPE = "state";
+
+    public static final String SCHEDULE_TYPE = "schedule";
+
+    public static final String LEASE_TYPE = "lease";
+
     public static final String USERS_FILED = "users";
 
     public static final String REQUEST_PARAM_USER_ID_FIELD = "user_id_field";
@@ -5,6 +5,7 @@ import java.util.Collection;
 import org.codelibs.elasticsearch.taste.module.TasteModule;
 import org.codelibs.elasticsearch.taste.rest.TasteActionRestAction;
 import org.codelibs.elasticsearch.taste.rest.TasteEventRestAction;
+import org.codelibs.elasticsearch.taste.rest.TasteScheduleRestAction;
 import org.codelibs.elasticsearch.taste.rest.TasteSearchRestAction;
 import org.codelibs.elasticsearch.taste.service.TasteService;
 import org.elasticsearch.common.component.LifecycleComponent;
@@ -30,6 +31,7 @@ public class TastePlugin extends Plugin {
         module.addRestAction(TasteEventRestAction.class);
         module.addRestAction(TasteSearchRestAction.class);
         module.addRestAction(TasteActionRestAction.class);
+        module.addRestAction(TasteScheduleRestAction.class);
     }
 
     // for Service
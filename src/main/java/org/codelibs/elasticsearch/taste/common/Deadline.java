@@ -0,0 +1,61 @@
+package org.codelibs.elasticsearch.taste.common;
+
+/**
+ * A time budget for the current thread. Long loops such as
+ * {@link org.codelibs.elasticsearch.taste.recommender.TopItems} call
+ * {@link #check()} and stop early when it expires, so a caller receives a
+ * partial result instead of waiting for a pathological target.
+ */
+public final class Deadline {
+    private static final ThreadLocal<Deadline> CURRENT = ThreadLocal
+            .withInitial(Deadline::new);
+
+    private boolean active;
+
+    private boolean expired;
+
+    private long expiry;
+
+    private Deadline() {
+    }
+
+    /**
+     * Starts a deadline for the current thread.
+     *
+     * @param timeout time budget in nanoseconds
+     */
+    public static void start(final long timeout) {
+        final Deadline deadline = CURRENT.get();
+        deadline.active = true;
+        deadline.expired = false;
+        deadline.expiry = System.nanoTime() + timeout;
+    }
+
+    public static void clear() {
+        final Deadline deadline = CURRENT.get();
+        deadline.active = false;
+        deadline.expired = false;
+    }
+
+    /**
+     * @return true if the deadline of the current thread has passed
+     */
+    public static boolean check() {
+        final Deadline deadline = CURRENT.get();
+        if (!deadline.active) {
+            return false;
+        }
+        if (!deadline.expired && System.nanoTime() - deadline.expiry > 0) {
+            deadline.expired = true;
+        }
+        return deadline.expired;
+    }
+
+    /**
+     * @return true if {@link #check()} has detected the expiry
+     */
+    public static boolean isExpired() {
+        final Deadline deadline = CURRENT.get();
+        return deadline.active && deadline.expired;
+    }
+}
@@ -0,0 +1,259 @@
+package org.codelibs.elasticsearch.taste.common;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * A bounded cache from a pair of longs to a double. Entries are split into
+ * stripes by the hash of a key, and each stripe is an open addressing table
+ * guarded by its own monitor, so threads rarely wait for each other. Keys
+ * and values are stored in primitive arrays and no object is allocated per
+ * lookup. A full stripe evicts an entry by the CLOCK policy, which skips
+ * entries read since the hand passed them last time.
+ * </p>
+ *
+ * <p>
+ * A value is computed by the {@link Loader} outside the monitor, so the same
+ * value may be computed by more than one thread at a time.
+ * </p>
+ */
+public final class LongPairDoubleCache {
+    private static final int MAX_STRIPES = 64;
+
+    private static final int MIN_ENTRIES_PER_STRIPE = 64;
+
+    private final Loader loader;
+
+    private final Stripe[] stripes;
+
+    private final int stripeMask;
+
+    /**
+     * @param loader computes a value for a key
+     * @param maxEntries maximum number of entries the cache will store before
+     *          evicting some
+     */
+    public LongPairDoubleCache(final Loader loader, final int maxEntries) {
+        Preconditions.checkArgument(loader != null, "loader is null");
+        Preconditions.checkArgument(maxEntries >= 1,
+                "maxEntries must be at least 1");
+        this.loader = loader;
+        final int numOfStripes = Integer.highestOneBit(Math.max(1,
+                Math.min(MAX_STRIPES, maxEntries / MIN_ENTRIES_PER_STRIPE)));
+        stripes = new Stripe[numOfStripes];
+        final int capacity = maxEntries / numOfStripes;
+        for (int i = 0; i < numOfStripes; i++) {
+            stripes[i] = new Stripe(capacity);
+        }
+        stripeMask = numOfStripes - 1;
+    }
+
+    /**
+     * Returns the cached value of the key, or computes and caches it.
+     */
+    public double get(final long first, final long second) {
+        final long hash = hash(first, second);
+        final Stripe stripe = stripes[(int) (hash >>> 32) & stripeMask];
+        synchronized (stripe) {
+            final int slot = stripe.find(first, second, (int) hash);
+            if (slot >= 0) {
+                stripe.referenced[slot] = true;
+                return stripe.values[slot];
+            }
+        }
+        final double value = loader.load(first, second);
+        synchronized (stripe) {
+            stripe.put(first, second, (int) hash, value);
+        }
+        return value;
+    }
+
+    /**
+     * Removes entries whose key contains the ID. Stripes are scanned one by
+     * one, so only a stripe is locked at a time.
+     */
+    public void removeKeysContaining(final long id) {
+        for (final Stripe stripe : stripes) {
+            synchronized (stripe) {
+                int slot = 0;
+                while (slot < stripe.size) {
+                    if (stripe.firsts[slot] == id
+                            || stripe.seconds[slot] == id) {
+                        // the last entry is moved to the slot
+                        stripe.remove(slot);
+                    } else {
+                        slot++;
+                    }
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        for (final Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (final Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    private static long hash(final long first, final long second) {
+        long value = first * 0x9e3779b97f4a7c15L + second;
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * Computes a value for a key.
+     */
+    public interface Loader {
+        double load(long first, long second);
+    }
+
+    private static final class Stripe {
+        private final long[] firsts;
+
+        private final long[] seconds;
+
+        private final double[] values;
+
+        private final int[] hashes;
+
+        private final boolean[] referenced;
+
+        /** slot + 1 of an entry, or 0 for an empty bucket */
+        private final int[] table;
+
+        private final int mask;
+
+        private int size;
+
+        private int hand;
+
+        private Stripe(final int capacity) {
+            firsts = new long[capacity];
+            seconds = new long[capacity];
+            values = new double[capacity];
+            hashes = new int[capacity];
+            referenced = new boolean[capacity];
+            table = new int[Integer.highestOneBit(capacity) << 2];
+            mask = table.length - 1;
+        }
+
+        private int find(final long first, final long second, final int hash) {
+            for (int i = hash & mask;; i = i + 1 & mask) {
+                final int slot = table[i] - 1;
+                if (slot < 0) {
+                    return -1;
+                }
+                if (firsts[slot] == first && seconds[slot] == second) {
+                    return slot;
+                }
+            }
+        }
+
+        private void put(final long first, final long second,
+                final int hash, final double value) {
+            int slot = find(first, second, hash);
+            if (slot < 0) {
+                if (size == firsts.length) {
+                    evict();
+                }
+                slot = size++;
+                firsts[slot] = first;
+                seconds[slot] = second;
+                hashes[slot] = hash;
+                int i = hash & mask;
+                while (table[i] != 0) {
+                    i = i + 1 & mask;
+                }
+                table[i] = slot + 1;
+            }
+            values[slot] = value;
+            referenced[slot] = false;
+        }
+
+        private void evict() {
+            while (true) {
+                if (hand >= size) {
+                    hand = 0;
+                }
+                if (referenced[hand]) {
+                    referenced[hand] = false;
+                    hand++;
+                } else {
+                    remove(hand);
+                    return;
+                }
+            }
+        }
+
+        private void remove(final int slot) {
+            deleteBucket(bucketOf(slot));
+            final int last = size - 1;
+            if (slot != last) {
+                table[bucketOf(last)] = slot + 1;
+                firsts[slot] = firsts[last];
+                seconds[slot] = seconds[last];
+                values[slot] = values[last];
+                hashes[slot] = hashes[last];
+                referenced[slot] = referenced[last];
+            }
+            size = last;
+        }
+
+        private int bucketOf(final int slot) {
+            for (int i = hashes[slot] & mask;; i = i + 1 & mask) {
+                if (table[i] == slot + 1) {
+                    return i;
+                }
+            }
+        }
+
+        /**
+         * Deletes a bucket and shifts following buckets back, so that no
+         * tombstone is needed.
+         */
+        private void deleteBucket(final int bucket) {
+            int hole = bucket;
+            int i = bucket;
+            while (true) {
+                i = i + 1 & mask;
+                final int slot = table[i] - 1;
+                if (slot < 0) {
+                    table[hole] = 0;
+                    return;
+                }
+                final int home = hashes[slot] & mask;
+                // move the entry if its home is not in (hole, i]
+                if (hole <= i ? hole >= home || home > i : hole >= home
+                        && home > i) {
+                    table[hole] = table[i];
+                    hole = i;
+                }
+            }
+        }
+
+        private void clear() {
+            Arrays.fill(table, 0);
+            size = 0;
+            hand = 0;
+        }
+    }
+}
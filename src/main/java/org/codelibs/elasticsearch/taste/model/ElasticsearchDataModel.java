@@ -6,7 +6,9 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.codelibs.elasticsearch.taste.TasteConstants;
 import org.codelibs.elasticsearch.taste.common.FastIDSet;
@@ -39,6 +41,7 @@ import org.elasticsearch.search.sort.SortOrder;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.Weigher;
 
 public class ElasticsearchDataModel implements DataModel {
@@ -94,6 +97,8 @@ public class ElasticsearchDataModel implements DataModel {
 
     protected Cache<DmKey, DmValue> cache;
 
+    protected final LongAdder numOfRequests = new LongAdder();
+
     @Override
     public void refresh(final Collection<Refreshable> alreadyRefreshed) {
         cache.cleanUp();
@@ -103,7 +108,7 @@ public class ElasticsearchDataModel implements DataModel {
         final Weigher<DmKey, DmValue> weigher = (key, value) -> 24 + value
                 .getSize();
         cache = CacheBuilder.newBuilder().maximumWeight(weight)
-                .weigher(weigher).build();
+                .weigher(weigher).recordStats().build();
     }
 
     @Override
@@ -311,6 +316,7 @@ public class ElasticsearchDataModel implements DataModel {
         }
 
         SearchResponse response;
+        numOfRequests.increment();
         try {
             response = client.prepareSearch(preferenceIndex)
                     .setTypes(preferenceType)
@@ -364,6 +370,7 @@ public class ElasticsearchDataModel implements DataModel {
         }
 
         SearchResponse response;
+        numOfRequests.increment();
         try {
             response = client
                     .prepareSearch(preferenceIndex)
@@ -604,6 +611,7 @@ public class ElasticsearchDataModel implements DataModel {
     protected SearchResponse getPreferenceSearchResponse(
             final String targetField, final long targetID,
             final String... resultFields) {
+        numOfRequests.increment();
         try {
             return client
                     .prepareSearch(preferenceIndex)
@@ -657,6 +665,7 @@ public class ElasticsearchDataModel implements DataModel {
         int index = 0;
         try {
             while (true) {
+                numOfRequests.increment();
                 if (response == null) {
                     response = client.prepareSearch(userIndex)
                             .setTypes(userType)
@@ -711,6 +720,7 @@ public class ElasticsearchDataModel implements DataModel {
         int index = 0;
         try {
             while (true) {
+                numOfRequests.increment();
                 if (response == null) {
                     response = client.prepareSearch(itemIndex)
                             .setTypes(itemType)
@@ -763,6 +773,7 @@ public class ElasticsearchDataModel implements DataModel {
             return;
         }
         // TODO join userQueryBuilder and itemQueryBuilder
+        numOfRequests.increment();
         final SearchResponse response = client
                 .prepareSearch(preferenceIndex)
                 .setTypes(preferenceType)
@@ -775,6 +786,26 @@ public class ElasticsearchDataModel implements DataModel {
         stats = aggregations.get(valueField);
     }
 
+    public long getNumOfRequests() {
+        return numOfRequests.sum();
+    }
+
+    public Map<String, Object> getStats() {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("requests", numOfRequests.sum());
+        if (cache != null) {
+            final CacheStats cacheStats = cache.stats();
+            final Map<String, Object> cacheMap = new LinkedHashMap<>();
+            cacheMap.put("size", cache.size());
+            cacheMap.put("hit_count", cacheStats.hitCount());
+            cacheMap.put("miss_count", cacheStats.missCount());
+            cacheMap.put("hit_ratio", cacheStats.hitRate());
+            cacheMap.put("eviction_count", cacheStats.evictionCount());
+            map.put("cache", cacheMap);
+        }
+        return map;
+    }
+
     public Date getLastAccessed() {
         return lastAccessed;
     }
@@ -38,6 +38,10 @@ public class IndexInfo {
 
     private final String resultType;
 
+    private final String stateIndex;
+
+    private final String stateType;
+
     private final String userIdField;
 
     private final String itemIdField;
@@ -52,6 +56,8 @@ public class IndexInfo {
 
     private final int maxNumOfWriters;
 
+    private final Map<String, Object> writerSettings;
+
     public IndexInfo(final Map<String, Object> indexInfoSettings) {
         final String defaultIndex = SettingsUtils.get(indexInfoSettings,
                 "index");
@@ -108,6 +114,12 @@ public class IndexInfo {
         resultType = SettingsUtils.get(resultSettings, "type",
                 TasteConstants.RESULT_TYPE);
 
+        final Map<String, Object> stateSettings = SettingsUtils.get(
+                indexInfoSettings, "state");
+        stateIndex = SettingsUtils.get(stateSettings, "index", defaultIndex);
+        stateType = SettingsUtils.get(stateSettings, "type",
+                TasteConstants.STATE_TYPE);
+
         final Map<String, Object> fieldSettings = SettingsUtils.get(
                 indexInfoSettings, "field");
         userIdField = SettingsUtils.get(fieldSettings, "user_id",
@@ -123,8 +135,7 @@ public class IndexInfo {
         usersField = SettingsUtils.get(fieldSettings, "users",
                 TasteConstants.USERS_FILED);
 
-        final Map<String, Object> writerSettings = SettingsUtils
-                .get(indexInfoSettings, "writer");
+        writerSettings = SettingsUtils.get(indexInfoSettings, "writer");
         maxNumOfWriters = SettingsUtils
                 .get(writerSettings, "max", (Number) Integer.valueOf(10))
                 .intValue();
@@ -194,6 +205,14 @@ public class IndexInfo {
         return resultType;
     }
 
+    public String getStateIndex() {
+        return stateIndex;
+    }
+
+    public String getStateType() {
+        return stateType;
+    }
+
     public String getUserIdField() {
         return userIdField;
     }
@@ -221,4 +240,8 @@ public class IndexInfo {
     public int getMaxNumOfWriters() {
         return maxNumOfWriters;
     }
+
+    public Map<String, Object> getWriterSettings() {
+        return writerSettings;
+    }
 }
\ No newline at end of file
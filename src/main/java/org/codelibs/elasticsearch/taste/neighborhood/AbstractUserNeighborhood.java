@@ -18,10 +18,18 @@
 package org.codelibs.elasticsearch.taste.neighborhood;
 
 import java.util.Collection;
+import java.util.Iterator;
 
+import org.codelibs.elasticsearch.taste.common.Deadline;
+import org.codelibs.elasticsearch.taste.common.FastIDSet;
+import org.codelibs.elasticsearch.taste.common.LongPrimitiveIterator;
 import org.codelibs.elasticsearch.taste.common.RefreshHelper;
 import org.codelibs.elasticsearch.taste.common.Refreshable;
+import org.codelibs.elasticsearch.taste.common.SamplingLongPrimitiveIterator;
+import org.codelibs.elasticsearch.taste.common.iterator.FixedSizeSamplingIterator;
 import org.codelibs.elasticsearch.taste.model.DataModel;
+import org.codelibs.elasticsearch.taste.model.Preference;
+import org.codelibs.elasticsearch.taste.model.PreferenceArray;
 import org.codelibs.elasticsearch.taste.similarity.UserSimilarity;
 
 import com.google.common.base.Preconditions;
@@ -41,6 +49,10 @@ abstract class AbstractUserNeighborhood implements UserNeighborhood {
 
     private final RefreshHelper refreshHelper;
 
+    private boolean cooccurringUsersOnly;
+
+    private int maxUsersPerItem = Integer.MAX_VALUE;
+
     AbstractUserNeighborhood(final UserSimilarity userSimilarity,
             final DataModel dataModel, final double samplingRate) {
         Preconditions.checkArgument(userSimilarity != null,
@@ -68,6 +80,55 @@ abstract class AbstractUserNeighborhood implements UserNeighborhood {
         return samplingRate;
     }
 
+    /**
+     * Restricts candidates of neighbors to users who prefer at least one
+     * item of a target user. Most similarities are NaN for the other users.
+     *
+     * @param maxUsersPerItem max users sampled from the users of an item
+     */
+    public void setCooccurringUsersOnly(final int maxUsersPerItem) {
+        Preconditions.checkArgument(maxUsersPerItem > 0,
+                "maxUsersPerItem must be greater than 0");
+        cooccurringUsersOnly = true;
+        this.maxUsersPerItem = maxUsersPerItem;
+    }
+
+    /**
+     * Returns users to be scored for the user, which is all users or users
+     * found through the items of the user.
+     */
+    final LongPrimitiveIterator getCandidateUserIDs(final long userID) {
+        if (!cooccurringUsersOnly) {
+            return SamplingLongPrimitiveIterator.maybeWrapIterator(
+                    dataModel.getUserIDs(), samplingRate);
+        }
+        final FastIDSet userIDs = new FastIDSet();
+        final PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+        final int length = prefs.length();
+        for (int i = 0; i < length; i++) {
+            if (Deadline.check()) {
+                break;
+            }
+            final PreferenceArray itemPrefs = dataModel
+                    .getPreferencesForItem(prefs.getItemID(i));
+            final int numOfUsers = itemPrefs.length();
+            if (numOfUsers > maxUsersPerItem) {
+                final Iterator<Preference> sampledPrefs = new FixedSizeSamplingIterator<>(
+                        maxUsersPerItem, itemPrefs.iterator());
+                while (sampledPrefs.hasNext()) {
+                    userIDs.add(sampledPrefs.next().getUserID());
+                }
+            } else {
+                for (int j = 0; j < numOfUsers; j++) {
+                    userIDs.add(itemPrefs.getUserID(j));
+                }
+            }
+        }
+        userIDs.remove(userID);
+        return SamplingLongPrimitiveIterator.maybeWrapIterator(
+                userIDs.iterator(), samplingRate);
+    }
+
     @Override
     public final void refresh(final Collection<Refreshable> alreadyRefreshed) {
         refreshHelper.refresh(alreadyRefreshed);
@@ -14,10 +14,18 @@ public abstract class AbstractUserNeighborhoodFactory implements
 
     protected UserSimilarity userSimilarity;
 
+    protected boolean cooccurringUsersOnly;
+
+    protected int maxUsersPerItem;
+
     @Override
     public void init(final Map<String, Object> settings) {
         dataModel = SettingsUtils.get(settings, "dataModel");
         userSimilarity = SettingsUtils.get(settings, "userSimilarity");
+        cooccurringUsersOnly = SettingsUtils.get(settings,
+                "cooccurring_users_only", false);
+        maxUsersPerItem = SettingsUtils.get(settings, "max_users_per_item",
+                Integer.MAX_VALUE);
     }
 
 }
\ No newline at end of file
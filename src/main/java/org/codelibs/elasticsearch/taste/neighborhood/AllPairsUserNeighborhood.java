@@ -0,0 +1,272 @@
+package org.codelibs.elasticsearch.taste.neighborhood;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.mahout.math.map.OpenLongIntHashMap;
+import org.codelibs.elasticsearch.taste.common.Deadline;
+import org.codelibs.elasticsearch.taste.common.FastIDSet;
+import org.codelibs.elasticsearch.taste.common.LongPrimitiveIterator;
+import org.codelibs.elasticsearch.taste.model.DataModel;
+import org.codelibs.elasticsearch.taste.recommender.SimilarUser;
+import org.codelibs.elasticsearch.taste.similarity.LogLikelihoodSimilarity;
+import org.codelibs.elasticsearch.taste.similarity.PearsonCorrelationSimilarity;
+import org.codelibs.elasticsearch.taste.similarity.TanimotoCoefficientSimilarity;
+import org.codelibs.elasticsearch.taste.similarity.UncenteredCosineSimilarity;
+import org.codelibs.elasticsearch.taste.similarity.UserSimilarity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Computes the same neighborhood as {@link ThresholdUserNeighborhood} by
+ * prefix filtering of the AllPairs algorithm. Items of each user are ordered
+ * by their global frequency, rarest first, and only a prefix of the items
+ * is indexed. If two users share at least k items, their prefixes without
+ * the last k - 1 items share an item, so users found through the prefix of
+ * a target user are the only candidates.
+ * </p>
+ *
+ * <p>
+ * k is ceil(threshold * the number of items) for
+ * {@link TanimotoCoefficientSimilarity}, and users outside the length bounds
+ * of the threshold are skipped too. k is 2 for
+ * {@link PearsonCorrelationSimilarity} because a correlation of one common
+ * item is NaN, and 1 for {@link UncenteredCosineSimilarity} and
+ * {@link LogLikelihoodSimilarity}. Cosine and Pearson correlation are
+ * computed over common items only, so no upper bound by vector norms
+ * applies to them. The other similarities and cosine or Pearson
+ * correlation with a preference inferrer are not supported, and all users
+ * are scored for them with a warning. The similarity and its inferrer are
+ * checked when this neighborhood is created, so a wrapped similarity such
+ * as {@link org.codelibs.elasticsearch.taste.similarity.CachingUserSimilarity}
+ * is not supported either.
+ * </p>
+ *
+ * <p>
+ * The index is built from all users when this neighborhood is created and
+ * is not rebuilt by refresh.
+ * </p>
+ */
+public final class AllPairsUserNeighborhood extends AbstractUserNeighborhood {
+    private static final Logger log = LoggerFactory
+            .getLogger(AllPairsUserNeighborhood.class);
+
+    private final double threshold;
+
+    private final boolean tanimoto;
+
+    private final int minOverlap;
+
+    /** sorted user IDs; an index of this array identifies a user */
+    private long[] userIDs;
+
+    private int[] numOfItems;
+
+    private OpenLongIntHashMap itemIndex;
+
+    private int[] frequencies;
+
+    /** users of item i are postings[offsets[i]] to postings[offsets[i + 1]] */
+    private int[] offsets;
+
+    private int[] postings;
+
+    /**
+     * @param threshold similarity threshold
+     * @param userSimilarity similarity metric
+     * @param dataModel data model
+     */
+    public AllPairsUserNeighborhood(final double threshold,
+            final UserSimilarity userSimilarity, final DataModel dataModel) {
+        super(userSimilarity, dataModel, 1.0);
+        Preconditions.checkArgument(!Double.isNaN(threshold),
+                "threshold must not be NaN");
+        this.threshold = threshold;
+        tanimoto = userSimilarity instanceof TanimotoCoefficientSimilarity;
+        if (tanimoto) {
+            // users without items are 0.0 to others
+            minOverlap = threshold > 0 ? 1 : 0;
+        } else if (userSimilarity instanceof PearsonCorrelationSimilarity) {
+            // inferred preferences make users without common items similar
+            minOverlap = ((PearsonCorrelationSimilarity) userSimilarity)
+                    .hasPreferenceInferrer() ? 0 : 2;
+        } else if (userSimilarity instanceof UncenteredCosineSimilarity) {
+            minOverlap = ((UncenteredCosineSimilarity) userSimilarity)
+                    .hasPreferenceInferrer() ? 0 : 1;
+        } else if (userSimilarity instanceof LogLikelihoodSimilarity) {
+            minOverlap = 1;
+        } else {
+            minOverlap = 0;
+        }
+        if (minOverlap > 0) {
+            buildIndex(dataModel);
+        } else {
+            log.warn("AllPairs index is not used for {} with threshold {}."
+                    + " All users are scored.", userSimilarity, threshold);
+        }
+    }
+
+    private void buildIndex(final DataModel dataModel) {
+        final long startTime = System.currentTimeMillis();
+        long[] ids = new long[dataModel.getNumUsers()];
+        int size = 0;
+        final LongPrimitiveIterator it = dataModel.getUserIDs();
+        while (it.hasNext()) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+            }
+            ids[size++] = it.nextLong();
+        }
+        userIDs = Arrays.copyOf(ids, size);
+        Arrays.sort(userIDs);
+        numOfItems = new int[size];
+
+        // global frequencies of items
+        itemIndex = new OpenLongIntHashMap();
+        frequencies = new int[16];
+        int numOfIndexedItems = 0;
+        for (int u = 0; u < size; u++) {
+            final FastIDSet itemIDs = dataModel.getItemIDsFromUser(userIDs[u]);
+            numOfItems[u] = itemIDs.size();
+            final LongPrimitiveIterator itemIt = itemIDs.iterator();
+            while (itemIt.hasNext()) {
+                final long itemID = itemIt.nextLong();
+                int index = itemIndex.get(itemID) - 1;
+                if (index < 0) {
+                    index = numOfIndexedItems++;
+                    itemIndex.put(itemID, index + 1);
+                    if (index == frequencies.length) {
+                        frequencies = Arrays.copyOf(frequencies, index * 2);
+                    }
+                }
+                frequencies[index]++;
+            }
+        }
+
+        // (item index << 32 | user index) of prefixes
+        long[] entries = new long[size];
+        int numOfEntries = 0;
+        for (int u = 0; u < size; u++) {
+            final int[] items = getOrderedItems(dataModel
+                    .getItemIDsFromUser(userIDs[u]));
+            final int prefixLength = getPrefixLength(items.length);
+            for (int i = 0; i < prefixLength; i++) {
+                if (numOfEntries == entries.length) {
+                    entries = Arrays.copyOf(entries, numOfEntries * 2);
+                }
+                entries[numOfEntries++] = (long) items[i] << 32 | u;
+            }
+        }
+        entries = Arrays.copyOf(entries, numOfEntries);
+        Arrays.sort(entries);
+        offsets = new int[numOfIndexedItems + 1];
+        postings = new int[numOfEntries];
+        for (int e = 0; e < numOfEntries; e++) {
+            offsets[(int) (entries[e] >>> 32) + 1]++;
+            postings[e] = (int) entries[e];
+        }
+        for (int i = 0; i < numOfIndexedItems; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        log.info("AllPairs index of {} users and {} prefix items"
+                + " is built in {} ms.", size, numOfEntries,
+                System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Returns indexes of known items ordered by frequency, rarest first.
+     * Unknown items are not preferred by other users and counted only in the
+     * length.
+     */
+    private int[] getOrderedItems(final FastIDSet itemIDs) {
+        final long[] keys = new long[itemIDs.size()];
+        int numOfUnknown = 0;
+        int count = 0;
+        final LongPrimitiveIterator it = itemIDs.iterator();
+        while (it.hasNext()) {
+            final int index = itemIndex.get(it.nextLong()) - 1;
+            if (index < 0) {
+                numOfUnknown++;
+            } else {
+                keys[count++] = (long) frequencies[index] << 32 | index;
+            }
+        }
+        Arrays.sort(keys, 0, count);
+        // unknown items are the rarest, -1 is placed for them
+        final int[] items = new int[keys.length];
+        Arrays.fill(items, 0, numOfUnknown, -1);
+        for (int i = 0; i < count; i++) {
+            items[numOfUnknown + i] = (int) keys[i];
+        }
+        return items;
+    }
+
+    private int getPrefixLength(final int length) {
+        final int overlap = tanimoto ? Math.max(1,
+                (int) Math.ceil(threshold * length)) : minOverlap;
+        return Math.max(0, length - overlap + 1);
+    }
+
+    @Override
+    public List<SimilarUser> getUserNeighborhood(final long userID) {
+        final LongPrimitiveIterator candidateIDs;
+        if (minOverlap > 0) {
+            candidateIDs = findCandidates(userID);
+        } else {
+            candidateIDs = getDataModel().getUserIDs();
+        }
+        final UserSimilarity userSimilarityImpl = getUserSimilarity();
+        final List<SimilarUser> neighborhood = new ArrayList<>();
+        while (candidateIDs.hasNext()) {
+            if (Deadline.check()) {
+                break;
+            }
+            final long otherUserID = candidateIDs.nextLong();
+            if (userID != otherUserID) {
+                final double theSimilarity = userSimilarityImpl.userSimilarity(
+                        userID, otherUserID);
+                if (!Double.isNaN(theSimilarity)
+                        && theSimilarity >= threshold) {
+                    neighborhood
+                            .add(new SimilarUser(otherUserID, theSimilarity));
+                }
+            }
+        }
+        return neighborhood;
+    }
+
+    private LongPrimitiveIterator findCandidates(final long userID) {
+        final int[] items = getOrderedItems(getDataModel().getItemIDsFromUser(
+                userID));
+        final int length = items.length;
+        final int prefixLength = getPrefixLength(length);
+        // length bounds of Tanimoto coefficient
+        final double minLength = tanimoto ? threshold * length : 0;
+        final double maxLength = tanimoto ? length / threshold
+                : Double.POSITIVE_INFINITY;
+        final FastIDSet candidateIDs = new FastIDSet();
+        for (int i = 0; i < prefixLength; i++) {
+            final int item = items[i];
+            if (item < 0) {
+                continue;
+            }
+            for (int p = offsets[item]; p < offsets[item + 1]; p++) {
+                final int user = postings[p];
+                final int otherLength = numOfItems[user];
+                if (otherLength >= minLength && otherLength <= maxLength) {
+                    candidateIDs.add(userIDs[user]);
+                }
+            }
+        }
+        return candidateIDs.iterator();
+    }
+
+    @Override
+    public String toString() {
+        return "AllPairsUserNeighborhood";
+    }
+}
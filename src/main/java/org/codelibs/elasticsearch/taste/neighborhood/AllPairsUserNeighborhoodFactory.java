@@ -0,0 +1,28 @@
+package org.codelibs.elasticsearch.taste.neighborhood;
+
+import java.util.Map;
+
+import org.codelibs.elasticsearch.taste.exception.TasteException;
+import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+
+public class AllPairsUserNeighborhoodFactory extends
+        AbstractUserNeighborhoodFactory {
+    protected double threshold;
+
+    @Override
+    public void init(final Map<String, Object> settings) {
+        super.init(settings);
+        threshold = SettingsUtils.get(settings, "threshold", Double.NaN);
+    }
+
+    @Override
+    public UserNeighborhood create() {
+        try {
+            return new AllPairsUserNeighborhood(threshold, userSimilarity,
+                    dataModel);
+        } catch (final Exception e) {
+            throw new TasteException("Failed to create an instance.", e);
+        }
+    }
+
+}
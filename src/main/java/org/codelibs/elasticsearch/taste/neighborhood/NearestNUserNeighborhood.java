@@ -20,7 +20,6 @@ package org.codelibs.elasticsearch.taste.neighborhood;
 import java.util.List;
 
 import org.codelibs.elasticsearch.taste.common.LongPrimitiveIterator;
-import org.codelibs.elasticsearch.taste.common.SamplingLongPrimitiveIterator;
 import org.codelibs.elasticsearch.taste.model.DataModel;
 import org.codelibs.elasticsearch.taste.recommender.SimilarUser;
 import org.codelibs.elasticsearch.taste.recommender.TopItems;
@@ -83,14 +82,12 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
     @Override
     public List<SimilarUser> getUserNeighborhood(final long userID) {
 
-        final DataModel dataModel = getDataModel();
         final UserSimilarity userSimilarityImpl = getUserSimilarity();
 
-        final TopItems.Estimator<Long> estimator = new Estimator(
+        final TopItems.LongEstimator estimator = new Estimator(
                 userSimilarityImpl, userID, minSimilarity);
 
-        final LongPrimitiveIterator userIDs = SamplingLongPrimitiveIterator
-                .maybeWrapIterator(dataModel.getUserIDs(), getSamplingRate());
+        final LongPrimitiveIterator userIDs = getCandidateUserIDs(userID);
 
         return TopItems.getTopUsers(n, userIDs, null, estimator);
     }
@@ -100,7 +97,7 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
         return "NearestNUserNeighborhood";
     }
 
-    private static final class Estimator implements TopItems.Estimator<Long> {
+    private static final class Estimator implements TopItems.LongEstimator {
         private final UserSimilarity userSimilarityImpl;
 
         private final long theUserID;
@@ -115,7 +112,7 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
         }
 
         @Override
-        public double estimate(final Long userID) {
+        public double estimate(final long userID) {
             if (userID == theUserID) {
                 return Double.NaN;
             }
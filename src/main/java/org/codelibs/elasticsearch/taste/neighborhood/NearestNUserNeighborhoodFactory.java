@@ -23,8 +23,12 @@ public class NearestNUserNeighborhoodFactory extends
     @Override
     public UserNeighborhood create() {
         try {
-            return new NearestNUserNeighborhood(neighborhoodSize,
-                    minSimilarity, userSimilarity, dataModel);
+            final NearestNUserNeighborhood neighborhood = new NearestNUserNeighborhood(
+                    neighborhoodSize, minSimilarity, userSimilarity, dataModel);
+            if (cooccurringUsersOnly) {
+                neighborhood.setCooccurringUsersOnly(maxUsersPerItem);
+            }
+            return neighborhood;
         } catch (final Exception e) {
             throw new TasteException("Failed to create an instance.", e);
         }
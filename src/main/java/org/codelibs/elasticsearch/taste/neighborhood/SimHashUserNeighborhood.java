@@ -0,0 +1,260 @@
+package org.codelibs.elasticsearch.taste.neighborhood;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.codelibs.elasticsearch.taste.common.FastIDSet;
+import org.codelibs.elasticsearch.taste.common.LongPrimitiveIterator;
+import org.codelibs.elasticsearch.taste.model.DataModel;
+import org.codelibs.elasticsearch.taste.model.PreferenceArray;
+import org.codelibs.elasticsearch.taste.recommender.SimilarUser;
+import org.codelibs.elasticsearch.taste.recommender.TopItems;
+import org.codelibs.elasticsearch.taste.similarity.UserSimilarity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Computes a neighborhood of the nearest N users among candidates found by
+ * SimHash. Preference vectors, centered by the mean of each user if
+ * required, are projected onto random hyperplanes whose components are +1
+ * or -1 by a hash of an item ID, and the signs of the projections are
+ * stored as codes in some tables. Users in the bucket of the code and
+ * buckets whose code differs in one of the least certain bits are
+ * candidates, and the similarities to them are computed by
+ * {@link UserSimilarity}.
+ * </p>
+ *
+ * <p>
+ * The tables are built from all users when this neighborhood is created and
+ * are not rebuilt by refresh.
+ * </p>
+ */
+public final class SimHashUserNeighborhood extends AbstractUserNeighborhood {
+    private static final Logger log = LoggerFactory
+            .getLogger(SimHashUserNeighborhood.class);
+
+    private final int n;
+
+    private final double minSimilarity;
+
+    private final int numOfBits;
+
+    private final int numOfTables;
+
+    private final int numOfProbes;
+
+    private final boolean centered;
+
+    private final long[] seeds;
+
+    /** sorted user IDs; an index of this array identifies a user */
+    private final long[] userIDs;
+
+    /** (code << 32 | user index) sorted for each table */
+    private final long[][] tables;
+
+    /**
+     * @param n neighborhood size; capped at the number of users in the data model
+     * @param minSimilarity minimal similarity required for neighbors
+     * @param numOfBits the number of hyperplanes in a table; at most 32
+     * @param numOfTables the number of tables
+     * @param numOfProbes the number of uncertain bits flipped for probing
+     *   neighboring buckets
+     * @param centered center preferences by the mean of each user
+     * @param seed seed of random hyperplanes
+     */
+    public SimHashUserNeighborhood(final int n, final double minSimilarity,
+            final UserSimilarity userSimilarity, final DataModel dataModel,
+            final int numOfBits, final int numOfTables, final int numOfProbes,
+            final boolean centered, final long seed) {
+        super(userSimilarity, dataModel, 1.0);
+        Preconditions.checkArgument(n >= 1, "n must be at least 1");
+        Preconditions.checkArgument(numOfBits >= 1 && numOfBits <= 32,
+                "numOfBits must be in [1,32]");
+        Preconditions.checkArgument(numOfTables >= 1,
+                "numOfTables must be at least 1");
+        Preconditions.checkArgument(numOfProbes >= 0
+                && numOfProbes <= numOfBits, "numOfProbes must be in [0,"
+                + numOfBits + "]");
+        final int numUsers = dataModel.getNumUsers();
+        this.n = n > numUsers ? numUsers : n;
+        this.minSimilarity = minSimilarity;
+        this.numOfBits = numOfBits;
+        this.numOfTables = numOfTables;
+        this.numOfProbes = numOfProbes;
+        this.centered = centered;
+        final Random random = new Random(seed);
+        seeds = new long[numOfBits * numOfTables];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = random.nextLong();
+        }
+
+        final long startTime = System.currentTimeMillis();
+        long[] ids = new long[numUsers];
+        int size = 0;
+        final LongPrimitiveIterator it = dataModel.getUserIDs();
+        while (it.hasNext()) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+            }
+            ids[size++] = it.nextLong();
+        }
+        ids = Arrays.copyOf(ids, size);
+        Arrays.sort(ids);
+        userIDs = ids;
+
+        tables = new long[numOfTables][size];
+        final double[] projections = new double[seeds.length];
+        int numOfIndexed = 0;
+        for (int i = 0; i < size; i++) {
+            final PreferenceArray prefs = dataModel
+                    .getPreferencesFromUser(userIDs[i]);
+            if (prefs.length() == 0) {
+                continue;
+            }
+            project(prefs, projections);
+            for (int t = 0; t < numOfTables; t++) {
+                tables[t][numOfIndexed] = (long) code(projections, t) << 32
+                        | i;
+            }
+            numOfIndexed++;
+        }
+        for (int t = 0; t < numOfTables; t++) {
+            tables[t] = Arrays.copyOf(tables[t], numOfIndexed);
+            Arrays.sort(tables[t]);
+        }
+        log.info("SimHash tables of {} users are built in {} ms.",
+                numOfIndexed, System.currentTimeMillis() - startTime);
+    }
+
+    private void project(final PreferenceArray prefs,
+            final double[] projections) {
+        Arrays.fill(projections, 0.0);
+        final int length = prefs.length();
+        double mean = 0.0;
+        if (centered) {
+            for (int i = 0; i < length; i++) {
+                mean += prefs.getValue(i);
+            }
+            mean /= length;
+        }
+        for (int i = 0; i < length; i++) {
+            final long itemID = prefs.getItemID(i);
+            final double value = prefs.getValue(i) - mean;
+            for (int k = 0; k < seeds.length; k++) {
+                if (mix(itemID ^ seeds[k]) < 0) {
+                    projections[k] -= value;
+                } else {
+                    projections[k] += value;
+                }
+            }
+        }
+    }
+
+    private int code(final double[] projections, final int table) {
+        int code = 0;
+        final int offset = table * numOfBits;
+        for (int b = 0; b < numOfBits; b++) {
+            if (projections[offset + b] > 0) {
+                code |= 1 << b;
+            }
+        }
+        return code;
+    }
+
+    /**
+     * The finalizer of MurmurHash3.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    @Override
+    public List<SimilarUser> getUserNeighborhood(final long userID) {
+        final DataModel dataModel = getDataModel();
+        final PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+        final FastIDSet candidateIDs = new FastIDSet();
+        if (prefs.length() > 0) {
+            final double[] projections = new double[seeds.length];
+            project(prefs, projections);
+            final Integer[] bits = new Integer[numOfBits];
+            for (int t = 0; t < numOfTables; t++) {
+                final int code = code(projections, t);
+                addCandidates(tables[t], code, candidateIDs);
+                if (numOfProbes == 0) {
+                    continue;
+                }
+                // bits with small projections are the least certain
+                final int offset = t * numOfBits;
+                for (int b = 0; b < numOfBits; b++) {
+                    bits[b] = b;
+                }
+                Arrays.sort(bits, (b1, b2) -> Double.compare(
+                        Math.abs(projections[offset + b1]),
+                        Math.abs(projections[offset + b2])));
+                for (int p = 0; p < numOfProbes; p++) {
+                    addCandidates(tables[t], code ^ 1 << bits[p], candidateIDs);
+                }
+            }
+        }
+        candidateIDs.remove(userID);
+
+        final TopItems.LongEstimator estimator = new Estimator(
+                getUserSimilarity(), userID, minSimilarity);
+        return TopItems.getTopUsers(n, candidateIDs.iterator(), null,
+                estimator);
+    }
+
+    private void addCandidates(final long[] table, final int code,
+            final FastIDSet candidateIDs) {
+        final long key = (long) code << 32;
+        int pos = Arrays.binarySearch(table, key);
+        if (pos < 0) {
+            pos = -pos - 1;
+        }
+        while (pos < table.length && table[pos] >>> 32 == key >>> 32) {
+            candidateIDs.add(userIDs[(int) table[pos]]);
+            pos++;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SimHashUserNeighborhood[bits:" + numOfBits + ", tables:"
+                + numOfTables + ", probes:" + numOfProbes + ']';
+    }
+
+    private static final class Estimator implements TopItems.LongEstimator {
+        private final UserSimilarity userSimilarityImpl;
+
+        private final long theUserID;
+
+        private final double minSim;
+
+        private Estimator(final UserSimilarity userSimilarityImpl,
+                final long theUserID, final double minSim) {
+            this.userSimilarityImpl = userSimilarityImpl;
+            this.theUserID = theUserID;
+            this.minSim = minSim;
+        }
+
+        @Override
+        public double estimate(final long userID) {
+            if (userID == theUserID) {
+                return Double.NaN;
+            }
+            final double sim = userSimilarityImpl.userSimilarity(theUserID,
+                    userID);
+            return sim >= minSim ? sim : Double.NaN;
+        }
+    }
+}
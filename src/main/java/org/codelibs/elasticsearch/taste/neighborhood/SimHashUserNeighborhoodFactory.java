@@ -0,0 +1,57 @@
+package org.codelibs.elasticsearch.taste.neighborhood;
+
+import java.util.Map;
+
+import org.codelibs.elasticsearch.taste.exception.TasteException;
+import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+
+public class SimHashUserNeighborhoodFactory extends
+        AbstractUserNeighborhoodFactory {
+
+    protected int neighborhoodSize;
+
+    protected double minSimilarity;
+
+    protected int numOfBits;
+
+    protected int numOfTables;
+
+    protected int numOfProbes;
+
+    protected boolean centered;
+
+    protected long seed;
+
+    /**
+     * Candidates are found by the SimHash tables, so cooccurring_users_only,
+     * which max_users_per_item applies to, is rejected.
+     */
+    @Override
+    public void init(final Map<String, Object> settings) {
+        super.init(settings);
+        if (cooccurringUsersOnly) {
+            throw new TasteException("cooccurring_users_only cannot be used"
+                    + " with SimHashUserNeighborhoodFactory.");
+        }
+        neighborhoodSize = SettingsUtils.get(settings, "neighborhood_size", 10);
+        minSimilarity = SettingsUtils.get(settings, "min_similarity",
+                Double.NEGATIVE_INFINITY);
+        numOfBits = SettingsUtils.get(settings, "bits", 8);
+        numOfTables = SettingsUtils.get(settings, "tables", 16);
+        numOfProbes = SettingsUtils.get(settings, "probes", 3);
+        centered = SettingsUtils.get(settings, "centered", true);
+        final Number seedValue = SettingsUtils.get(settings, "seed", 0);
+        seed = seedValue.longValue();
+    }
+
+    @Override
+    public UserNeighborhood create() {
+        try {
+            return new SimHashUserNeighborhood(neighborhoodSize,
+                    minSimilarity, userSimilarity, dataModel, numOfBits,
+                    numOfTables, numOfProbes, centered, seed);
+        } catch (final Exception e) {
+            throw new TasteException("Failed to create an instance.", e);
+        }
+    }
+}
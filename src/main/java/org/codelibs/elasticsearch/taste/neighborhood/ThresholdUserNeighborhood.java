@@ -21,7 +21,6 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.codelibs.elasticsearch.taste.common.LongPrimitiveIterator;
-import org.codelibs.elasticsearch.taste.common.SamplingLongPrimitiveIterator;
 import org.codelibs.elasticsearch.taste.model.DataModel;
 import org.codelibs.elasticsearch.taste.recommender.SimilarUser;
 import org.codelibs.elasticsearch.taste.similarity.UserSimilarity;
@@ -80,10 +79,8 @@ public final class ThresholdUserNeighborhood extends AbstractUserNeighborhood {
     @Override
     public List<SimilarUser> getUserNeighborhood(final long userID) {
 
-        final DataModel dataModel = getDataModel();
         final List<SimilarUser> neighborhood = new ArrayList<>();
-        final LongPrimitiveIterator usersIterable = SamplingLongPrimitiveIterator
-                .maybeWrapIterator(dataModel.getUserIDs(), getSamplingRate());
+        final LongPrimitiveIterator usersIterable = getCandidateUserIDs(userID);
         final UserSimilarity userSimilarityImpl = getUserSimilarity();
 
         while (usersIterable.hasNext()) {
@@ -17,8 +17,12 @@ public class ThresholdUserNeighborhoodFactory extends
 
     @Override
     public UserNeighborhood create() {
-        return new ThresholdUserNeighborhood(threshold, userSimilarity,
-                dataModel);
+        final ThresholdUserNeighborhood neighborhood = new ThresholdUserNeighborhood(
+                threshold, userSimilarity, dataModel);
+        if (cooccurringUsersOnly) {
+            neighborhood.setCooccurringUsersOnly(maxUsersPerItem);
+        }
+        return neighborhood;
     }
 
 }
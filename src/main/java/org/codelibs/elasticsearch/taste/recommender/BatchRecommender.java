@@ -0,0 +1,19 @@
+package org.codelibs.elasticsearch.taste.recommender;
+
+import java.util.List;
+
+/**
+ * A recommender which computes recommended items of many users at once.
+ */
+public interface BatchRecommender extends Recommender {
+
+    /**
+     * @param userIDs users to recommend items to
+     * @param howMany the number of items to recommend to each user
+     * @return recommended items in the order of userIDs. An element is null
+     *         if the user cannot be processed in a batch, and
+     *         {@link #recommend(long, int)} should be used for the user.
+     */
+    List<List<RecommendedItem>> recommend(long[] userIDs, int howMany);
+
+}
@@ -0,0 +1,11 @@
+package org.codelibs.elasticsearch.taste.recommender;
+
+import java.util.Map;
+
+public interface CandidateItemsStrategyFactory {
+
+    void init(Map<String, Object> settings);
+
+    AbstractCandidateItemsStrategy create();
+
+}
@@ -0,0 +1,112 @@
+package org.codelibs.elasticsearch.taste.recommender;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.codelibs.elasticsearch.taste.common.LongPrimitiveIterator;
+import org.codelibs.elasticsearch.taste.exception.NoSuchUserException;
+import org.codelibs.elasticsearch.taste.exception.TasteException;
+import org.codelibs.elasticsearch.taste.model.DataModel;
+import org.codelibs.elasticsearch.taste.model.IndexInfo;
+import org.codelibs.elasticsearch.taste.recommender.svd.Factorization;
+import org.codelibs.elasticsearch.taste.recommender.svd.Factorizer;
+import org.codelibs.elasticsearch.taste.recommender.svd.FactorizerFactory;
+import org.codelibs.elasticsearch.taste.recommender.svd.PersistenceStrategy;
+import org.codelibs.elasticsearch.taste.recommender.svd.SVDRecommender;
+import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class FactorizationRecommenderBuilder extends
+        AbstractRecommenderBuilder {
+    private static final Logger log = LoggerFactory
+            .getLogger(FactorizationRecommenderBuilder.class);
+
+    protected PersistenceStrategy persistenceStrategy;
+
+    /**
+     * @param persistenceStrategy loads a factorization, or stores a trained
+     *          one
+     */
+    public FactorizationRecommenderBuilder(final IndexInfo indexInfo,
+            final Map<String, Object> rootSettings,
+            final PersistenceStrategy persistenceStrategy) {
+        super(indexInfo, rootSettings);
+        this.persistenceStrategy = persistenceStrategy;
+    }
+
+    @Override
+    public Recommender buildRecommender(final DataModel dataModel) {
+        final Map<String, Object> factorizerSettings = SettingsUtils.get(
+                rootSettings, "factorizer", new HashMap<String, Object>());
+        factorizerSettings.put(DATA_MODEL_ATTR, dataModel);
+        final Factorizer factorizer = createFactorizer(factorizerSettings);
+
+        // the same candidates as a batch of SVDRecommender
+        return new SVDRecommender(dataModel, factorizer,
+                new AllUnknownItemsCandidateItemsStrategy(),
+                new PersistenceStrategy() {
+                    @Override
+                    public Factorization load() throws IOException {
+                        final Factorization factorization = persistenceStrategy
+                                .load();
+                        if (factorization != null
+                                && !containsUsers(factorization, dataModel)) {
+                            // trained again and overwritten
+                            return null;
+                        }
+                        return factorization;
+                    }
+
+                    @Override
+                    public void maybePersist(
+                            final Factorization factorization)
+                            throws IOException {
+                        persistenceStrategy.maybePersist(factorization);
+                    }
+                });
+    }
+
+    /**
+     * Checks if a loaded factorization is trained with all users of the data
+     * model, because users added after training have no features.
+     */
+    protected boolean containsUsers(final Factorization factorization,
+            final DataModel dataModel) {
+        int numOfMissingUsers = 0;
+        final LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+        while (userIDs.hasNext()) {
+            try {
+                factorization.userIndex(userIDs.nextLong());
+            } catch (final NoSuchUserException e) {
+                numOfMissingUsers++;
+            }
+        }
+        if (numOfMissingUsers > 0) {
+            log.info(
+                    "{} users are not in the factorization, which is trained again.",
+                    numOfMissingUsers);
+            return false;
+        }
+        return true;
+    }
+
+    protected Factorizer createFactorizer(
+            final Map<String, Object> factorizerSettings) {
+        final String factoryName = SettingsUtils
+                .get(factorizerSettings, "factory",
+                        "org.codelibs.elasticsearch.taste.recommender.svd.ALSWRFactorizerFactory");
+        try {
+            final Class<?> clazz = Class.forName(factoryName);
+            final FactorizerFactory factorizerFactory = (FactorizerFactory) clazz
+                    .newInstance();
+            factorizerFactory.init(factorizerSettings);
+            return factorizerFactory.create();
+        } catch (ClassNotFoundException | InstantiationException
+                | IllegalAccessException e) {
+            throw new TasteException("Could not create an instance of "
+                    + factoryName, e);
+        }
+    }
+}
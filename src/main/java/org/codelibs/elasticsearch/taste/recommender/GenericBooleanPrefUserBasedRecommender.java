@@ -19,7 +19,6 @@ package org.codelibs.elasticsearch.taste.recommender;
 
 import java.util.List;
 
-import org.codelibs.elasticsearch.taste.common.FastIDSet;
 import org.codelibs.elasticsearch.taste.model.DataModel;
 import org.codelibs.elasticsearch.taste.neighborhood.UserNeighborhood;
 import org.codelibs.elasticsearch.taste.similarity.UserSimilarity;
@@ -66,16 +65,9 @@ public final class GenericBooleanPrefUserBasedRecommender extends
     }
 
     @Override
-    protected FastIDSet getAllOtherItems(
-            final List<SimilarUser> theNeighborhood, final long theUserID) {
-        final DataModel dataModel = getDataModel();
-        final FastIDSet possibleItemIDs = new FastIDSet();
-        for (final SimilarUser similarUser : theNeighborhood) {
-            possibleItemIDs.addAll(dataModel.getItemIDsFromUser(similarUser
-                    .getUserID()));
-        }
-        possibleItemIDs.removeAll(dataModel.getItemIDsFromUser(theUserID));
-        return possibleItemIDs;
+    protected float doEstimatePreference(final double preference,
+            final double totalSimilarity, final int count) {
+        return count > 0 ? (float) totalSimilarity : Float.NaN;
     }
 
     @Override
@@ -112,6 +112,10 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
         return similarity;
     }
 
+    public MostSimilarItemsCandidateItemsStrategy getMostSimilarItemsCandidateItemsStrategy() {
+        return mostSimilarItemsCandidateItemsStrategy;
+    }
+
     @Override
     public List<RecommendedItem> recommend(final long userID,
             final int howMany, final IDRescorer rescorer) {
@@ -127,7 +131,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
         final FastIDSet possibleItemIDs = getAllOtherItems(userID,
                 preferencesFromUser);
 
-        final TopItems.Estimator<Long> estimator = new Estimator(userID,
+        final TopItems.LongEstimator estimator = new Estimator(userID,
                 preferencesFromUser);
 
         final List<RecommendedItem> topItems = TopItems.getTopItems(howMany,
@@ -169,7 +173,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     @Override
     public List<RecommendedItem> mostSimilarItems(final long itemID,
             final int howMany, final Rescorer<LongPair> rescorer) {
-        final TopItems.Estimator<Long> estimator = new MostSimilarEstimator(
+        final TopItems.LongEstimator estimator = new MostSimilarEstimator(
                 itemID, similarity, rescorer);
         return doMostSimilarItems(new long[] { itemID }, howMany, estimator);
     }
@@ -177,7 +181,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     @Override
     public List<RecommendedItem> mostSimilarItems(final long[] itemIDs,
             final int howMany) {
-        final TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(
+        final TopItems.LongEstimator estimator = new MultiMostSimilarEstimator(
                 itemIDs, similarity, null,
                 EXCLUDE_ITEM_IF_NOT_SIMILAR_TO_ALL_BY_DEFAULT);
         return doMostSimilarItems(itemIDs, howMany, estimator);
@@ -186,7 +190,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     @Override
     public List<RecommendedItem> mostSimilarItems(final long[] itemIDs,
             final int howMany, final Rescorer<LongPair> rescorer) {
-        final TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(
+        final TopItems.LongEstimator estimator = new MultiMostSimilarEstimator(
                 itemIDs, similarity, rescorer,
                 EXCLUDE_ITEM_IF_NOT_SIMILAR_TO_ALL_BY_DEFAULT);
         return doMostSimilarItems(itemIDs, howMany, estimator);
@@ -195,7 +199,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     @Override
     public List<RecommendedItem> mostSimilarItems(final long[] itemIDs,
             final int howMany, final boolean excludeItemIfNotSimilarToAll) {
-        final TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(
+        final TopItems.LongEstimator estimator = new MultiMostSimilarEstimator(
                 itemIDs, similarity, null, excludeItemIfNotSimilarToAll);
         return doMostSimilarItems(itemIDs, howMany, estimator);
     }
@@ -204,7 +208,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     public List<RecommendedItem> mostSimilarItems(final long[] itemIDs,
             final int howMany, final Rescorer<LongPair> rescorer,
             final boolean excludeItemIfNotSimilarToAll) {
-        final TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(
+        final TopItems.LongEstimator estimator = new MultiMostSimilarEstimator(
                 itemIDs, similarity, rescorer, excludeItemIfNotSimilarToAll);
         return doMostSimilarItems(itemIDs, howMany, estimator);
     }
@@ -215,7 +219,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
         Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
 
         final DataModel model = getDataModel();
-        final TopItems.Estimator<Long> estimator = new RecommendedBecauseEstimator(
+        final TopItems.LongEstimator estimator = new RecommendedBecauseEstimator(
                 userID, itemID);
 
         final PreferenceArray prefs = model.getPreferencesFromUser(userID);
@@ -231,7 +235,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
 
     private List<RecommendedItem> doMostSimilarItems(final long[] itemIDs,
-            final int howMany, final TopItems.Estimator<Long> estimator) {
+            final int howMany, final TopItems.LongEstimator estimator) {
         final FastIDSet possibleItemIDs = mostSimilarItemsCandidateItemsStrategy
                 .getCandidateItems(itemIDs, getDataModel());
         return TopItems.getTopItems(howMany, possibleItemIDs.iterator(), null,
@@ -290,7 +294,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
 
     public static class MostSimilarEstimator implements
-            TopItems.Estimator<Long> {
+            TopItems.LongEstimator {
 
         private final long toItemID;
 
@@ -307,7 +311,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
         }
 
         @Override
-        public double estimate(final Long itemID) {
+        public double estimate(final long itemID) {
             final LongPair pair = new LongPair(toItemID, itemID);
             if (rescorer != null && rescorer.isFiltered(pair)) {
                 return Double.NaN;
@@ -319,7 +323,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
         }
     }
 
-    private final class Estimator implements TopItems.Estimator<Long> {
+    private final class Estimator implements TopItems.LongEstimator {
 
         private final long userID;
 
@@ -332,13 +336,13 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
         }
 
         @Override
-        public double estimate(final Long itemID) {
+        public double estimate(final long itemID) {
             return doEstimatePreference(userID, preferencesFromUser, itemID);
         }
     }
 
     private static final class MultiMostSimilarEstimator implements
-            TopItems.Estimator<Long> {
+            TopItems.LongEstimator {
 
         private final long[] toItemIDs;
 
@@ -359,7 +363,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
         }
 
         @Override
-        public double estimate(final Long itemID) {
+        public double estimate(final long itemID) {
             final RunningAverage average = new FullRunningAverage();
             final double[] similarities = similarity.itemSimilarities(itemID,
                     toItemIDs);
@@ -384,7 +388,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
 
     private final class RecommendedBecauseEstimator implements
-            TopItems.Estimator<Long> {
+            TopItems.LongEstimator {
 
         private final long userID;
 
@@ -397,7 +401,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
         }
 
         @Override
-        public double estimate(final Long itemID) {
+        public double estimate(final long itemID) {
             final Float pref = getDataModel()
                     .getPreferenceValue(userID, itemID);
             if (pref == null) {
@@ -21,11 +21,14 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
+import org.codelibs.elasticsearch.taste.common.Deadline;
 import org.codelibs.elasticsearch.taste.common.FastIDSet;
 import org.codelibs.elasticsearch.taste.common.LongPair;
+import org.codelibs.elasticsearch.taste.common.LongPrimitiveArrayIterator;
 import org.codelibs.elasticsearch.taste.common.RefreshHelper;
 import org.codelibs.elasticsearch.taste.common.Refreshable;
 import org.codelibs.elasticsearch.taste.model.DataModel;
+import org.codelibs.elasticsearch.taste.model.PreferenceArray;
 import org.codelibs.elasticsearch.taste.neighborhood.UserNeighborhood;
 import org.codelibs.elasticsearch.taste.similarity.UserSimilarity;
 import org.slf4j.Logger;
@@ -38,6 +41,13 @@ import com.google.common.base.Preconditions;
  * A simple {@link org.codelibs.elasticsearch.taste.recommender.Recommender}
  * which uses a given {@link DataModel} and {@link UserNeighborhood} to produce recommendations.
  * </p>
+ *
+ * <p>
+ * {@link #recommend(long, int, IDRescorer)} walks the preferences of each
+ * neighbor once and accumulates weighted sums of items, with similarities
+ * held by {@link SimilarUser}, instead of looking up a preference of every
+ * neighbor for every candidate item.
+ * </p>
  */
 public class GenericUserBasedRecommender extends AbstractRecommender implements
         UserBasedRecommender {
@@ -88,13 +98,13 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
             return Collections.emptyList();
         }
 
-        final FastIDSet allItemIDs = getAllOtherItems(theNeighborhood, userID);
+        final ScoreAccumulator scores = accumulate(userID, theNeighborhood);
 
-        final TopItems.Estimator<Long> estimator = new Estimator(userID,
-                theNeighborhood);
+        final TopItems.LongEstimator estimator = new Estimator(scores);
 
         final List<RecommendedItem> topItems = TopItems.getTopItems(howMany,
-                allItemIDs.iterator(), rescorer, estimator);
+                new LongPrimitiveArrayIterator(scores.getItemIDs()), rescorer,
+                estimator);
 
         log.debug("Recommendations are: {}", topItems);
         return topItems;
@@ -121,13 +131,13 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     @Override
     public List<SimilarUser> mostSimilarUserIDs(final long userID,
             final int howMany, final Rescorer<LongPair> rescorer) {
-        final TopItems.Estimator<Long> estimator = new MostSimilarEstimator(
+        final TopItems.LongEstimator estimator = new MostSimilarEstimator(
                 userID, similarity, rescorer);
         return doMostSimilarUsers(howMany, estimator);
     }
 
     private List<SimilarUser> doMostSimilarUsers(final int howMany,
-            final TopItems.Estimator<Long> estimator) {
+            final TopItems.LongEstimator estimator) {
         final DataModel model = getDataModel();
         return TopItems.getTopUsers(howMany, model.getUserIDs(), null,
                 estimator);
@@ -163,6 +173,16 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
         // The reason is that in this case the estimate is, simply, the user's rating for one item
         // that happened to have a defined similarity. The similarity score doesn't matter, and that
         // seems like a bad situation.
+        return doEstimatePreference(preference, totalSimilarity, count);
+    }
+
+    /**
+     * Estimates a preference from the sum of preferences weighted by
+     * similarities, the sum of the similarities and the number of neighbors
+     * who prefer the item.
+     */
+    protected float doEstimatePreference(final double preference,
+            final double totalSimilarity, final int count) {
         if (count <= 1) {
             return Float.NaN;
         }
@@ -173,16 +193,31 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
         return estimate;
     }
 
-    protected FastIDSet getAllOtherItems(
-            final List<SimilarUser> theNeighborhood, final long theUserID) {
+    private ScoreAccumulator accumulate(final long theUserID,
+            final List<SimilarUser> theNeighborhood) {
         final DataModel dataModel = getDataModel();
-        final FastIDSet possibleItemIDs = new FastIDSet();
+        final FastIDSet userItemIDs = dataModel.getItemIDsFromUser(theUserID);
+        final ScoreAccumulator scores = new ScoreAccumulator();
         for (final SimilarUser similarUser : theNeighborhood) {
-            possibleItemIDs.addAll(dataModel.getItemIDsFromUser(similarUser
-                    .getUserID()));
+            if (Deadline.check()) {
+                break;
+            }
+            final double theSimilarity = similarUser.getSimilarity();
+            if (similarUser.getUserID() == theUserID
+                    || Double.isNaN(theSimilarity)) {
+                continue;
+            }
+            final PreferenceArray prefs = dataModel
+                    .getPreferencesFromUser(similarUser.getUserID());
+            final int length = prefs.length();
+            for (int i = 0; i < length; i++) {
+                final long itemID = prefs.getItemID(i);
+                if (!userItemIDs.contains(itemID)) {
+                    scores.add(itemID, theSimilarity, prefs.getValue(i));
+                }
+            }
         }
-        possibleItemIDs.removeAll(dataModel.getItemIDsFromUser(theUserID));
-        return possibleItemIDs;
+        return scores;
     }
 
     @Override
@@ -206,7 +241,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     }
 
     private static final class MostSimilarEstimator implements
-            TopItems.Estimator<Long> {
+            TopItems.LongEstimator {
 
         private final long toUserID;
 
@@ -223,7 +258,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
         }
 
         @Override
-        public double estimate(final Long userID) {
+        public double estimate(final long userID) {
             // Don't consider the user itself as a possible most similar user
             if (userID == toUserID) {
                 return Double.NaN;
@@ -242,20 +277,22 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
         }
     }
 
-    private final class Estimator implements TopItems.Estimator<Long> {
+    private final class Estimator implements TopItems.LongEstimator {
 
-        private final long theUserID;
+        private final ScoreAccumulator scores;
 
-        private final List<SimilarUser> theNeighborhood;
-
-        Estimator(final long theUserID, final List<SimilarUser> theNeighborhood) {
-            this.theUserID = theUserID;
-            this.theNeighborhood = theNeighborhood;
+        Estimator(final ScoreAccumulator scores) {
+            this.scores = scores;
         }
 
         @Override
-        public double estimate(final Long itemID) {
-            return doEstimatePreference(theUserID, theNeighborhood, itemID);
+        public double estimate(final long itemID) {
+            final int index = scores.indexOf(itemID);
+            if (index < 0) {
+                return Double.NaN;
+            }
+            return doEstimatePreference(scores.getPreference(index),
+                    scores.getTotalSimilarity(index), scores.getCount(index));
         }
     }
 }
@@ -78,7 +78,7 @@ public final class ItemAverageRecommender extends AbstractRecommender {
         final FastIDSet possibleItemIDs = getAllOtherItems(userID,
                 preferencesFromUser);
 
-        final TopItems.Estimator<Long> estimator = new Estimator();
+        final TopItems.LongEstimator estimator = new Estimator();
 
         final List<RecommendedItem> topItems = TopItems.getTopItems(howMany,
                 possibleItemIDs.iterator(), rescorer, estimator);
@@ -189,10 +189,10 @@ public final class ItemAverageRecommender extends AbstractRecommender {
         return "ItemAverageRecommender";
     }
 
-    private final class Estimator implements TopItems.Estimator<Long> {
+    private final class Estimator implements TopItems.LongEstimator {
 
         @Override
-        public double estimate(final Long itemID) {
+        public double estimate(final long itemID) {
             return doEstimatePreference(itemID);
         }
     }
@@ -3,6 +3,7 @@ package org.codelibs.elasticsearch.taste.recommender;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.codelibs.elasticsearch.taste.exception.TasteException;
 import org.codelibs.elasticsearch.taste.model.DataModel;
 import org.codelibs.elasticsearch.taste.model.IndexInfo;
 import org.codelibs.elasticsearch.taste.similarity.ItemSimilarity;
@@ -22,6 +23,33 @@ public class ItemBasedRecommenderBuilder extends AbstractRecommenderBuilder {
         similaritySettings.put(DATA_MODEL_ATTR, dataModel);
         final ItemSimilarity similarity = createSimilarity(similaritySettings);
 
-        return new GenericItemBasedRecommender(dataModel, similarity);
+        final Map<String, Object> candidateSettings = SettingsUtils.get(
+                rootSettings, "candidate");
+        if (candidateSettings == null) {
+            return new GenericItemBasedRecommender(dataModel, similarity);
+        }
+        candidateSettings.put(DATA_MODEL_ATTR, dataModel);
+        final AbstractCandidateItemsStrategy candidateItemsStrategy = createCandidateItemsStrategy(candidateSettings);
+        return new GenericItemBasedRecommender(dataModel, similarity,
+                AbstractRecommender.getDefaultCandidateItemsStrategy(),
+                candidateItemsStrategy);
+    }
+
+    protected AbstractCandidateItemsStrategy createCandidateItemsStrategy(
+            final Map<String, Object> candidateSettings) {
+        final String factoryName = SettingsUtils
+                .get(candidateSettings, "factory",
+                        "org.codelibs.elasticsearch.taste.recommender.MinHashCandidateItemsStrategyFactory");
+        try {
+            final Class<?> clazz = Class.forName(factoryName);
+            final CandidateItemsStrategyFactory candidateItemsStrategyFactory = (CandidateItemsStrategyFactory) clazz
+                    .newInstance();
+            candidateItemsStrategyFactory.init(candidateSettings);
+            return candidateItemsStrategyFactory.create();
+        } catch (ClassNotFoundException | InstantiationException
+                | IllegalAccessException e) {
+            throw new TasteException("Could not create an instance of "
+                    + factoryName, e);
+        }
     }
 }
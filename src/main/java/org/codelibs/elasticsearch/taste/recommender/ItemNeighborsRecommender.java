@@ -0,0 +1,170 @@
+package org.codelibs.elasticsearch.taste.recommender;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.codelibs.elasticsearch.taste.common.Deadline;
+import org.codelibs.elasticsearch.taste.common.FastIDSet;
+import org.codelibs.elasticsearch.taste.common.LongPrimitiveArrayIterator;
+import org.codelibs.elasticsearch.taste.common.RefreshHelper;
+import org.codelibs.elasticsearch.taste.common.Refreshable;
+import org.codelibs.elasticsearch.taste.model.DataModel;
+import org.codelibs.elasticsearch.taste.model.PreferenceArray;
+import org.codelibs.elasticsearch.taste.similarity.precompute.ItemNeighbors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * An item-based recommender which uses precomputed most similar items
+ * instead of an item similarity. Neighbors of each item preferred by a user
+ * are visited once and weighted preferences are accumulated by item, so a
+ * recommendation costs the number of preferences times the number of
+ * neighbors.
+ * </p>
+ *
+ * <p>
+ * An estimate is the weighted average of preferences as
+ * {@link GenericItemBasedRecommender}, and the sum of similarities as
+ * {@link GenericBooleanPrefItemBasedRecommender} if booleanPreferences is
+ * true. Items which are not in the neighbors of the preferred items are
+ * never recommended.
+ * </p>
+ */
+public class ItemNeighborsRecommender extends AbstractRecommender {
+
+    private static final Logger log = LoggerFactory
+            .getLogger(ItemNeighborsRecommender.class);
+
+    private final ItemNeighbors itemNeighbors;
+
+    private final boolean booleanPreferences;
+
+    private final RefreshHelper refreshHelper;
+
+    private EstimatedPreferenceCapper capper;
+
+    public ItemNeighborsRecommender(final DataModel dataModel,
+            final ItemNeighbors itemNeighbors, final boolean booleanPreferences) {
+        super(dataModel);
+        Preconditions.checkArgument(itemNeighbors != null,
+                "itemNeighbors is null");
+        this.itemNeighbors = itemNeighbors;
+        this.booleanPreferences = booleanPreferences;
+        refreshHelper = new RefreshHelper(() -> {
+            capper = buildCapper();
+            return null;
+        });
+        refreshHelper.addDependency(dataModel);
+        capper = buildCapper();
+    }
+
+    public ItemNeighbors getItemNeighbors() {
+        return itemNeighbors;
+    }
+
+    @Override
+    public List<RecommendedItem> recommend(final long userID,
+            final int howMany, final IDRescorer rescorer) {
+        Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+        log.debug("Recommending items for user ID '{}'", userID);
+
+        final PreferenceArray preferencesFromUser = getDataModel()
+                .getPreferencesFromUser(userID);
+        final FastIDSet userItemIDs = new FastIDSet(
+                preferencesFromUser.getIDs());
+        final ScoreAccumulator scores = new ScoreAccumulator();
+        final int length = preferencesFromUser.length();
+        for (int i = 0; i < length; i++) {
+            if (Deadline.check()) {
+                break;
+            }
+            final float value = preferencesFromUser.getValue(i);
+            itemNeighbors.forEachNeighbor(preferencesFromUser.getItemID(i), (
+                    neighborID, similarity) -> {
+                if (!userItemIDs.contains(neighborID)
+                        && !Float.isNaN(similarity)) {
+                    scores.add(neighborID, similarity, value);
+                }
+            });
+        }
+
+        final TopItems.LongEstimator estimator = itemID -> {
+            final int index = scores.indexOf(itemID);
+            if (index < 0) {
+                return Double.NaN;
+            }
+            return doEstimatePreference(scores.getPreference(index),
+                    scores.getTotalSimilarity(index), scores.getCount(index));
+        };
+        final List<RecommendedItem> topItems = TopItems.getTopItems(howMany,
+                new LongPrimitiveArrayIterator(scores.getItemIDs()), rescorer,
+                estimator);
+
+        log.debug("Recommendations are: {}", topItems);
+        return topItems;
+    }
+
+    @Override
+    public float estimatePreference(final long userID, final long itemID) {
+        final PreferenceArray preferencesFromUser = getDataModel()
+                .getPreferencesFromUser(userID);
+        double preference = 0.0;
+        double totalSimilarity = 0.0;
+        int count = 0;
+        final int length = preferencesFromUser.length();
+        for (int i = 0; i < length; i++) {
+            final long preferredItemID = preferencesFromUser.getItemID(i);
+            if (preferredItemID == itemID) {
+                return preferencesFromUser.getValue(i);
+            }
+            final float similarity = itemNeighbors.getSimilarity(
+                    preferredItemID, itemID);
+            if (!Float.isNaN(similarity)) {
+                preference += similarity * preferencesFromUser.getValue(i);
+                totalSimilarity += similarity;
+                count++;
+            }
+        }
+        return doEstimatePreference(preference, totalSimilarity, count);
+    }
+
+    protected float doEstimatePreference(final double preference,
+            final double totalSimilarity, final int count) {
+        if (booleanPreferences) {
+            return count > 0 ? (float) totalSimilarity : Float.NaN;
+        }
+        // See GenericItemBasedRecommender.doEstimatePreference()
+        if (count <= 1) {
+            return Float.NaN;
+        }
+        float estimate = (float) (preference / totalSimilarity);
+        if (capper != null) {
+            estimate = capper.capEstimate(estimate);
+        }
+        return estimate;
+    }
+
+    @Override
+    public void refresh(final Collection<Refreshable> alreadyRefreshed) {
+        refreshHelper.refresh(alreadyRefreshed);
+    }
+
+    @Override
+    public String toString() {
+        return "ItemNeighborsRecommender[itemNeighbors:" + itemNeighbors
+                + ", booleanPreferences:" + booleanPreferences + ']';
+    }
+
+    private EstimatedPreferenceCapper buildCapper() {
+        final DataModel dataModel = getDataModel();
+        if (Float.isNaN(dataModel.getMinPreference())
+                && Float.isNaN(dataModel.getMaxPreference())) {
+            return null;
+        } else {
+            return new EstimatedPreferenceCapper(dataModel);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.codelibs.elasticsearch.taste.recommender;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.codelibs.elasticsearch.taste.model.DataModel;
+import org.codelibs.elasticsearch.taste.model.IndexInfo;
+import org.codelibs.elasticsearch.taste.similarity.precompute.ItemNeighbors;
+import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+
+public class ItemNeighborsRecommenderBuilder extends
+        AbstractRecommenderBuilder {
+
+    protected Supplier<ItemNeighbors> itemNeighborsLoader;
+
+    /**
+     * @param itemNeighborsLoader loads neighbors of items when a recommender
+     *          is built
+     */
+    public ItemNeighborsRecommenderBuilder(final IndexInfo indexInfo,
+            final Map<String, Object> rootSettings,
+            final Supplier<ItemNeighbors> itemNeighborsLoader) {
+        super(indexInfo, rootSettings);
+        this.itemNeighborsLoader = itemNeighborsLoader;
+    }
+
+    @Override
+    public Recommender buildRecommender(final DataModel dataModel) {
+        final Map<String, Object> neighborsSettings = SettingsUtils.get(
+                rootSettings, "item_neighbors");
+        final boolean booleanPreferences = SettingsUtils.get(
+                neighborsSettings, "boolean_preferences", false);
+        return new ItemNeighborsRecommender(dataModel,
+                itemNeighborsLoader.get(), booleanPreferences);
+    }
+}
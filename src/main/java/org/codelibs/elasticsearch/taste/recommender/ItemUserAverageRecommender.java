@@ -85,7 +85,7 @@ public final class ItemUserAverageRecommender extends AbstractRecommender {
         final FastIDSet possibleItemIDs = getAllOtherItems(userID,
                 preferencesFromUser);
 
-        final TopItems.Estimator<Long> estimator = new Estimator(userID);
+        final TopItems.LongEstimator estimator = new Estimator(userID);
 
         final List<RecommendedItem> topItems = TopItems.getTopItems(howMany,
                 possibleItemIDs.iterator(), rescorer, estimator);
@@ -229,7 +229,7 @@ public final class ItemUserAverageRecommender extends AbstractRecommender {
         return "ItemUserAverageRecommender";
     }
 
-    private final class Estimator implements TopItems.Estimator<Long> {
+    private final class Estimator implements TopItems.LongEstimator {
 
         private final long userID;
 
@@ -238,7 +238,7 @@ public final class ItemUserAverageRecommender extends AbstractRecommender {
         }
 
         @Override
-        public double estimate(final Long itemID) {
+        public double estimate(final long itemID) {
             return doEstimatePreference(userID, itemID);
         }
     }
@@ -0,0 +1,335 @@
+package org.codelibs.elasticsearch.taste.recommender;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mahout.math.map.OpenIntIntHashMap;
+import org.codelibs.elasticsearch.taste.common.Deadline;
+import org.codelibs.elasticsearch.taste.common.FastIDSet;
+import org.codelibs.elasticsearch.taste.common.LongPrimitiveIterator;
+import org.codelibs.elasticsearch.taste.model.DataModel;
+import org.codelibs.elasticsearch.taste.model.PreferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Returns items which share a LSH bucket of MinHash signatures with given
+ * items. A signature consists of bands * rows min hashes of users who
+ * prefer an item, so items with a high Jaccard coefficient of users fall
+ * into the same bucket in some band. Candidates are ordered by the number
+ * of bands they collide in and limited to maxCandidates.
+ */
+public class MinHashCandidateItemsStrategy extends
+        AbstractCandidateItemsStrategy {
+    private static final Logger log = LoggerFactory
+            .getLogger(MinHashCandidateItemsStrategy.class);
+
+    private final int numOfBands;
+
+    private final int numOfRows;
+
+    private final int maxCandidates;
+
+    private final long[] seeds;
+
+    /** sorted item IDs; an index of this array identifies an item */
+    private final long[] itemIDs;
+
+    private final int[] numOfUsers;
+
+    /** (bucket hash << 32 | item index) sorted for each band */
+    private final long[][] buckets;
+
+    private final long buildTime;
+
+    private final AtomicLong numOfQueries = new AtomicLong();
+
+    private final AtomicLong numOfCandidates = new AtomicLong();
+
+    private final AtomicLong numOfTruncated = new AtomicLong();
+
+    private final AtomicLong queryTime = new AtomicLong();
+
+    private Map<String, Object> recallStats;
+
+    public MinHashCandidateItemsStrategy(final DataModel dataModel,
+            final int numOfBands, final int numOfRows,
+            final int maxCandidates, final long seed) {
+        Preconditions.checkArgument(numOfBands > 0,
+                "numOfBands must be greater than 0!");
+        Preconditions.checkArgument(numOfRows > 0,
+                "numOfRows must be greater than 0!");
+        Preconditions.checkArgument(maxCandidates > 0,
+                "maxCandidates must be greater than 0!");
+        this.numOfBands = numOfBands;
+        this.numOfRows = numOfRows;
+        this.maxCandidates = maxCandidates;
+        final Random random = new Random(seed);
+        seeds = new long[numOfBands * numOfRows];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = random.nextLong();
+        }
+
+        final long startTime = System.currentTimeMillis();
+        long[] ids = new long[dataModel.getNumItems()];
+        int size = 0;
+        final LongPrimitiveIterator it = dataModel.getItemIDs();
+        while (it.hasNext()) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+            }
+            ids[size++] = it.nextLong();
+        }
+        ids = Arrays.copyOf(ids, size);
+        Arrays.sort(ids);
+        itemIDs = ids;
+        numOfUsers = new int[size];
+
+        buckets = new long[numOfBands][size];
+        final int[] bandHashes = new int[numOfBands];
+        int numOfIndexed = 0;
+        for (int i = 0; i < size; i++) {
+            final PreferenceArray prefs = dataModel
+                    .getPreferencesForItem(itemIDs[i]);
+            numOfUsers[i] = prefs.length();
+            if (numOfUsers[i] == 0) {
+                continue;
+            }
+            computeBandHashes(prefs, bandHashes);
+            for (int b = 0; b < numOfBands; b++) {
+                buckets[b][numOfIndexed] = (long) bandHashes[b] << 32 | i;
+            }
+            numOfIndexed++;
+        }
+        for (int b = 0; b < numOfBands; b++) {
+            buckets[b] = Arrays.copyOf(buckets[b], numOfIndexed);
+            Arrays.sort(buckets[b]);
+        }
+        buildTime = System.currentTimeMillis() - startTime;
+        log.info("MinHash buckets of {} items are built in {} ms.",
+                numOfIndexed, buildTime);
+    }
+
+    private void computeBandHashes(final PreferenceArray prefs,
+            final int[] bandHashes) {
+        final long[] mins = new long[seeds.length];
+        Arrays.fill(mins, Long.MAX_VALUE);
+        final int length = prefs.length();
+        for (int i = 0; i < length; i++) {
+            final long userID = prefs.getUserID(i);
+            for (int k = 0; k < seeds.length; k++) {
+                final long hash = mix(userID ^ seeds[k]);
+                if (hash < mins[k]) {
+                    mins[k] = hash;
+                }
+            }
+        }
+        for (int b = 0; b < numOfBands; b++) {
+            long hash = b;
+            for (int r = 0; r < numOfRows; r++) {
+                hash = mix(hash ^ mins[b * numOfRows + r]);
+            }
+            bandHashes[b] = (int) (hash ^ hash >>> 32);
+        }
+    }
+
+    /**
+     * The finalizer of MurmurHash3.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    @Override
+    protected FastIDSet doGetCandidateItems(final long[] preferredItemIDs,
+            final DataModel dataModel) {
+        final long startTime = System.nanoTime();
+        final OpenIntIntHashMap collisions = new OpenIntIntHashMap();
+        final int[] bandHashes = new int[numOfBands];
+        for (final long itemID : preferredItemIDs) {
+            if (Deadline.check()) {
+                break;
+            }
+            final PreferenceArray prefs = dataModel
+                    .getPreferencesForItem(itemID);
+            if (prefs.length() == 0) {
+                continue;
+            }
+            computeBandHashes(prefs, bandHashes);
+            for (int b = 0; b < numOfBands; b++) {
+                final long[] bucket = buckets[b];
+                final long key = (long) bandHashes[b] << 32;
+                int pos = Arrays.binarySearch(bucket, key);
+                if (pos < 0) {
+                    pos = -pos - 1;
+                }
+                while (pos < bucket.length
+                        && bucket[pos] >>> 32 == key >>> 32) {
+                    collisions.adjustOrPutValue((int) bucket[pos], 1, 1);
+                    pos++;
+                }
+            }
+        }
+        for (final long itemID : preferredItemIDs) {
+            final int index = Arrays.binarySearch(itemIDs, itemID);
+            if (index >= 0) {
+                collisions.removeKey(index);
+            }
+        }
+
+        final FastIDSet possibleItemIDs = new FastIDSet(Math.min(
+                collisions.size(), maxCandidates));
+        if (collisions.size() <= maxCandidates) {
+            collisions.forEachPair((index, count) -> {
+                possibleItemIDs.add(itemIDs[index]);
+                return true;
+            });
+        } else {
+            // items colliding in more bands are more likely to be similar
+            final int[] numOfItemsByCount = new int[numOfBands
+                    * preferredItemIDs.length + 1];
+            collisions.forEachPair((index, count) -> {
+                numOfItemsByCount[count]++;
+                return true;
+            });
+            int threshold = numOfItemsByCount.length - 1;
+            int numOfAbove = 0;
+            while (threshold > 1
+                    && numOfAbove + numOfItemsByCount[threshold] < maxCandidates) {
+                numOfAbove += numOfItemsByCount[threshold];
+                threshold--;
+            }
+            // items at the threshold fill the rest
+            final int minCount = threshold;
+            final int[] rest = { maxCandidates - numOfAbove };
+            collisions.forEachPair((index, count) -> {
+                if (count > minCount || count == minCount && rest[0]-- > 0) {
+                    possibleItemIDs.add(itemIDs[index]);
+                }
+                return true;
+            });
+            numOfTruncated.incrementAndGet();
+        }
+
+        numOfQueries.incrementAndGet();
+        numOfCandidates.addAndGet(possibleItemIDs.size());
+        queryTime.addAndGet(System.nanoTime() - startTime);
+        return possibleItemIDs;
+    }
+
+    /**
+     * Measures the recall of candidates against the top items by Jaccard
+     * coefficient of sampled items. Exact top items are computed from all
+     * items co-occurring with a sampled item, so this is as expensive as
+     * {@link PreferredItemsNeighborhoodCandidateItemsStrategy}.
+     */
+    public void evaluateRecall(final DataModel dataModel,
+            final int sampleSize, final int topK) {
+        final long startTime = System.currentTimeMillis();
+        final Random random = new Random();
+        long numOfRelevant = 0;
+        long numOfFound = 0;
+        long numOfExactCandidates = 0;
+        long numOfLshCandidates = 0;
+        int numOfSamples = 0;
+        for (int n = 0; n < sampleSize * 10 && numOfSamples < sampleSize
+                && itemIDs.length > 0; n++) {
+            final int index = random.nextInt(itemIDs.length);
+            if (numOfUsers[index] == 0) {
+                continue;
+            }
+            final long itemID = itemIDs[index];
+            final OpenIntIntHashMap cooccurrences = new OpenIntIntHashMap();
+            final PreferenceArray prefs = dataModel
+                    .getPreferencesForItem(itemID);
+            for (int i = 0; i < prefs.length(); i++) {
+                final LongPrimitiveIterator it = dataModel
+                        .getItemIDsFromUser(prefs.getUserID(i)).iterator();
+                while (it.hasNext()) {
+                    final int pos = Arrays
+                            .binarySearch(itemIDs, it.nextLong());
+                    if (pos >= 0 && pos != index) {
+                        cooccurrences.adjustOrPutValue(pos, 1, 1);
+                    }
+                }
+            }
+            final int size = cooccurrences.size();
+            final long[] scores = new long[size];
+            final int[] count = new int[1];
+            cooccurrences.forEachPair((pos, c) -> {
+                final double jaccard = (double) c
+                        / (numOfUsers[index] + numOfUsers[pos] - c);
+                // sort by jaccard in descending order with the item index
+                final long score = (long) ((1.0 - jaccard) * Integer.MAX_VALUE);
+                scores[count[0]++] = score << 32 | pos;
+                return true;
+            });
+            Arrays.sort(scores);
+
+            final FastIDSet candidates = getCandidateItems(
+                    new long[] { itemID }, dataModel);
+            final int k = Math.min(topK, size);
+            for (int i = 0; i < k; i++) {
+                if (candidates.contains(itemIDs[(int) scores[i]])) {
+                    numOfFound++;
+                }
+            }
+            numOfRelevant += k;
+            numOfExactCandidates += size;
+            numOfLshCandidates += candidates.size();
+            numOfSamples++;
+        }
+
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("samples", numOfSamples);
+        stats.put("top_k", topK);
+        stats.put("recall", numOfRelevant > 0 ? (double) numOfFound
+                / numOfRelevant : 1.0);
+        stats.put("exact_candidates_per_item",
+                numOfSamples > 0 ? (double) numOfExactCandidates
+                        / numOfSamples : 0);
+        stats.put("candidates_per_item",
+                numOfSamples > 0 ? (double) numOfLshCandidates / numOfSamples
+                        : 0);
+        stats.put("elapsed", System.currentTimeMillis() - startTime);
+        recallStats = stats;
+        log.info("MinHash recall: {}", stats);
+    }
+
+    public Map<String, Object> getStats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("bands", numOfBands);
+        stats.put("rows", numOfRows);
+        stats.put("max_candidates", maxCandidates);
+        stats.put("items", itemIDs.length);
+        stats.put("build_time", buildTime);
+        final long queries = numOfQueries.get();
+        stats.put("queries", queries);
+        stats.put("truncated", numOfTruncated.get());
+        stats.put("candidates_per_query",
+                queries > 0 ? (double) numOfCandidates.get() / queries : 0);
+        // milliseconds
+        stats.put("latency", queries > 0 ? queryTime.get() / 1000000.0
+                / queries : 0);
+        if (recallStats != null) {
+            stats.put("recall", recallStats);
+        }
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "MinHashCandidateItemsStrategy[bands:" + numOfBands + ", rows:"
+                + numOfRows + ", maxCandidates:" + maxCandidates + ']';
+    }
+}
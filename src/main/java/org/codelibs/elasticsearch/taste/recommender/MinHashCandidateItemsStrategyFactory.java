@@ -0,0 +1,55 @@
+package org.codelibs.elasticsearch.taste.recommender;
+
+import java.util.Map;
+
+import org.codelibs.elasticsearch.taste.exception.TasteException;
+import org.codelibs.elasticsearch.taste.model.DataModel;
+import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+
+public class MinHashCandidateItemsStrategyFactory implements
+        CandidateItemsStrategyFactory {
+
+    protected DataModel dataModel;
+
+    protected int numOfBands;
+
+    protected int numOfRows;
+
+    protected int maxCandidates;
+
+    protected long seed;
+
+    protected int recallSampleSize;
+
+    protected int recallTopK;
+
+    @Override
+    public void init(final Map<String, Object> settings) {
+        dataModel = SettingsUtils.get(settings, "dataModel");
+        numOfBands = SettingsUtils.get(settings, "bands", 32);
+        numOfRows = SettingsUtils.get(settings, "rows", 2);
+        maxCandidates = SettingsUtils.get(settings, "max_candidates", 1000);
+        final Number seedValue = SettingsUtils.get(settings, "seed", 0);
+        seed = seedValue.longValue();
+        final Map<String, Object> recallSettings = SettingsUtils.get(
+                settings, "recall");
+        recallSampleSize = SettingsUtils.get(recallSettings, "sample_size",
+                10);
+        recallTopK = SettingsUtils.get(recallSettings, "top_k", 10);
+    }
+
+    @Override
+    public AbstractCandidateItemsStrategy create() {
+        final MinHashCandidateItemsStrategy strategy;
+        try {
+            strategy = new MinHashCandidateItemsStrategy(dataModel,
+                    numOfBands, numOfRows, maxCandidates, seed);
+        } catch (final Exception e) {
+            throw new TasteException("Failed to create an instance.", e);
+        }
+        if (recallSampleSize > 0) {
+            strategy.evaluateRecall(dataModel, recallSampleSize, recallTopK);
+        }
+        return strategy;
+    }
+}
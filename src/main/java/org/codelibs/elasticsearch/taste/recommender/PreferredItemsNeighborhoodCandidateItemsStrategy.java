@@ -17,6 +17,7 @@
 
 package org.codelibs.elasticsearch.taste.recommender;
 
+import org.codelibs.elasticsearch.taste.common.Deadline;
 import org.codelibs.elasticsearch.taste.common.FastIDSet;
 import org.codelibs.elasticsearch.taste.model.DataModel;
 import org.codelibs.elasticsearch.taste.model.PreferenceArray;
@@ -33,6 +34,9 @@ public final class PreferredItemsNeighborhoodCandidateItemsStrategy extends
             final DataModel dataModel) {
         final FastIDSet possibleItemsIDs = new FastIDSet();
         for (final long itemID : preferredItemIDs) {
+            if (Deadline.check()) {
+                break;
+            }
             final PreferenceArray itemPreferences = dataModel
                     .getPreferencesForItem(itemID);
             final int numUsersPreferringItem = itemPreferences.length();
@@ -0,0 +1,67 @@
+package org.codelibs.elasticsearch.taste.recommender;
+
+import java.util.Arrays;
+
+import org.apache.mahout.math.map.OpenLongIntHashMap;
+
+/**
+ * Sums of preferences weighted by similarities, sums of the similarities and
+ * counts by item, stored in primitive arrays. Not thread-safe.
+ */
+final class ScoreAccumulator {
+
+    /** index + 1 of an item */
+    private final OpenLongIntHashMap itemIndex = new OpenLongIntHashMap();
+
+    private long[] itemIDs = new long[16];
+
+    private double[] preferences = new double[16];
+
+    private double[] similarities = new double[16];
+
+    private int[] counts = new int[16];
+
+    private int size;
+
+    void add(final long itemID, final double similarity, final float value) {
+        int index = itemIndex.get(itemID) - 1;
+        if (index < 0) {
+            if (size == itemIDs.length) {
+                final int capacity = size * 2;
+                itemIDs = Arrays.copyOf(itemIDs, capacity);
+                preferences = Arrays.copyOf(preferences, capacity);
+                similarities = Arrays.copyOf(similarities, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+            index = size++;
+            itemIDs[index] = itemID;
+            itemIndex.put(itemID, index + 1);
+        }
+        preferences[index] += similarity * value;
+        similarities[index] += similarity;
+        counts[index]++;
+    }
+
+    /**
+     * @return -1 if nothing is added for the item
+     */
+    int indexOf(final long itemID) {
+        return itemIndex.get(itemID) - 1;
+    }
+
+    double getPreference(final int index) {
+        return preferences[index];
+    }
+
+    double getTotalSimilarity(final int index) {
+        return similarities[index];
+    }
+
+    int getCount(final int index) {
+        return counts[index];
+    }
+
+    long[] getItemIDs() {
+        return Arrays.copyOf(itemIDs, size);
+    }
+}
@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Queue;
 
+import org.codelibs.elasticsearch.taste.common.Deadline;
 import org.codelibs.elasticsearch.taste.common.LongPrimitiveIterator;
 import org.codelibs.elasticsearch.taste.exception.NoSuchItemException;
 import org.codelibs.elasticsearch.taste.exception.NoSuchUserException;
@@ -44,19 +45,18 @@ public final class TopItems {
 
     public static List<RecommendedItem> getTopItems(final int howMany,
             final LongPrimitiveIterator possibleItemIDs,
-            final IDRescorer rescorer, final Estimator<Long> estimator) {
+            final IDRescorer rescorer, final LongEstimator estimator) {
         Preconditions.checkArgument(possibleItemIDs != null,
                 "possibleItemIDs is null");
         Preconditions.checkArgument(estimator != null, "estimator is null");
 
-        final Queue<RecommendedItem> topItems = new PriorityQueue<>(
-                howMany + 1,
-                Collections.reverseOrder(ByValueRecommendedItemComparator
-                        .getInstance()));
-        boolean full = false;
-        double lowestTopValue = Double.NEGATIVE_INFINITY;
+        final TopN topN = new TopN(howMany);
         while (possibleItemIDs.hasNext()) {
-            final long itemID = possibleItemIDs.next();
+            // keep the partial top-N if the time budget runs out
+            if (Deadline.check()) {
+                break;
+            }
+            final long itemID = possibleItemIDs.nextLong();
             if (rescorer == null || !rescorer.isFiltered(itemID)) {
                 double preference;
                 try {
@@ -66,41 +66,35 @@ public final class TopItems {
                 }
                 final double rescoredPref = rescorer == null ? preference
                         : rescorer.rescore(itemID, preference);
-                if (!Double.isNaN(rescoredPref)
-                        && (!full || rescoredPref > lowestTopValue)) {
-                    topItems.add(new GenericRecommendedItem(itemID,
-                            (float) rescoredPref));
-                    if (full) {
-                        topItems.poll();
-                    } else if (topItems.size() > howMany) {
-                        full = true;
-                        topItems.poll();
-                    }
-                    lowestTopValue = topItems.peek().getValue();
+                if (!Double.isNaN(rescoredPref) && topN.accepts(rescoredPref)) {
+                    // compared as the float value of RecommendedItem
+                    topN.add(itemID, (float) rescoredPref);
                 }
             }
         }
-        final int size = topItems.size();
-        if (size == 0) {
-            return Collections.emptyList();
-        }
-        final List<RecommendedItem> result = Lists
-                .newArrayListWithCapacity(size);
-        result.addAll(topItems);
-        Collections
-                .sort(result, ByValueRecommendedItemComparator.getInstance());
-        return result;
+        return topN.toRecommendedItems();
+    }
+
+    /**
+     * Boxes each ID. {@link LongEstimator} is preferred.
+     */
+    public static List<RecommendedItem> getTopItems(final int howMany,
+            final LongPrimitiveIterator possibleItemIDs,
+            final IDRescorer rescorer, final Estimator<Long> estimator) {
+        Preconditions.checkArgument(estimator != null, "estimator is null");
+        return getTopItems(howMany, possibleItemIDs, rescorer,
+                (LongEstimator) estimator::estimate);
     }
 
     public static List<SimilarUser> getTopUsers(final int howMany,
             final LongPrimitiveIterator allUserIDs, final IDRescorer rescorer,
-            final Estimator<Long> estimator) {
-        final Queue<SimilarUser> topUsers = new PriorityQueue<>(
-                howMany + 1, Collections.reverseOrder());
-        boolean full = false;
-        double lowestTopValue = Double.NEGATIVE_INFINITY;
+            final LongEstimator estimator) {
+        final TopN topN = new TopN(howMany);
         while (allUserIDs.hasNext()) {
-            final long userID = allUserIDs.next();
+            if (Deadline.check()) {
+                break;
+            }
+            final long userID = allUserIDs.nextLong();
             if (rescorer != null && rescorer.isFiltered(userID)) {
                 continue;
             }
@@ -113,27 +107,32 @@ public final class TopItems {
             final double rescoredSimilarity = rescorer == null ? similarity
                     : rescorer.rescore(userID, similarity);
             if (!Double.isNaN(rescoredSimilarity)
-                    && (!full || rescoredSimilarity > lowestTopValue)) {
-                topUsers.add(new SimilarUser(userID, rescoredSimilarity));
-                if (full) {
-                    topUsers.poll();
-                } else if (topUsers.size() > howMany) {
-                    full = true;
-                    topUsers.poll();
-                }
-                lowestTopValue = topUsers.peek().getSimilarity();
+                    && topN.accepts(rescoredSimilarity)) {
+                topN.add(userID, rescoredSimilarity);
             }
         }
-        final int size = topUsers.size();
+        final int size = topN.size();
         if (size == 0) {
             return Collections.emptyList();
         }
         final List<SimilarUser> sorted = Lists.newArrayListWithCapacity(size);
-        sorted.addAll(topUsers);
+        for (int i = 0; i < size; i++) {
+            sorted.add(new SimilarUser(topN.getID(i), topN.getValue(i)));
+        }
         Collections.sort(sorted);
         return sorted;
     }
 
+    /**
+     * Boxes each ID. {@link LongEstimator} is preferred.
+     */
+    public static List<SimilarUser> getTopUsers(final int howMany,
+            final LongPrimitiveIterator allUserIDs, final IDRescorer rescorer,
+            final Estimator<Long> estimator) {
+        return getTopUsers(howMany, allUserIDs, rescorer,
+                (LongEstimator) estimator::estimate);
+    }
+
     /**
      * <p>
      * Thanks to tsmorton for suggesting this functionality and writing part of the code.
@@ -215,4 +214,103 @@ public final class TopItems {
         double estimate(T thing);
     }
 
+    /**
+     * An {@link Estimator} of a user or an item by a primitive ID.
+     */
+    public interface LongEstimator {
+        double estimate(long id);
+    }
+
+    /**
+     * Keeps the IDs of the N largest values in a min-heap of primitive
+     * arrays, so no object is allocated for a candidate.
+     */
+    public static final class TopN {
+        private final long[] ids;
+
+        private final double[] values;
+
+        private int size;
+
+        public TopN(final int capacity) {
+            ids = new long[Math.max(0, capacity)];
+            values = new double[ids.length];
+        }
+
+        public boolean accepts(final double value) {
+            return size < ids.length || size > 0 && value > values[0];
+        }
+
+        /**
+         * Adds a value accepted by {@link #accepts(double)}. The smallest
+         * value is replaced if the heap is full.
+         */
+        public void add(final long id, final double value) {
+            int i;
+            if (size < ids.length) {
+                // sift up
+                i = size++;
+                while (i > 0) {
+                    final int parent = i - 1 >>> 1;
+                    if (values[parent] <= value) {
+                        break;
+                    }
+                    ids[i] = ids[parent];
+                    values[i] = values[parent];
+                    i = parent;
+                }
+            } else {
+                // sift down from the root
+                i = 0;
+                while (true) {
+                    int child = (i << 1) + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && values[child + 1] < values[child]) {
+                        child++;
+                    }
+                    if (values[child] >= value) {
+                        break;
+                    }
+                    ids[i] = ids[child];
+                    values[i] = values[child];
+                    i = child;
+                }
+            }
+            ids[i] = id;
+            values[i] = value;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getID(final int index) {
+            return ids[index];
+        }
+
+        public double getValue(final int index) {
+            return values[index];
+        }
+
+        /**
+         * @return items sorted by value, highest first
+         */
+        public List<RecommendedItem> toRecommendedItems() {
+            if (size == 0) {
+                return Collections.emptyList();
+            }
+            final List<RecommendedItem> result = Lists
+                    .newArrayListWithCapacity(size);
+            for (int i = 0; i < size; i++) {
+                result.add(new GenericRecommendedItem(ids[i],
+                        (float) values[i]));
+            }
+            Collections.sort(result,
+                    ByValueRecommendedItemComparator.getInstance());
+            return result;
+        }
+    }
+
 }
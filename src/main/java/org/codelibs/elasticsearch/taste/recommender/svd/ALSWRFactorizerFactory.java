@@ -0,0 +1,38 @@
+package org.codelibs.elasticsearch.taste.recommender.svd;
+
+import java.util.Map;
+
+import org.codelibs.elasticsearch.taste.exception.TasteException;
+import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+
+public class ALSWRFactorizerFactory extends AbstractFactorizerFactory {
+
+    protected double lambda;
+
+    protected boolean usesImplicitFeedback;
+
+    protected double alpha;
+
+    protected int numOfThreads;
+
+    @Override
+    public void init(final Map<String, Object> settings) {
+        super.init(settings);
+        lambda = getDouble(settings, "lambda", 0.065);
+        usesImplicitFeedback = SettingsUtils.get(settings,
+                "implicit_feedback", false);
+        alpha = getDouble(settings, "alpha", 40.0);
+        numOfThreads = SettingsUtils.get(settings, "num_of_threads", Runtime
+                .getRuntime().availableProcessors());
+    }
+
+    @Override
+    public Factorizer create() {
+        try {
+            return new ALSWRFactorizer(dataModel, numFeatures, lambda,
+                    numIterations, usesImplicitFeedback, alpha, numOfThreads);
+        } catch (final Exception e) {
+            throw new TasteException("Failed to create an instance.", e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.codelibs.elasticsearch.taste.recommender.svd;
+
+import java.util.Map;
+
+import org.codelibs.elasticsearch.taste.model.DataModel;
+import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+
+public abstract class AbstractFactorizerFactory implements FactorizerFactory {
+
+    protected DataModel dataModel;
+
+    protected int numFeatures;
+
+    protected int numIterations;
+
+    @Override
+    public void init(final Map<String, Object> settings) {
+        dataModel = SettingsUtils.get(settings, "dataModel");
+        numFeatures = SettingsUtils.get(settings, "num_features", 10);
+        numIterations = SettingsUtils.get(settings, "num_iterations", 10);
+    }
+
+    protected static double getDouble(final Map<String, Object> settings,
+            final String key, final double defaultValue) {
+        final Number value = SettingsUtils.get(settings, key, defaultValue);
+        return value.doubleValue();
+    }
+}
@@ -0,0 +1,187 @@
+package org.codelibs.elasticsearch.taste.recommender.svd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.codelibs.elasticsearch.taste.common.FastIDSet;
+import org.codelibs.elasticsearch.taste.recommender.ByValueRecommendedItemComparator;
+import org.codelibs.elasticsearch.taste.recommender.GenericRecommendedItem;
+import org.codelibs.elasticsearch.taste.recommender.RecommendedItem;
+
+/**
+ * Computes top items of a block of users by multiplying their features by
+ * tiles of the item features. A tile is copied to an array small enough to
+ * stay in the cache while all users of the block are scored against it, and
+ * four users are scored at a time so that a feature of an item is loaded
+ * once for them. Each user keeps a bounded min-heap of the best items, and
+ * an item is looked up in the excluded items only when the heap accepts it.
+ */
+final class BlockedTopItems {
+
+    private static final int TILE_BYTES = 1 << 16;
+
+    private final Factorization factorization;
+
+    private final int numFeatures;
+
+    private final int howMany;
+
+    private final int numUsers;
+
+    private final FastIDSet[] excludedItemIDs;
+
+    /** heap of user u is [u * howMany, u * howMany + heapSizes[u]) */
+    private final int[] heapItems;
+
+    private final float[] heapValues;
+
+    private final int[] heapSizes;
+
+    /**
+     * @param excludedItemIDs items which are not recommended to each user
+     */
+    BlockedTopItems(final Factorization factorization, final int howMany,
+            final FastIDSet[] excludedItemIDs) {
+        this.factorization = factorization;
+        this.howMany = howMany;
+        this.excludedItemIDs = excludedItemIDs;
+        numFeatures = factorization.numFeatures();
+        numUsers = excludedItemIDs.length;
+        heapItems = new int[numUsers * howMany];
+        heapValues = new float[numUsers * howMany];
+        heapSizes = new int[numUsers];
+    }
+
+    /**
+     * @param userIndexes rows of the users in the factorization
+     * @return top items of each user
+     */
+    List<List<RecommendedItem>> getTopItems(final int[] userIndexes) {
+        final int nf = numFeatures;
+        final float[] users = new float[numUsers * nf];
+        for (int u = 0; u < numUsers; u++) {
+            factorization.copyUserFeatures(userIndexes[u], userIndexes[u] + 1,
+                    users, u * nf);
+        }
+
+        final int numItems = factorization.numItems();
+        final int tileSize = Math.max(1, TILE_BYTES / Math.max(1, nf * 4));
+        final float[] tile = new float[tileSize * nf];
+        for (int start = 0; start < numItems; start += tileSize) {
+            final int numTileItems = Math.min(tileSize, numItems - start);
+            factorization.copyItemFeatures(start, start + numTileItems, tile,
+                    0);
+            int u = 0;
+            for (; u + 4 <= numUsers; u += 4) {
+                final int o0 = u * nf;
+                final int o1 = o0 + nf;
+                final int o2 = o1 + nf;
+                final int o3 = o2 + nf;
+                for (int t = 0; t < numTileItems; t++) {
+                    final int io = t * nf;
+                    float s0 = 0;
+                    float s1 = 0;
+                    float s2 = 0;
+                    float s3 = 0;
+                    for (int f = 0; f < nf; f++) {
+                        final float x = tile[io + f];
+                        s0 += users[o0 + f] * x;
+                        s1 += users[o1 + f] * x;
+                        s2 += users[o2 + f] * x;
+                        s3 += users[o3 + f] * x;
+                    }
+                    final int item = start + t;
+                    offer(u, item, s0);
+                    offer(u + 1, item, s1);
+                    offer(u + 2, item, s2);
+                    offer(u + 3, item, s3);
+                }
+            }
+            for (; u < numUsers; u++) {
+                final int uo = u * nf;
+                for (int t = 0; t < numTileItems; t++) {
+                    final int io = t * nf;
+                    float s = 0;
+                    for (int f = 0; f < nf; f++) {
+                        s += users[uo + f] * tile[io + f];
+                    }
+                    offer(u, start + t, s);
+                }
+            }
+        }
+
+        final List<List<RecommendedItem>> results = new ArrayList<>(numUsers);
+        for (int u = 0; u < numUsers; u++) {
+            results.add(toList(u));
+        }
+        return results;
+    }
+
+    private void offer(final int user, final int item, final float value) {
+        final int base = user * howMany;
+        final int size = heapSizes[user];
+        if (size < howMany) {
+            if (Float.isNaN(value) || isExcluded(user, item)) {
+                return;
+            }
+            // sift up
+            int i = size;
+            while (i > 0) {
+                final int parent = i - 1 >>> 1;
+                if (heapValues[base + parent] <= value) {
+                    break;
+                }
+                heapItems[base + i] = heapItems[base + parent];
+                heapValues[base + i] = heapValues[base + parent];
+                i = parent;
+            }
+            heapItems[base + i] = item;
+            heapValues[base + i] = value;
+            heapSizes[user] = size + 1;
+        } else if (value > heapValues[base] && !isExcluded(user, item)) {
+            // replace the root and sift down
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size
+                        && heapValues[base + child + 1] < heapValues[base
+                                + child]) {
+                    child++;
+                }
+                if (heapValues[base + child] >= value) {
+                    break;
+                }
+                heapItems[base + i] = heapItems[base + child];
+                heapValues[base + i] = heapValues[base + child];
+                i = child;
+            }
+            heapItems[base + i] = item;
+            heapValues[base + i] = value;
+        }
+    }
+
+    private boolean isExcluded(final int user, final int item) {
+        final FastIDSet itemIDs = excludedItemIDs[user];
+        return itemIDs != null
+                && itemIDs.contains(factorization.getItemID(item));
+    }
+
+    private List<RecommendedItem> toList(final int user) {
+        final int base = user * howMany;
+        final int size = heapSizes[user];
+        if (size == 0) {
+            return Collections.emptyList();
+        }
+        final List<RecommendedItem> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(new GenericRecommendedItem(factorization
+                    .getItemID(heapItems[base + i]), heapValues[base + i]));
+        }
+        Collections.sort(items, ByValueRecommendedItemComparator.getInstance());
+        return items;
+    }
+}
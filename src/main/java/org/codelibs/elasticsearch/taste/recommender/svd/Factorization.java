@@ -15,11 +15,17 @@
  * limitations under the License.
  */
 
+
 package org.codelibs.elasticsearch.taste.recommender.svd;
 
+import java.nio.LongBuffer;
+import java.util.AbstractMap;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
+import org.apache.mahout.math.map.OpenLongIntHashMap;
 import org.codelibs.elasticsearch.taste.common.FastByIDMap;
 import org.codelibs.elasticsearch.taste.exception.NoSuchItemException;
 import org.codelibs.elasticsearch.taste.exception.NoSuchUserException;
@@ -27,110 +33,298 @@ import org.codelibs.elasticsearch.taste.exception.NoSuchUserException;
 import com.google.common.base.Preconditions;
 
 /**
- * a factorization of the rating matrix
+ * a factorization of the rating matrix. Features of row i are stored in
+ * [i * numFeatures, (i + 1) * numFeatures) of a flat float array, and IDs are
+ * mapped to rows by primitive hash maps. Subclasses may provide a view of
+ * other storage by overriding all accessors.
  */
 public class Factorization {
 
-    /** used to find the rows in the user features matrix by userID */
-    private final FastByIDMap<Integer> userIDMapping;
+    /** some VMs reserve header words in an array */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final int numFeatures;
+
+    /** user ID of each row of the user features */
+    private final long[] userIDs;
+
+    /** item ID of each row of the item features */
+    private final long[] itemIDs;
 
-    /** used to find the rows in the item features matrix by itemID */
-    private final FastByIDMap<Integer> itemIDMapping;
+    /** row + 1 of a user ID */
+    private final OpenLongIntHashMap userIDMapping;
+
+    /** row + 1 of an item ID */
+    private final OpenLongIntHashMap itemIDMapping;
 
     /** user features matrix */
-    private final double[][] userFeatures;
+    private final float[] userFeatures;
 
     /** item features matrix */
-    private final double[][] itemFeatures;
+    private final float[] itemFeatures;
 
     public Factorization(final FastByIDMap<Integer> userIDMapping,
             final FastByIDMap<Integer> itemIDMapping,
             final double[][] userFeatures, final double[][] itemFeatures) {
-        this.userIDMapping = Preconditions.checkNotNull(userIDMapping);
-        this.itemIDMapping = Preconditions.checkNotNull(itemIDMapping);
+        this(getIDs(userIDMapping), getIDs(itemIDMapping), flatten(
+                userFeatures, userIDMapping.size()), flatten(itemFeatures,
+                itemIDMapping.size()), getNumFeatures(userFeatures,
+                itemFeatures));
+    }
+
+    /**
+     * @param userIDs user ID of each row of userFeatures
+     * @param itemIDs item ID of each row of itemFeatures
+     * @param userFeatures row-major user features
+     * @param itemFeatures row-major item features
+     */
+    public Factorization(final long[] userIDs, final long[] itemIDs,
+            final float[] userFeatures, final float[] itemFeatures,
+            final int numFeatures) {
+        Preconditions.checkArgument(
+                userFeatures.length == (long) userIDs.length * numFeatures,
+                "userFeatures must have numFeatures for each user");
+        Preconditions.checkArgument(
+                itemFeatures.length == (long) itemIDs.length * numFeatures,
+                "itemFeatures must have numFeatures for each item");
+        this.numFeatures = numFeatures;
+        this.userIDs = userIDs;
+        this.itemIDs = itemIDs;
         this.userFeatures = userFeatures;
         this.itemFeatures = itemFeatures;
+        userIDMapping = createIDMapping(userIDs);
+        itemIDMapping = createIDMapping(itemIDs);
     }
 
+    /**
+     * Creates an empty factorization for subclasses.
+     */
+    protected Factorization() {
+        this(new long[0], new long[0], new float[0], new float[0], 0);
+    }
+
+    private static long[] getIDs(final FastByIDMap<Integer> idMapping) {
+        final long[] ids = new long[idMapping.size()];
+        for (final Map.Entry<Long, Integer> entry : idMapping.entrySet()) {
+            ids[entry.getValue()] = entry.getKey();
+        }
+        return ids;
+    }
+
+    /**
+     * Features are held in one array, so rows * columns must not exceed the
+     * maximum size of an array. Offsets of rows fit in int after this check.
+     */
+    private static float[] flatten(final double[][] matrix, final int rows) {
+        final int columns = rows > 0 ? matrix[0].length : 0;
+        final long size = (long) rows * columns;
+        Preconditions.checkArgument(size <= MAX_ARRAY_SIZE,
+                "%s rows of %s features exceed the maximum array size %s",
+                rows, columns, MAX_ARRAY_SIZE);
+        final float[] values = new float[(int) size];
+        for (int i = 0; i < rows; i++) {
+            final double[] row = matrix[i];
+            final int offset = i * columns;
+            for (int j = 0; j < columns; j++) {
+                values[offset + j] = (float) row[j];
+            }
+        }
+        return values;
+    }
+
+    private static int getNumFeatures(final double[][] userFeatures,
+            final double[][] itemFeatures) {
+        if (userFeatures.length > 0) {
+            return userFeatures[0].length;
+        }
+        return itemFeatures.length > 0 ? itemFeatures[0].length : 0;
+    }
+
+    private static OpenLongIntHashMap createIDMapping(final long[] ids) {
+        final OpenLongIntHashMap idMapping = new OpenLongIntHashMap(
+                ids.length * 2);
+        for (int i = 0; i < ids.length; i++) {
+            idMapping.put(ids[i], i + 1);
+        }
+        return idMapping;
+    }
+
+    /**
+     * @return a copy of the user features matrix
+     */
     public double[][] allUserFeatures() {
-        return userFeatures;
+        return toMatrix(userFeatures, userIDs.length);
     }
 
+    /**
+     * @return a copy of the features of the user
+     */
     public double[] getUserFeatures(final long userID)
             throws NoSuchUserException {
-        final Integer index = userIDMapping.get(userID);
-        if (index == null) {
-            throw new NoSuchUserException(userID);
-        }
-        return userFeatures[index];
+        return toRow(userFeatures, userIndex(userID));
     }
 
+    /**
+     * @return a copy of the item features matrix
+     */
     public double[][] allItemFeatures() {
-        return itemFeatures;
+        return toMatrix(itemFeatures, itemIDs.length);
     }
 
+    /**
+     * @return a copy of the features of the item
+     */
     public double[] getItemFeatures(final long itemID)
             throws NoSuchItemException {
-        final Integer index = itemIDMapping.get(itemID);
-        if (index == null) {
-            throw new NoSuchItemException(itemID);
+        return toRow(itemFeatures, itemIndex(itemID));
+    }
+
+    private double[] toRow(final float[] features, final int index) {
+        final double[] row = new double[numFeatures];
+        final int offset = index * numFeatures;
+        for (int feature = 0; feature < numFeatures; feature++) {
+            row[feature] = features[offset + feature];
+        }
+        return row;
+    }
+
+    private double[][] toMatrix(final float[] features, final int rows) {
+        final double[][] matrix = new double[rows][];
+        for (int i = 0; i < rows; i++) {
+            matrix[i] = toRow(features, i);
         }
-        return itemFeatures[index];
+        return matrix;
     }
 
     public int userIndex(final long userID) throws NoSuchUserException {
-        final Integer index = userIDMapping.get(userID);
-        if (index == null) {
+        final int index = userIDMapping.get(userID) - 1;
+        if (index < 0) {
             throw new NoSuchUserException(userID);
         }
         return index;
     }
 
     public Iterable<Map.Entry<Long, Integer>> getUserIDMappings() {
-        return userIDMapping.entrySet();
+        return () -> new IDMappingIterator(LongBuffer.wrap(userIDs));
     }
 
     public int itemIndex(final long itemID) throws NoSuchItemException {
-        final Integer index = itemIDMapping.get(itemID);
-        if (index == null) {
+        final int index = itemIDMapping.get(itemID) - 1;
+        if (index < 0) {
             throw new NoSuchItemException(itemID);
         }
         return index;
     }
 
     public Iterable<Map.Entry<Long, Integer>> getItemIDMappings() {
-        return itemIDMapping.entrySet();
+        return () -> new IDMappingIterator(LongBuffer.wrap(itemIDs));
+    }
+
+    /**
+     * @return the dot product of the user and item features
+     */
+    public double dot(final int userIndex, final int itemIndex) {
+        final float[] userVectors = userFeatures;
+        final float[] itemVectors = itemFeatures;
+        final int userOffset = userIndex * numFeatures;
+        final int itemOffset = itemIndex * numFeatures;
+        float sum = 0;
+        for (int feature = 0; feature < numFeatures; feature++) {
+            sum += userVectors[userOffset + feature]
+                    * itemVectors[itemOffset + feature];
+        }
+        return sum;
+    }
+
+    public long getUserID(final int userIndex) {
+        return userIDs[userIndex];
+    }
+
+    public long getItemID(final int itemIndex) {
+        return itemIDs[itemIndex];
+    }
+
+    /**
+     * Copies row-major features of users from fromIndex to toIndex
+     * (exclusive) to dest.
+     */
+    public void copyUserFeatures(final int fromIndex, final int toIndex,
+            final float[] dest, final int destOffset) {
+        System.arraycopy(userFeatures, fromIndex * numFeatures, dest,
+                destOffset, (toIndex - fromIndex) * numFeatures);
+    }
+
+    /**
+     * Copies row-major features of items from fromIndex to toIndex
+     * (exclusive) to dest.
+     */
+    public void copyItemFeatures(final int fromIndex, final int toIndex,
+            final float[] dest, final int destOffset) {
+        System.arraycopy(itemFeatures, fromIndex * numFeatures, dest,
+                destOffset, (toIndex - fromIndex) * numFeatures);
     }
 
     public int numFeatures() {
-        return userFeatures.length > 0 ? userFeatures[0].length : 0;
+        return numFeatures;
     }
 
     public int numUsers() {
-        return userIDMapping.size();
+        return userIDs.length;
     }
 
     public int numItems() {
-        return itemIDMapping.size();
+        return itemIDs.length;
     }
 
     @Override
     public boolean equals(final Object o) {
         if (o instanceof Factorization) {
             final Factorization other = (Factorization) o;
-            return userIDMapping.equals(other.userIDMapping)
-                    && itemIDMapping.equals(other.itemIDMapping)
-                    && Arrays.deepEquals(userFeatures, other.userFeatures)
-                    && Arrays.deepEquals(itemFeatures, other.itemFeatures);
+            return numFeatures == other.numFeatures
+                    && Arrays.equals(userIDs, other.userIDs)
+                    && Arrays.equals(itemIDs, other.itemIDs)
+                    && Arrays.equals(userFeatures, other.userFeatures)
+                    && Arrays.equals(itemFeatures, other.itemFeatures);
         }
         return false;
     }
 
     @Override
     public int hashCode() {
-        int hashCode = 31 * userIDMapping.hashCode() + itemIDMapping.hashCode();
-        hashCode = 31 * hashCode + Arrays.deepHashCode(userFeatures);
-        hashCode = 31 * hashCode + Arrays.deepHashCode(itemFeatures);
+        int hashCode = 31 * Arrays.hashCode(userIDs)
+                + Arrays.hashCode(itemIDs);
+        hashCode = 31 * hashCode + Arrays.hashCode(userFeatures);
+        hashCode = 31 * hashCode + Arrays.hashCode(itemFeatures);
         return hashCode;
     }
+
+    /**
+     * Iterates pairs of an ID and its row.
+     */
+    static final class IDMappingIterator implements
+            Iterator<Map.Entry<Long, Integer>> {
+        private final LongBuffer ids;
+
+        private int index;
+
+        IDMappingIterator(final LongBuffer ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < ids.limit();
+        }
+
+        @Override
+        public Map.Entry<Long, Integer> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Map.Entry<Long, Integer> entry = new AbstractMap.SimpleImmutableEntry<>(
+                    ids.get(index), index);
+            index++;
+            return entry;
+        }
+    }
 }
@@ -0,0 +1,11 @@
+package org.codelibs.elasticsearch.taste.recommender.svd;
+
+import java.util.Map;
+
+public interface FactorizerFactory {
+
+    void init(Map<String, Object> settings);
+
+    Factorizer create();
+
+}
@@ -0,0 +1,250 @@
+package org.codelibs.elasticsearch.taste.recommender.svd;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Persists a {@link Factorization} to a file in a little-endian binary
+ * format, which is loaded by memory mapping as a {@link MappedFactorization}.
+ * The file contains a header of 32 bytes(magic, version, the number of
+ * features, users and items), sorted user IDs, sorted item IDs, and then
+ * row-major float features of users and items in the order of the IDs.
+ * </p>
+ *
+ * <p>
+ * A factorization is written to a temporary file in the same directory and
+ * renamed to the file, so a reader never sees a partial file. A mapped file
+ * stays valid after it is replaced.
+ * </p>
+ */
+public class FilePersistenceStrategy implements PersistenceStrategy {
+
+    private static final Logger log = LoggerFactory
+            .getLogger(FilePersistenceStrategy.class);
+
+    private static final int MAGIC = 0x54415346;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final File file;
+
+    /** the factorization loaded from or written to the file */
+    private volatile Factorization current;
+
+    /**
+     * @param file the file to use for storage. If the file does not exist it
+     *          will be created when required.
+     */
+    public FilePersistenceStrategy(final File file) {
+        this.file = Preconditions.checkNotNull(file);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public Factorization load() throws IOException {
+        if (!file.exists()) {
+            log.info("{} does not exist, no factorization found", file);
+            return null;
+        }
+        final long startTime = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            final ByteBuffer header = map(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(file + " is not a factorization file.");
+            }
+            final int numFeatures = header.getInt();
+            final int numUsers = header.getInt();
+            final int numItems = header.getInt();
+            final long featuresOffset = HEADER_SIZE + 8L
+                    * (numUsers + (long) numItems);
+            final long itemFeaturesOffset = featuresOffset + 4L * numFeatures
+                    * numUsers;
+            final long size = itemFeaturesOffset + 4L * numFeatures * numItems;
+            if (channel.size() != size) {
+                throw new IOException(file + " is " + channel.size()
+                        + " bytes, but " + size + " bytes are expected.");
+            }
+
+            final LongBuffer userIDs = map(channel, HEADER_SIZE, 8L * numUsers)
+                    .asLongBuffer();
+            final LongBuffer itemIDs = map(channel,
+                    HEADER_SIZE + 8L * numUsers, 8L * numItems)
+                    .asLongBuffer();
+            final int rowShift = getRowShift(numFeatures);
+            final FloatBuffer[] userFeatures = mapRows(channel,
+                    featuresOffset, numUsers, numFeatures, rowShift);
+            final FloatBuffer[] itemFeatures = mapRows(channel,
+                    itemFeaturesOffset, numItems, numFeatures, rowShift);
+            final Factorization factorization = new MappedFactorization(
+                    numFeatures, userIDs, itemIDs, userFeatures, itemFeatures,
+                    rowShift);
+            log.info("Mapped factorization of {} users and {} items from {}"
+                    + " in {} ms.", numUsers, numItems, file,
+                    System.currentTimeMillis() - startTime);
+            current = factorization;
+            return factorization;
+        }
+    }
+
+    @Override
+    public void maybePersist(final Factorization factorization)
+            throws IOException {
+        if (factorization == current) {
+            return;
+        }
+        final Path target = file.getAbsoluteFile().toPath();
+        final Path parent = target.getParent();
+        Files.createDirectories(parent);
+        final Path tempFile = Files.createTempFile(parent, target
+                .getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                write(factorization, channel);
+                channel.force(true);
+            }
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        log.info("Wrote factorization to {}.", file);
+        current = factorization;
+    }
+
+    protected static void write(final Factorization factorization,
+            final FileChannel channel) throws IOException {
+        final int numFeatures = factorization.numFeatures();
+        final long[] userIDs = getSortedIDs(
+                factorization.getUserIDMappings(), factorization.numUsers());
+        final long[] itemIDs = getSortedIDs(
+                factorization.getItemIDMappings(), factorization.numItems());
+
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(
+                ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(numFeatures)
+                .putInt(userIDs.length).putInt(itemIDs.length);
+        buffer.position(HEADER_SIZE);
+        for (final long userID : userIDs) {
+            ensureRemaining(buffer, 8, channel);
+            buffer.putLong(userID);
+        }
+        for (final long itemID : itemIDs) {
+            ensureRemaining(buffer, 8, channel);
+            buffer.putLong(itemID);
+        }
+        for (final long userID : userIDs) {
+            putFeatures(buffer, factorization.getUserFeatures(userID),
+                    numFeatures, channel);
+        }
+        for (final long itemID : itemIDs) {
+            putFeatures(buffer, factorization.getItemFeatures(itemID),
+                    numFeatures, channel);
+        }
+        flush(buffer, channel);
+    }
+
+    private static long[] getSortedIDs(
+            final Iterable<Map.Entry<Long, Integer>> mappings, final int size) {
+        final long[] ids = new long[size];
+        int count = 0;
+        for (final Map.Entry<Long, Integer> entry : mappings) {
+            ids[count++] = entry.getKey();
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static void putFeatures(final ByteBuffer buffer,
+            final double[] features, final int numFeatures,
+            final FileChannel channel) throws IOException {
+        for (int feature = 0; feature < numFeatures; feature++) {
+            ensureRemaining(buffer, 4, channel);
+            buffer.putFloat((float) features[feature]);
+        }
+    }
+
+    private static void ensureRemaining(final ByteBuffer buffer,
+            final int size, final FileChannel channel) throws IOException {
+        if (buffer.remaining() < size) {
+            flush(buffer, channel);
+        }
+    }
+
+    private static void flush(final ByteBuffer buffer,
+            final FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static ByteBuffer map(final FileChannel channel,
+            final long position, final long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Too many IDs: " + size / 8);
+        }
+        return channel.map(MapMode.READ_ONLY, position, size).order(
+                ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return the shift of the largest power-of-two number of rows in a
+     *         buffer
+     */
+    protected int getRowShift(final int numFeatures) {
+        int shift = 30;
+        while (shift > 0
+                && 4L * numFeatures << shift > Integer.MAX_VALUE) {
+            shift--;
+        }
+        return shift;
+    }
+
+    private static FloatBuffer[] mapRows(final FileChannel channel,
+            final long position, final int numRows, final int numFeatures,
+            final int rowShift) throws IOException {
+        final int rowsPerBuffer = 1 << rowShift;
+        final int numBuffers = (int) ((numRows + (long) rowsPerBuffer - 1) >>> rowShift);
+        final FloatBuffer[] buffers = new FloatBuffer[numBuffers];
+        for (int i = 0; i < numBuffers; i++) {
+            final long firstRow = (long) i << rowShift;
+            final long rows = Math.min(rowsPerBuffer, numRows - firstRow);
+            buffers[i] = map(channel, position + 4L * numFeatures * firstRow,
+                    4L * numFeatures * rows).asFloatBuffer();
+        }
+        return buffers;
+    }
+
+    @Override
+    public String toString() {
+        return "FilePersistenceStrategy[file:" + file + ']';
+    }
+}
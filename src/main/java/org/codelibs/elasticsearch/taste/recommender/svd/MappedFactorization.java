@@ -0,0 +1,213 @@
+package org.codelibs.elasticsearch.taste.recommender.svd;
+
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.util.Map;
+
+import org.codelibs.elasticsearch.taste.exception.NoSuchItemException;
+import org.codelibs.elasticsearch.taste.exception.NoSuchUserException;
+
+/**
+ * A read-only {@link Factorization} over buffers mapped from a file by
+ * {@link FilePersistenceStrategy}. IDs are sorted, and an index of an ID is
+ * its position found by a binary search. Features are row-major floats in the
+ * order of the IDs, and a matrix is split into buffers of a power-of-two
+ * number of rows because a buffer is limited to 2GB. Nothing is copied to
+ * the heap unless features are requested as arrays.
+ */
+public class MappedFactorization extends Factorization {
+
+    private final int numFeatures;
+
+    private final LongBuffer userIDs;
+
+    private final LongBuffer itemIDs;
+
+    private final FloatBuffer[] userFeatures;
+
+    private final FloatBuffer[] itemFeatures;
+
+    /** rows in a buffer are 1 << rowShift */
+    private final int rowShift;
+
+    private final int rowMask;
+
+    /**
+     * @param rowShift rows in a buffer of features are 1 << rowShift
+     */
+    public MappedFactorization(final int numFeatures,
+            final LongBuffer userIDs, final LongBuffer itemIDs,
+            final FloatBuffer[] userFeatures, final FloatBuffer[] itemFeatures,
+            final int rowShift) {
+        this.numFeatures = numFeatures;
+        this.userIDs = userIDs;
+        this.itemIDs = itemIDs;
+        this.userFeatures = userFeatures;
+        this.itemFeatures = itemFeatures;
+        this.rowShift = rowShift;
+        rowMask = (1 << rowShift) - 1;
+    }
+
+    @Override
+    public double[][] allUserFeatures() {
+        return copyAll(userFeatures, numUsers());
+    }
+
+    @Override
+    public double[] getUserFeatures(final long userID)
+            throws NoSuchUserException {
+        return copyRow(userFeatures, userIndex(userID));
+    }
+
+    @Override
+    public double[][] allItemFeatures() {
+        return copyAll(itemFeatures, numItems());
+    }
+
+    @Override
+    public double[] getItemFeatures(final long itemID)
+            throws NoSuchItemException {
+        return copyRow(itemFeatures, itemIndex(itemID));
+    }
+
+    @Override
+    public int userIndex(final long userID) throws NoSuchUserException {
+        final int index = binarySearch(userIDs, userID);
+        if (index < 0) {
+            throw new NoSuchUserException(userID);
+        }
+        return index;
+    }
+
+    @Override
+    public Iterable<Map.Entry<Long, Integer>> getUserIDMappings() {
+        return () -> new IDMappingIterator(userIDs);
+    }
+
+    @Override
+    public int itemIndex(final long itemID) throws NoSuchItemException {
+        final int index = binarySearch(itemIDs, itemID);
+        if (index < 0) {
+            throw new NoSuchItemException(itemID);
+        }
+        return index;
+    }
+
+    @Override
+    public Iterable<Map.Entry<Long, Integer>> getItemIDMappings() {
+        return () -> new IDMappingIterator(itemIDs);
+    }
+
+    @Override
+    public double dot(final int userIndex, final int itemIndex) {
+        final FloatBuffer userBuffer = userFeatures[userIndex >>> rowShift];
+        final int userOffset = (userIndex & rowMask) * numFeatures;
+        final FloatBuffer itemBuffer = itemFeatures[itemIndex >>> rowShift];
+        final int itemOffset = (itemIndex & rowMask) * numFeatures;
+        float sum = 0;
+        for (int feature = 0; feature < numFeatures; feature++) {
+            sum += userBuffer.get(userOffset + feature)
+                    * itemBuffer.get(itemOffset + feature);
+        }
+        return sum;
+    }
+
+    @Override
+    public long getUserID(final int userIndex) {
+        return userIDs.get(userIndex);
+    }
+
+    @Override
+    public long getItemID(final int itemIndex) {
+        return itemIDs.get(itemIndex);
+    }
+
+    @Override
+    public void copyUserFeatures(final int fromIndex, final int toIndex,
+            final float[] dest, final int destOffset) {
+        copyRows(userFeatures, fromIndex, toIndex, dest, destOffset);
+    }
+
+    @Override
+    public void copyItemFeatures(final int fromIndex, final int toIndex,
+            final float[] dest, final int destOffset) {
+        copyRows(itemFeatures, fromIndex, toIndex, dest, destOffset);
+    }
+
+    private void copyRows(final FloatBuffer[] features, final int fromIndex,
+            final int toIndex, final float[] dest, final int destOffset) {
+        int index = fromIndex;
+        int offset = destOffset;
+        while (index < toIndex) {
+            // rows up to the end of the buffer
+            final int rows = Math.min(toIndex - index, rowMask + 1
+                    - (index & rowMask));
+            final FloatBuffer buffer = features[index >>> rowShift]
+                    .duplicate();
+            buffer.position((index & rowMask) * numFeatures);
+            buffer.get(dest, offset, rows * numFeatures);
+            index += rows;
+            offset += rows * numFeatures;
+        }
+    }
+
+    @Override
+    public int numFeatures() {
+        return numFeatures;
+    }
+
+    @Override
+    public int numUsers() {
+        return userIDs.limit();
+    }
+
+    @Override
+    public int numItems() {
+        return itemIDs.limit();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    private static int binarySearch(final LongBuffer ids, final long id) {
+        int low = 0;
+        int high = ids.limit() - 1;
+        while (low <= high) {
+            final int mid = low + high >>> 1;
+            final long midID = ids.get(mid);
+            if (midID < id) {
+                low = mid + 1;
+            } else if (midID > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private double[] copyRow(final FloatBuffer[] features, final int index) {
+        final FloatBuffer buffer = features[index >>> rowShift];
+        final int offset = (index & rowMask) * numFeatures;
+        final double[] row = new double[numFeatures];
+        for (int feature = 0; feature < numFeatures; feature++) {
+            row[feature] = buffer.get(offset + feature);
+        }
+        return row;
+    }
+
+    private double[][] copyAll(final FloatBuffer[] features, final int rows) {
+        final double[][] matrix = new double[rows][];
+        for (int i = 0; i < rows; i++) {
+            matrix[i] = copyRow(features, i);
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,56 @@
+package org.codelibs.elasticsearch.taste.recommender.svd;
+
+import java.util.Map;
+
+import org.codelibs.elasticsearch.taste.exception.TasteException;
+import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+
+public class ParallelSGDFactorizerFactory extends AbstractFactorizerFactory {
+
+    protected double lambda;
+
+    protected double mu0;
+
+    protected double decayFactor;
+
+    protected int stepOffset;
+
+    protected double forgettingExponent;
+
+    protected double biasMuRatio;
+
+    protected double biasLambdaRatio;
+
+    protected int numOfThreads;
+
+    @Override
+    public void init(final Map<String, Object> settings) {
+        super.init(settings);
+        lambda = getDouble(settings, "lambda", 0.065);
+        mu0 = getDouble(settings, "mu0", 0.01);
+        decayFactor = getDouble(settings, "decay_factor", 1.0);
+        stepOffset = SettingsUtils.get(settings, "step_offset", 0);
+        forgettingExponent = getDouble(settings, "forgetting_exponent", 0.0);
+        biasMuRatio = getDouble(settings, "bias_mu_ratio", 0.5);
+        biasLambdaRatio = getDouble(settings, "bias_lambda_ratio", 0.1);
+        numOfThreads = SettingsUtils.get(settings, "num_of_threads", 0);
+    }
+
+    @Override
+    public Factorizer create() {
+        try {
+            if (numOfThreads > 0) {
+                return new ParallelSGDFactorizer(dataModel, numFeatures,
+                        lambda, numIterations, mu0, decayFactor, stepOffset,
+                        forgettingExponent, biasMuRatio, biasLambdaRatio,
+                        numOfThreads);
+            }
+            // the number of threads is chosen by the number of preferences
+            return new ParallelSGDFactorizer(dataModel, numFeatures, lambda,
+                    numIterations, mu0, decayFactor, stepOffset,
+                    forgettingExponent, biasMuRatio, biasLambdaRatio);
+        } catch (final Exception e) {
+            throw new TasteException("Failed to create an instance.", e);
+        }
+    }
+}
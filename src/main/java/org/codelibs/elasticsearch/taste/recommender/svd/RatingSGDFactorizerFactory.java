@@ -0,0 +1,37 @@
+package org.codelibs.elasticsearch.taste.recommender.svd;
+
+import java.util.Map;
+
+import org.codelibs.elasticsearch.taste.exception.TasteException;
+import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+
+public class RatingSGDFactorizerFactory extends AbstractFactorizerFactory {
+
+    protected double learningRate;
+
+    protected double preventOverfitting;
+
+    protected double randomNoise;
+
+    protected double learningRateDecay;
+
+    @Override
+    public void init(final Map<String, Object> settings) {
+        super.init(settings);
+        learningRate = getDouble(settings, "learning_rate", 0.01);
+        preventOverfitting = getDouble(settings, "prevent_overfitting", 0.1);
+        randomNoise = getDouble(settings, "random_noise", 0.01);
+        learningRateDecay = getDouble(settings, "learning_rate_decay", 1.0);
+    }
+
+    @Override
+    public Factorizer create() {
+        try {
+            return new RatingSGDFactorizer(dataModel, numFeatures,
+                    learningRate, preventOverfitting, randomNoise,
+                    numIterations, learningRateDecay);
+        } catch (final Exception e) {
+            throw new TasteException("Failed to create an instance.", e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.codelibs.elasticsearch.taste.recommender.svd;
+
+import org.codelibs.elasticsearch.taste.exception.TasteException;
+
+public class SVDPlusPlusFactorizerFactory extends RatingSGDFactorizerFactory {
+
+    @Override
+    public Factorizer create() {
+        try {
+            return new SVDPlusPlusFactorizer(dataModel, numFeatures,
+                    learningRate, preventOverfitting, randomNoise,
+                    numIterations, learningRateDecay);
+        } catch (final Exception e) {
+            throw new TasteException("Failed to create an instance.", e);
+        }
+    }
+}
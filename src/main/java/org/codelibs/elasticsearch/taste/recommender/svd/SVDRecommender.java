@@ -18,16 +18,20 @@
 package org.codelibs.elasticsearch.taste.recommender.svd;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
 import org.codelibs.elasticsearch.taste.common.FastIDSet;
 import org.codelibs.elasticsearch.taste.common.RefreshHelper;
 import org.codelibs.elasticsearch.taste.common.Refreshable;
+import org.codelibs.elasticsearch.taste.exception.NoSuchUserException;
 import org.codelibs.elasticsearch.taste.exception.TasteException;
 import org.codelibs.elasticsearch.taste.model.DataModel;
 import org.codelibs.elasticsearch.taste.model.PreferenceArray;
 import org.codelibs.elasticsearch.taste.recommender.AbstractRecommender;
+import org.codelibs.elasticsearch.taste.recommender.BatchRecommender;
 import org.codelibs.elasticsearch.taste.recommender.CandidateItemsStrategy;
 import org.codelibs.elasticsearch.taste.recommender.IDRescorer;
 import org.codelibs.elasticsearch.taste.recommender.RecommendedItem;
@@ -41,7 +45,8 @@ import com.google.common.base.Preconditions;
  * A {@link org.codelibs.elasticsearch.taste.recommender.Recommender} that uses matrix factorization (a projection of users
  * and items onto a feature space)
  */
-public final class SVDRecommender extends AbstractRecommender {
+public final class SVDRecommender extends AbstractRecommender implements
+        BatchRecommender {
 
     private Factorization factorization;
 
@@ -147,38 +152,86 @@ public final class SVDRecommender extends AbstractRecommender {
         final FastIDSet possibleItemIDs = getAllOtherItems(userID,
                 preferencesFromUser);
 
+        final Factorization theFactorization = factorization;
         final List<RecommendedItem> topItems = TopItems.getTopItems(howMany,
-                possibleItemIDs.iterator(), rescorer, new Estimator(userID));
+                possibleItemIDs.iterator(), rescorer, new Estimator(
+                        theFactorization, theFactorization.userIndex(userID)));
         log.debug("Recommendations are: {}", topItems);
 
         return topItems;
     }
 
+    /**
+     * Recommends items to users by {@link BlockedTopItems}. Candidates are
+     * all items of the factorization which a user does not prefer, as
+     * {@link org.codelibs.elasticsearch.taste.recommender.AllUnknownItemsCandidateItemsStrategy}
+     * without a rescorer. A user who is not in the factorization or the
+     * data model is null.
+     */
+    @Override
+    public List<List<RecommendedItem>> recommend(final long[] userIDs,
+            final int howMany) {
+        Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+        final Factorization theFactorization = factorization;
+        final int[] userIndexes = new int[userIDs.length];
+        final FastIDSet[] excludedItemIDs = new FastIDSet[userIDs.length];
+        // positions of users in the batch
+        final int[] positions = new int[userIDs.length];
+        int numUsers = 0;
+        for (int i = 0; i < userIDs.length; i++) {
+            try {
+                userIndexes[numUsers] = theFactorization.userIndex(userIDs[i]);
+                excludedItemIDs[numUsers] = getDataModel().getItemIDsFromUser(
+                        userIDs[i]);
+                positions[numUsers] = i;
+                numUsers++;
+            } catch (final NoSuchUserException e) {
+                log.debug("User {} is not in a batch.", userIDs[i]);
+            }
+        }
+
+        final List<List<RecommendedItem>> topItems = new BlockedTopItems(
+                theFactorization, howMany, Arrays.copyOf(excludedItemIDs,
+                        numUsers)).getTopItems(Arrays.copyOf(userIndexes,
+                numUsers));
+        final List<List<RecommendedItem>> results = new ArrayList<>(
+                userIDs.length);
+        for (int i = 0; i < userIDs.length; i++) {
+            results.add(null);
+        }
+        for (int n = 0; n < numUsers; n++) {
+            results.set(positions[n], topItems.get(n));
+        }
+        return results;
+    }
+
     /**
      * a preference is estimated by computing the dot-product of the user and item feature vectors
      */
     @Override
     public float estimatePreference(final long userID, final long itemID) {
-        final double[] userFeatures = factorization.getUserFeatures(userID);
-        final double[] itemFeatures = factorization.getItemFeatures(itemID);
-        double estimate = 0;
-        for (int feature = 0; feature < userFeatures.length; feature++) {
-            estimate += userFeatures[feature] * itemFeatures[feature];
-        }
-        return (float) estimate;
+        final Factorization theFactorization = factorization;
+        return (float) theFactorization.dot(
+                theFactorization.userIndex(userID),
+                theFactorization.itemIndex(itemID));
     }
 
-    private final class Estimator implements TopItems.Estimator<Long> {
+    private static final class Estimator implements TopItems.LongEstimator {
 
-        private final long theUserID;
+        private final Factorization factorization;
 
-        private Estimator(final long theUserID) {
-            this.theUserID = theUserID;
+        private final int userIndex;
+
+        private Estimator(final Factorization factorization,
+                final int userIndex) {
+            this.factorization = factorization;
+            this.userIndex = userIndex;
         }
 
         @Override
-        public double estimate(final Long itemID) {
-            return estimatePreference(theUserID, itemID);
+        public double estimate(final long itemID) {
+            return (float) factorization.dot(userIndex,
+                    factorization.itemIndex(itemID));
         }
     }
 
@@ -190,4 +243,11 @@ public final class SVDRecommender extends AbstractRecommender {
         refreshHelper.refresh(alreadyRefreshed);
     }
 
+    @Override
+    public String toString() {
+        return "SVDRecommender[users:" + factorization.numUsers() + ", items:"
+                + factorization.numItems() + ", features:"
+                + factorization.numFeatures() + ", persistenceStrategy:"
+                + persistenceStrategy.getClass().getSimpleName() + ']';
+    }
 }
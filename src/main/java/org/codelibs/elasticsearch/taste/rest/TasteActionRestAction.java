@@ -4,16 +4,9 @@ import static org.elasticsearch.rest.RestStatus.OK;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.codelibs.elasticsearch.taste.exception.TasteException;
 import org.codelibs.elasticsearch.taste.rest.handler.ActionHandler;
-import org.codelibs.elasticsearch.taste.rest.handler.EvalItemsFromUserHandler;
-import org.codelibs.elasticsearch.taste.rest.handler.GenTermValuesHandler;
-import org.codelibs.elasticsearch.taste.rest.handler.ItemsFromItemHandler;
-import org.codelibs.elasticsearch.taste.rest.handler.ItemsFromUserHandler;
-import org.codelibs.elasticsearch.taste.rest.handler.SimilarUsersHandler;
 import org.codelibs.elasticsearch.taste.service.TasteService;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.bytes.BytesReference;
@@ -30,18 +23,6 @@ import org.elasticsearch.search.lookup.SourceLookup;
 import org.elasticsearch.threadpool.ThreadPool;
 
 public class TasteActionRestAction extends BaseRestHandler {
-    private static final String THREAD_NAME_PREFIX = "Taste-";
-
-    private static final String GENERATE_TERM_VALUES = "generate_term_values";
-
-    private static final String EVALUATE_ITEMS_FROM_USER = "evaluate_items_from_user";
-
-    private static final String RECOMMENDED_ITEMS_FROM_ITEM = "recommended_items_from_item";
-
-    private static final String RECOMMENDED_ITEMS_FROM_USER = "recommended_items_from_user";
-
-    private static final String SIMILAR_USERS = "similar_users";
-
     private final TasteService tasteService;
 
     private final ThreadPool pool;
@@ -65,8 +46,6 @@ public class TasteActionRestAction extends BaseRestHandler {
 
     }
 
-    Map<String, Thread> handlerMap = new ConcurrentHashMap<>();
-
     @Override
     protected void handleRequest(final RestRequest request,
             final RestChannel channel, final Client client) {
@@ -77,10 +56,15 @@ public class TasteActionRestAction extends BaseRestHandler {
             name = request.param("name");
             params = new LinkedHashMap<>();
             if (name == null) {
-                params.put("names", handlerMap.keySet());
+                params.put("names", tasteService.getActionNames());
             } else {
                 params.put("name", name);
-                params.put("found", handlerMap.containsKey(name));
+                final ActionHandler handler = tasteService
+                        .getActionHandler(name);
+                params.put("found", handler != null);
+                if (handler != null) {
+                    params.put("stats", handler.getStats());
+                }
             }
             sendResponse(request, channel, params, true);
             break;
@@ -88,14 +72,7 @@ public class TasteActionRestAction extends BaseRestHandler {
             name = request.param("name");
             params = new LinkedHashMap<>();
             params.put("name", name);
-            boolean acknowledged;
-            if (handlerMap.containsKey(name)) {
-                final Thread thread = handlerMap.remove(name);
-                thread.interrupt();
-                acknowledged = true;
-            } else {
-                acknowledged = false;
-            }
+            final boolean acknowledged = tasteService.stopAction(name);
             sendResponse(request, channel, params, acknowledged);
             break;
         case POST:
@@ -110,29 +87,9 @@ public class TasteActionRestAction extends BaseRestHandler {
             try {
                 final Map<String, Object> sourceMap = SourceLookup
                         .sourceAsMap(content);
-                if (RECOMMENDED_ITEMS_FROM_USER.equals(action)) {
-                    final ItemsFromUserHandler handler = new ItemsFromUserHandler(
-                            settings, sourceMap, client, pool, tasteService);
-                    name = startThread(handler);
-                } else if (RECOMMENDED_ITEMS_FROM_ITEM.equals(action)) {
-                    final ItemsFromItemHandler handler = new ItemsFromItemHandler(
-                            settings, sourceMap, client, pool, tasteService);
-                    name = startThread(handler);
-                } else if (SIMILAR_USERS.equals(action)) {
-                    final SimilarUsersHandler handler = new SimilarUsersHandler(
-                            settings, sourceMap, client, pool, tasteService);
-                    name = startThread(handler);
-                } else if (EVALUATE_ITEMS_FROM_USER.equals(action)) {
-                    final EvalItemsFromUserHandler handler = new EvalItemsFromUserHandler(
-                            settings, sourceMap, client, pool, tasteService);
-                    name = startThread(handler);
-                } else if (GENERATE_TERM_VALUES.equals(action)) {
-                    final GenTermValuesHandler handler = new GenTermValuesHandler(
-                            settings, sourceMap, client, pool);
-                    name = startThread(handler);
-                } else {
-                    throw new TasteException("Unknown action: " + action);
-                }
+                final ActionHandler handler = tasteService
+                        .createActionHandler(action, sourceMap);
+                name = tasteService.startAction(handler);
 
                 params = new LinkedHashMap<>();
                 params.put("name", name);
@@ -149,23 +106,6 @@ public class TasteActionRestAction extends BaseRestHandler {
 
     }
 
-    protected String startThread(final ActionHandler handler) {
-        final String name = UUID.randomUUID().toString();
-        final Thread thread = new Thread(() -> {
-            try {
-                handler.execute();
-            } catch (final Exception e) {
-                logger.error("TasteThread {} is failed.", e, name);
-            } finally {
-                handlerMap.remove(name);
-                handler.close();
-            }
-        }, THREAD_NAME_PREFIX + name);
-        thread.start();
-        handlerMap.put(name, thread);
-        return name;
-    }
-
     private void sendResponse(final RestRequest request,
             final RestChannel channel, final Map<String, Object> params,
             final boolean acknowledged) {
@@ -0,0 +1,117 @@
+package org.codelibs.elasticsearch.taste.rest;
+
+import static org.elasticsearch.rest.RestStatus.OK;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.codelibs.elasticsearch.taste.exception.TasteException;
+import org.codelibs.elasticsearch.taste.service.ActionScheduler;
+import org.codelibs.elasticsearch.taste.service.TasteService;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.search.lookup.SourceLookup;
+import org.elasticsearch.threadpool.ThreadPool;
+
+public class TasteScheduleRestAction extends BaseRestHandler {
+
+    private final TasteService tasteService;
+
+    private final ThreadPool pool;
+
+    @Inject
+    public TasteScheduleRestAction(final Settings settings,
+            final RestController restController, final Client client,
+            final ThreadPool pool, final TasteService tasteService) {
+        super(settings, restController, client);
+        this.pool = pool;
+        this.tasteService = tasteService;
+
+        restController.registerHandler(RestRequest.Method.GET,
+                "/_taste/schedule", this);
+        restController.registerHandler(RestRequest.Method.GET,
+                "/_taste/schedule/{id}", this);
+        restController.registerHandler(RestRequest.Method.PUT,
+                "/_taste/schedule/{id}", this);
+        restController.registerHandler(RestRequest.Method.POST,
+                "/_taste/schedule/{id}", this);
+        restController.registerHandler(RestRequest.Method.DELETE,
+                "/_taste/schedule/{id}", this);
+    }
+
+    @Override
+    protected void handleRequest(final RestRequest request,
+            final RestChannel channel, final Client client) {
+        pool.generic().execute(() -> execute(request, channel));
+    }
+
+    private void execute(final RestRequest request, final RestChannel channel) {
+        final ActionScheduler scheduler = tasteService.getScheduler();
+        final String id = request.param("id");
+        final Map<String, Object> params = new LinkedHashMap<>();
+        try {
+            switch (request.method()) {
+            case GET:
+                params.put("schedules", scheduler.get(id));
+                sendResponse(request, channel, params, true);
+                break;
+            case DELETE:
+                params.put("id", id);
+                sendResponse(request, channel, params, scheduler.delete(id));
+                break;
+            case PUT:
+            case POST:
+                final BytesReference content = request.content();
+                if (content == null) {
+                    throw new TasteException(
+                            "Invalid parameter. No request body.");
+                }
+                scheduler.put(id, SourceLookup.sourceAsMap(content));
+                params.put("id", id);
+                sendResponse(request, channel, params, true);
+                break;
+            default:
+                throw new TasteException("Invalid request: " + request);
+            }
+        } catch (final Exception e) {
+            sendErrorResponse(channel, e);
+        }
+    }
+
+    private void sendResponse(final RestRequest request,
+            final RestChannel channel, final Map<String, Object> params,
+            final boolean acknowledged) {
+        try {
+            final XContentBuilder builder = JsonXContent.contentBuilder();
+            if (request.hasParam("pretty")) {
+                builder.prettyPrint().lfAtEnd();
+            }
+            builder.startObject();
+            builder.field("acknowledged", acknowledged);
+            for (final Map.Entry<String, Object> entry : params.entrySet()) {
+                builder.field(entry.getKey(), entry.getValue());
+            }
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(OK, builder));
+        } catch (final Exception e) {
+            sendErrorResponse(channel, e);
+        }
+    }
+
+    private void sendErrorResponse(final RestChannel channel, final Throwable t) {
+        try {
+            channel.sendResponse(new BytesRestResponse(channel, t));
+        } catch (final Exception e) {
+            logger.error("Failed to send a failure response.", e);
+        }
+    }
+}
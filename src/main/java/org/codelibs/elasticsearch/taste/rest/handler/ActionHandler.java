@@ -1,5 +1,6 @@
 package org.codelibs.elasticsearch.taste.rest.handler;
 
+import java.util.Collections;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
@@ -17,6 +18,12 @@ import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.threadpool.ThreadPool;
 
 public abstract class ActionHandler {
+    public static final String STATUS_COMPLETED = "completed";
+
+    public static final String STATUS_PARTIAL = "partial";
+
+    public static final String STATUS_FAILED = "failed";
+
     protected Client client;
 
     protected final ESLogger logger;
@@ -40,6 +47,18 @@ public abstract class ActionHandler {
 
     public abstract void close();
 
+    public Map<String, Object> getStats() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Returns the status after {@link #execute()} returns: "completed",
+     * "partial" if some targets are not stored, or "failed".
+     */
+    public String getStatus() {
+        return STATUS_COMPLETED;
+    }
+
     protected int getNumOfThreads() {
         return SettingsUtils.get(rootSettings, "num_of_threads", Runtime
                 .getRuntime().availableProcessors());
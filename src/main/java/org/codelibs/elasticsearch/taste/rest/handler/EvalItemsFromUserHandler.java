@@ -144,6 +144,7 @@ public class EvalItemsFromUserHandler extends RecommendationHandler {
             writer.write(rootObj);
         } catch (final TasteException e) {
             logger.error("Evaluator {}({}) is failed.", e, evaluator, config);
+            failure = e;
         } finally {
             if(writer!=null){
                 try {
@@ -253,6 +254,7 @@ public class EvalItemsFromUserHandler extends RecommendationHandler {
                 indexInfo.getReportIndex(), indexInfo.getReportType(),
                 indexInfo.getMaxNumOfWriters());
         writer.setTimestampField(indexInfo.getTimestampField());
+        writer.setBulkSettings(indexInfo.getWriterSettings());
         try (XContentBuilder jsonBuilder = XContentFactory.jsonBuilder()) {
             final XContentBuilder builder = jsonBuilder//
                     .startObject()//
@@ -0,0 +1,97 @@
+package org.codelibs.elasticsearch.taste.rest.handler;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.codelibs.elasticsearch.taste.eval.RecommenderBuilder;
+import org.codelibs.elasticsearch.taste.exception.TasteException;
+import org.codelibs.elasticsearch.taste.model.IndexInfo;
+import org.codelibs.elasticsearch.taste.recommender.FactorizationRecommenderBuilder;
+import org.codelibs.elasticsearch.taste.recommender.svd.FilePersistenceStrategy;
+import org.codelibs.elasticsearch.taste.recommender.svd.NoPersistenceStrategy;
+import org.codelibs.elasticsearch.taste.recommender.svd.PersistenceStrategy;
+import org.codelibs.elasticsearch.taste.service.TasteService;
+import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * Recommends items to users by a matrix factorization. A factorization is
+ * loaded from the file of the persistence settings if it exists and
+ * contains all users, and otherwise it is trained and stored to the file.
+ */
+public class ItemsFromFactorizationHandler extends ItemsFromUserHandler {
+
+    public ItemsFromFactorizationHandler(final Settings settings,
+            final Map<String, Object> sourceMap, final Client client,
+            final ThreadPool pool, final TasteService tasteService) {
+        super(settings, sourceMap, client, pool, tasteService);
+    }
+
+    /**
+     * Each node would train its own random factorization, so partitions are
+     * not supported. A persisted factorization is trained before the updated
+     * preferences, so it is not used by incremental runs.
+     */
+    @Override
+    public void execute() {
+        if (isDistributed()) {
+            throw new TasteException("distributed cannot be used with "
+                    + getActionName() + ".");
+        }
+        if (SettingsUtils.get(rootSettings, "incremental", false)
+                && StringUtils.isNotBlank(SettingsUtils.get(
+                        SettingsUtils.get(rootSettings, "persistence"), "path"))) {
+            throw new TasteException(
+                    "incremental cannot be used with persistence.path.");
+        }
+        super.execute();
+    }
+
+    @Override
+    protected RecommenderBuilder createRecommenderBuilder(
+            final IndexInfo indexInfo) {
+        return new FactorizationRecommenderBuilder(indexInfo, rootSettings,
+                createPersistenceStrategy());
+    }
+
+    /**
+     * A relative path is resolved against the first data path of the node.
+     * The file must be in a data path, which the security manager allows the
+     * plugin to read and write.
+     */
+    protected PersistenceStrategy createPersistenceStrategy() {
+        final Map<String, Object> persistenceSettings = SettingsUtils.get(
+                rootSettings, "persistence");
+        final String path = SettingsUtils.get(persistenceSettings, "path");
+        if (StringUtils.isBlank(path)) {
+            return new NoPersistenceStrategy();
+        }
+        final Path[] dataFiles = new Environment(settings).dataFiles();
+        final Path file = dataFiles[0].resolve(path).toAbsolutePath()
+                .normalize();
+        for (final Path dataFile : dataFiles) {
+            if (file.startsWith(dataFile.toAbsolutePath().normalize())) {
+                return new FilePersistenceStrategy(file.toFile());
+            }
+        }
+        throw new TasteException("persistence.path must be in path.data: "
+                + file);
+    }
+
+    /**
+     * Users of a chunk are scored against the item features as a block.
+     */
+    @Override
+    protected int getChunkSize() {
+        return SettingsUtils.get(rootSettings, "chunk_size", 100);
+    }
+
+    @Override
+    protected String getActionName() {
+        return TasteService.RECOMMENDED_ITEMS_FROM_FACTORIZATION;
+    }
+}
@@ -5,19 +5,23 @@ import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-import org.codelibs.elasticsearch.taste.common.LongPrimitiveArrayIterator;
-import org.codelibs.elasticsearch.taste.common.LongPrimitiveIterator;
 import org.codelibs.elasticsearch.taste.eval.RecommenderBuilder;
 import org.codelibs.elasticsearch.taste.exception.TasteException;
 import org.codelibs.elasticsearch.taste.model.DataModel;
 import org.codelibs.elasticsearch.taste.model.ElasticsearchDataModel;
 import org.codelibs.elasticsearch.taste.model.IndexInfo;
+import org.codelibs.elasticsearch.taste.recommender.GenericItemBasedRecommender;
 import org.codelibs.elasticsearch.taste.recommender.ItemBasedRecommender;
 import org.codelibs.elasticsearch.taste.recommender.ItemBasedRecommenderBuilder;
+import org.codelibs.elasticsearch.taste.recommender.MinHashCandidateItemsStrategy;
+import org.codelibs.elasticsearch.taste.recommender.MostSimilarItemsCandidateItemsStrategy;
 import org.codelibs.elasticsearch.taste.recommender.Recommender;
 import org.codelibs.elasticsearch.taste.service.TasteService;
+import org.codelibs.elasticsearch.taste.similarity.precompute.CooccurrenceItemSimilarities;
 import org.codelibs.elasticsearch.taste.util.ClusterUtils;
 import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+import org.codelibs.elasticsearch.taste.worker.Checkpoint;
+import org.codelibs.elasticsearch.taste.worker.ChunkDispenser;
 import org.codelibs.elasticsearch.taste.worker.SimilarItemsWorker;
 import org.codelibs.elasticsearch.taste.writer.ItemWriter;
 import org.elasticsearch.client.Client;
@@ -25,18 +29,28 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.threadpool.ThreadPool;
-
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import org.elasticsearch.threadpool.ThreadPool.Cancellable;
 
 public class ItemsFromItemHandler extends RecommendationHandler {
 
+    protected volatile MinHashCandidateItemsStrategy candidateItemsStrategy;
+
     public ItemsFromItemHandler(final Settings settings,
             final Map<String, Object> sourceMap, final Client client, final ThreadPool pool,
             final TasteService tasteService) {
         super(settings, sourceMap, client, pool, tasteService);
     }
 
+    @Override
+    public Map<String, Object> getStats() {
+        final Map<String, Object> stats = super.getStats();
+        final MinHashCandidateItemsStrategy strategy = candidateItemsStrategy;
+        if (strategy != null) {
+            stats.put("candidate_items", strategy.getStats());
+        }
+        return stats;
+    }
+
     @Override
     public void execute() {
         final int numOfItems = SettingsUtils.get(rootSettings, "num_of_items",
@@ -58,47 +72,85 @@ public class ItemsFromItemHandler extends RecommendationHandler {
                 indexInfo.getItemIndex(), indexInfo.getPreferenceIndex(),
                 indexInfo.getItemSimilarityIndex());
 
-        final long[] itemIDs = getTargetIDs(indexInfo.getItemIndex(),
-                indexInfo.getItemType(), indexInfo.getItemIdField(), "items");
+        final long[] itemIDs = partitionIDs != null ? partitionIDs
+                : getTargetIDs(indexInfo.getItemIndex(),
+                        indexInfo.getItemType(), indexInfo.getItemIdField(),
+                        "items");
 
         final ItemBasedRecommenderBuilder recommenderBuilder = new ItemBasedRecommenderBuilder(
                 indexInfo, rootSettings);
 
-        final ItemWriter writer = createSimilarItemsWriter(indexInfo,
-                rootSettings);
+        final ItemWriter writer = isDryRun() ? null
+                : createSimilarItemsWriter(indexInfo, rootSettings);
 
-        compute(itemIDs, dataModel, recommenderBuilder, writer, numOfItems,
-                numOfThreads, maxDuration);
+        compute(indexInfo, itemIDs, dataModel, recommenderBuilder, writer,
+                numOfItems, numOfThreads, maxDuration);
     }
 
-    protected void compute(final long[] itemIDs, final DataModel dataModel,
+    protected void compute(final IndexInfo indexInfo,
+            final long[] itemIDs, final DataModel dataModel,
             final RecommenderBuilder recommenderBuilder,
             final ItemWriter writer, final int numOfMostSimilarItems,
             final int degreeOfParallelism, final int maxDuration) {
         Recommender recommender = null;
+        Checkpoint checkpoint = null;
+        Cancellable cancellable = null;
         try {
+            final long[] sortedIDs = itemIDs == null ? getSortedTargetIDs(
+                    dataModel.getItemIDs(), dataModel.getNumItems())
+                    : getSortedTargetIDs(itemIDs);
+            if (isDistributed()) {
+                distribute(TasteService.RECOMMENDED_ITEMS_FROM_ITEM, sortedIDs);
+                return;
+            }
+
             final ExecutorService executorService = Executors
                     .newFixedThreadPool(degreeOfParallelism);
 
             recommender = recommenderBuilder.buildRecommender(dataModel);
 
             logger.info("Recommender: {}", recommender.toString());
+            final MostSimilarItemsCandidateItemsStrategy strategy = ((GenericItemBasedRecommender) recommender)
+                    .getMostSimilarItemsCandidateItemsStrategy();
+            if (strategy instanceof MinHashCandidateItemsStrategy) {
+                candidateItemsStrategy = (MinHashCandidateItemsStrategy) strategy;
+                logger.info("CandidateItemsStrategy: {}", strategy);
+            }
+            final CooccurrenceItemSimilarities cooccurrence = createCooccurrence(
+                    dataModel, recommender);
+            if (cooccurrence != null) {
+                logger.info("Engine: {}", cooccurrence);
+                cooccurrence.checkHeap(degreeOfParallelism);
+            }
             logger.info("NumOfMostSimilarItems: {}", numOfMostSimilarItems);
             logger.info("MaxDuration: {}", maxDuration);
 
-            final LongPrimitiveIterator itemIdIter = itemIDs == null ? dataModel
-                    .getItemIDs() : new LongPrimitiveArrayIterator(itemIDs);
-
+            checkpoint = createCheckpoint(indexInfo,
+                    TasteService.RECOMMENDED_ITEMS_FROM_ITEM, sortedIDs);
+            final long[] remainingIDs = checkpoint == null ? startDryRun(
+                    sortedIDs, degreeOfParallelism) : checkpoint
+                    .getRemainingIDs();
+            final ChunkDispenser dispenser = new ChunkDispenser(remainingIDs,
+                    getChunkSize());
+            progressStats.setTotal(remainingIDs.length);
+            listenWrites(writer, checkpoint);
+            cancellable = scheduleCheckpoint(checkpoint);
+
+            final long timeout = getTargetTimeout();
             for (int n = 0; n < degreeOfParallelism; n++) {
                 final SimilarItemsWorker worker = new SimilarItemsWorker(n,
-                        (ItemBasedRecommender) recommender, itemIdIter,
-                        numOfMostSimilarItems, writer);
+                        (ItemBasedRecommender) recommender, dispenser,
+                        numOfMostSimilarItems, writer, progressStats);
+                worker.setTimeout(timeout);
+                worker.setCooccurrence(cooccurrence);
                 executorService.execute(worker);
             }
 
             waitFor(executorService, maxDuration);
+            finishDryRun(indexInfo, TasteService.RECOMMENDED_ITEMS_FROM_ITEM);
         } catch (final TasteException e) {
             logger.error("Recommender {} is failed.", e, recommender);
+            failure = e;
         } finally {
             if (writer != null) {
                 try {
@@ -107,14 +159,35 @@ public class ItemsFromItemHandler extends RecommendationHandler {
                     // ignore
                 }
             }
+            finishCheckpoint(checkpoint, cancellable);
+            publishWriterIndex();
         }
 
     }
 
+    /**
+     * Creates the co-occurrence engine if similarity.engine is
+     * "cooccurrence".
+     */
+    protected CooccurrenceItemSimilarities createCooccurrence(
+            final DataModel dataModel, final Recommender recommender) {
+        final String engine = SettingsUtils.get(
+                SettingsUtils.get(rootSettings, "similarity"), "engine",
+                "pairwise");
+        if ("pairwise".equals(engine)) {
+            return null;
+        } else if (!"cooccurrence".equals(engine)) {
+            throw new TasteException("Unknown similarity engine: " + engine);
+        }
+        final CooccurrenceItemSimilarities.Metric metric = CooccurrenceItemSimilarities.Metric
+                .of(((GenericItemBasedRecommender) recommender).getSimilarity());
+        return new CooccurrenceItemSimilarities(dataModel, metric);
+    }
+
     protected ItemWriter createSimilarItemsWriter(final IndexInfo indexInfo,
             final Map<String, Object> rootSettings) {
         final ItemWriter writer = new ItemWriter(client,
-                indexInfo.getItemSimilarityIndex(),
+                getWriterIndex(indexInfo.getItemSimilarityIndex()),
                 indexInfo.getItemSimilarityType(), indexInfo.getItemIdField(),
                 indexInfo.getMaxNumOfWriters());
         writer.setTargetIndex(indexInfo.getItemIndex());
@@ -125,6 +198,7 @@ public class ItemsFromItemHandler extends RecommendationHandler {
         writer.setItemsField(indexInfo.getItemsField());
         writer.setValueField(indexInfo.getValueField());
         writer.setTimestampField(indexInfo.getTimestampField());
+        writer.setBulkSettings(indexInfo.getWriterSettings());
         try (XContentBuilder jsonBuilder = XContentFactory.jsonBuilder()) {
             final XContentBuilder builder = jsonBuilder//
                     .startObject()//
@@ -170,11 +244,9 @@ public class ItemsFromItemHandler extends RecommendationHandler {
                     false);
             if (verbose) {
                 writer.setVerbose(verbose);
-                final int maxCacheSize = SettingsUtils.get(writerSettings,
-                        "cache_size", 1000);
-                final Cache<Long, Map<String, Object>> cache = CacheBuilder
-                        .newBuilder().maximumSize(maxCacheSize).build();
-                writer.setCache(cache);
+                writer.setCache(createSourceCache(writerSettings));
+                writer.setBatchSize(SettingsUtils.get(writerSettings,
+                        "batch_size", 100));
             }
 
             writer.open();
@@ -1,32 +1,53 @@
 package org.codelibs.elasticsearch.taste.rest.handler;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-import org.codelibs.elasticsearch.taste.common.LongPrimitiveArrayIterator;
+import org.codelibs.elasticsearch.taste.common.FastIDSet;
 import org.codelibs.elasticsearch.taste.common.LongPrimitiveIterator;
 import org.codelibs.elasticsearch.taste.eval.RecommenderBuilder;
+import org.codelibs.elasticsearch.taste.exception.NoSuchItemException;
 import org.codelibs.elasticsearch.taste.exception.TasteException;
 import org.codelibs.elasticsearch.taste.model.DataModel;
 import org.codelibs.elasticsearch.taste.model.ElasticsearchDataModel;
 import org.codelibs.elasticsearch.taste.model.IndexInfo;
+import org.codelibs.elasticsearch.taste.model.PreferenceArray;
+import org.codelibs.elasticsearch.taste.recommender.ItemNeighborsRecommenderBuilder;
 import org.codelibs.elasticsearch.taste.recommender.Recommender;
 import org.codelibs.elasticsearch.taste.recommender.UserBasedRecommenderBuilder;
 import org.codelibs.elasticsearch.taste.service.TasteService;
+import org.codelibs.elasticsearch.taste.similarity.precompute.ItemNeighbors;
 import org.codelibs.elasticsearch.taste.util.ClusterUtils;
 import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+import org.codelibs.elasticsearch.taste.worker.Checkpoint;
+import org.codelibs.elasticsearch.taste.worker.ChunkDispenser;
 import org.codelibs.elasticsearch.taste.worker.RecommendedItemsWorker;
 import org.codelibs.elasticsearch.taste.writer.ItemWriter;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.IndexNotFoundException;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.sort.SortOrder;
 import org.elasticsearch.threadpool.ThreadPool;
-
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import org.elasticsearch.threadpool.ThreadPool.Cancellable;
 
 public class ItemsFromUserHandler extends RecommendationHandler {
 
@@ -57,25 +78,360 @@ public class ItemsFromUserHandler extends RecommendationHandler {
                 indexInfo.getItemIndex(), indexInfo.getPreferenceIndex(),
                 indexInfo.getRecommendationIndex());
 
-        final long[] userIDs = getTargetIDs(indexInfo.getUserIndex(),
-                indexInfo.getUserType(), indexInfo.getUserIdField(), "users");
+        final long startTime = System.currentTimeMillis();
+        long[] userIDs = partitionIDs != null ? partitionIDs : getTargetIDs(
+                indexInfo.getUserIndex(), indexInfo.getUserType(),
+                indexInfo.getUserIdField(), "users");
+        // the watermark is kept only for runs over all users
+        final boolean allUsers = userIDs == null;
+        final boolean incremental = SettingsUtils.get(rootSettings,
+                "incremental", false);
+        if (allUsers
+                && incremental
+                && !SettingsUtils.get(SettingsUtils.get(rootSettings,
+                        "incremental_settings"), "full_refresh", false)) {
+            userIDs = getIncrementalTargetIDs(indexInfo, dataModel);
+        }
+        if (incremental && partitionIDs == null && !isDryRun()) {
+            deleteOldResults(indexInfo, userIDs);
+        }
+
+        final RecommenderBuilder recommenderBuilder = createRecommenderBuilder(indexInfo);
+
+        final ItemWriter writer = isDryRun() ? null
+                : createRecommendedItemsWriter(indexInfo, rootSettings);
+
+        compute(indexInfo, userIDs, dataModel, recommenderBuilder, writer,
+                numOfItems, numOfThreads, maxDuration);
+
+        // failed users are computed again by the next run
+        if (allUsers && !isDryRun() && progressStats.isCompleted()) {
+            saveWatermark(indexInfo, startTime);
+        }
+    }
+
+    /**
+     * Creates a builder by engine, which is "user_based" or "item_neighbors".
+     * Neighbors of items are loaded from the item_similarity index when a
+     * recommender of "item_neighbors" is built.
+     */
+    protected RecommenderBuilder createRecommenderBuilder(
+            final IndexInfo indexInfo) {
+        final String engine = SettingsUtils.get(rootSettings, "engine",
+                "user_based");
+        if ("user_based".equals(engine)) {
+            return new UserBasedRecommenderBuilder(indexInfo, rootSettings);
+        } else if (!"item_neighbors".equals(engine)) {
+            throw new TasteException("Unknown engine: " + engine);
+        }
+        return new ItemNeighborsRecommenderBuilder(indexInfo, rootSettings,
+                () -> loadItemNeighbors(indexInfo));
+    }
+
+    protected ItemNeighbors loadItemNeighbors(final IndexInfo indexInfo) {
+        ClusterUtils.waitForAvailable(client,
+                indexInfo.getItemSimilarityIndex());
+        final Map<String, Object> neighborsSettings = SettingsUtils.get(
+                rootSettings, "item_neighbors");
+        final Number maxNeighbors = SettingsUtils.get(neighborsSettings,
+                "max_neighbors", 0);
+        final Number size = SettingsUtils.get(neighborsSettings,
+                "scroll_size", 1000);
+        final TimeValue keepAlive = TimeValue.timeValueMinutes(1);
+        final String itemIdField = indexInfo.getItemIdField();
+        final String itemsField = indexInfo.getItemsField();
+        final String valueField = indexInfo.getValueField();
+
+        final long startTime = System.currentTimeMillis();
+        final ItemNeighbors itemNeighbors = new ItemNeighbors(
+                maxNeighbors.intValue());
+        long[] ids = new long[16];
+        float[] values = new float[16];
+        try {
+            SearchResponse response = client
+                    .prepareSearch(indexInfo.getItemSimilarityIndex())
+                    .setTypes(indexInfo.getItemSimilarityType())
+                    .setScroll(keepAlive)
+                    .setQuery(QueryBuilders.matchAllQuery())
+                    // the latest document of an item is added first
+                    .addSort(indexInfo.getTimestampField(), SortOrder.DESC)
+                    .setFetchSource(
+                            new String[] { itemIdField, itemsField }, null)
+                    .setSize(size.intValue()).execute().actionGet();
+            while (response.getHits().getHits().length > 0) {
+                for (final SearchHit hit : response.getHits()) {
+                    final Map<String, Object> source = hit.getSource();
+                    final Number itemID = (Number) source.get(itemIdField);
+                    @SuppressWarnings("unchecked")
+                    final List<Map<String, Object>> items = (List<Map<String, Object>>) source
+                            .get(itemsField);
+                    if (itemID == null || items == null) {
+                        continue;
+                    }
+                    if (items.size() > ids.length) {
+                        ids = new long[items.size()];
+                        values = new float[items.size()];
+                    }
+                    int length = 0;
+                    for (final Map<String, Object> item : items) {
+                        final Number id = (Number) item.get(itemIdField);
+                        final Number value = (Number) item.get(valueField);
+                        if (id != null && value != null) {
+                            ids[length] = id.longValue();
+                            values[length] = value.floatValue();
+                            length++;
+                        }
+                    }
+                    itemNeighbors.add(itemID.longValue(), ids, values, length);
+                }
+                response = client.prepareSearchScroll(response.getScrollId())
+                        .setScroll(keepAlive).execute().actionGet();
+            }
+            client.prepareClearScroll().addScrollId(response.getScrollId())
+                    .execute();
+        } catch (final ElasticsearchException e) {
+            throw new TasteException("Failed to load neighbors of items from "
+                    + indexInfo.getItemSimilarityIndex(), e);
+        }
+        logger.info("{} are loaded in {} ms.", itemNeighbors,
+                System.currentTimeMillis() - startTime);
+        return itemNeighbors;
+    }
+
+    /**
+     * Returns users whose preferences are updated after the last run and
+     * users who have preferences for the updated items.
+     *
+     * @return null if no previous run exists
+     */
+    protected long[] getIncrementalTargetIDs(final IndexInfo indexInfo,
+            final DataModel dataModel) {
+        if (SettingsUtils.get(SettingsUtils.get(rootSettings, "blue_green"),
+                "enabled", false)) {
+            throw new TasteException(
+                    "incremental cannot be used with blue_green.");
+        }
+        final Long watermark = loadWatermark(indexInfo);
+        if (watermark == null) {
+            logger.info("No watermark. All users are computed.");
+            return null;
+        }
+
+        final Map<String, Object> incrementalSettings = SettingsUtils.get(
+                rootSettings, "incremental_settings");
+        final int maxUsersPerItem = SettingsUtils.get(incrementalSettings,
+                "max_users_per_item", 1000);
+        final Number size = SettingsUtils.get(incrementalSettings,
+                "scroll_size", 1000);
+        final TimeValue keepAlive = TimeValue.timeValueMinutes(1);
+
+        final FastIDSet userIDSet = new FastIDSet();
+        final FastIDSet itemIDSet = new FastIDSet();
+        SearchResponse response = client
+                .prepareSearch(indexInfo.getPreferenceIndex())
+                .setTypes(indexInfo.getPreferenceType())
+                .setScroll(keepAlive)
+                .setQuery(
+                        QueryBuilders.rangeQuery(
+                                indexInfo.getTimestampField()).gte(watermark)
+                                .format("epoch_millis"))
+                .addFields(indexInfo.getUserIdField(),
+                        indexInfo.getItemIdField()).setSize(size.intValue())
+                .execute().actionGet();
+        while (response.getHits().getHits().length > 0) {
+            for (final SearchHit hit : response.getHits()) {
+                final SearchHitField userIdField = hit.getFields().get(
+                        indexInfo.getUserIdField());
+                if (userIdField != null) {
+                    userIDSet.add(((Number) userIdField.getValue())
+                            .longValue());
+                }
+                final SearchHitField itemIdField = hit.getFields().get(
+                        indexInfo.getItemIdField());
+                if (itemIdField != null) {
+                    itemIDSet.add(((Number) itemIdField.getValue())
+                            .longValue());
+                }
+            }
+            response = client.prepareSearchScroll(response.getScrollId())
+                    .setScroll(keepAlive).execute().actionGet();
+        }
+        client.prepareClearScroll().addScrollId(response.getScrollId())
+                .execute();
+        final int numOfUpdatedUsers = userIDSet.size();
+
+        // neighborhoods of users who prefer updated items may change
+        int numOfSkippedItems = 0;
+        final LongPrimitiveIterator itemIter = itemIDSet.iterator();
+        while (itemIter.hasNext()) {
+            final long itemID = itemIter.nextLong();
+            try {
+                final PreferenceArray prefs = dataModel
+                        .getPreferencesForItem(itemID);
+                if (prefs.length() > maxUsersPerItem) {
+                    numOfSkippedItems++;
+                    continue;
+                }
+                for (int i = 0; i < prefs.length(); i++) {
+                    userIDSet.add(prefs.getUserID(i));
+                }
+            } catch (final NoSuchItemException e) {
+                // ignore
+            }
+        }
+
+        logger.info(
+                "Incremental targets since {}: {} updated users, {} updated items({} popular items skipped), {} users in total.",
+                new Date(watermark), numOfUpdatedUsers, itemIDSet.size(),
+                numOfSkippedItems, userIDSet.size());
+        return userIDSet.toArray();
+    }
 
-        final UserBasedRecommenderBuilder recommenderBuilder = new UserBasedRecommenderBuilder(
-                indexInfo, rootSettings);
+    /**
+     * Deletes results of the users which are not stored with their user IDs
+     * as document IDs, such as results of a run without "incremental", so
+     * that an incremental run keeps one result per user.
+     *
+     * @param userIDs null for all users
+     */
+    protected void deleteOldResults(final IndexInfo indexInfo,
+            final long[] userIDs) {
+        if (SettingsUtils.get(SettingsUtils.get(rootSettings, "blue_green"),
+                "enabled", false)) {
+            // results are written to a new index
+            return;
+        }
+        final String index = indexInfo.getRecommendationIndex();
+        final String userIdField = indexInfo.getUserIdField();
+        final Number size = SettingsUtils.get(
+                SettingsUtils.get(rootSettings, "incremental_settings"),
+                "scroll_size", 1000);
+        final TimeValue keepAlive = TimeValue.timeValueMinutes(1);
+
+        final List<QueryBuilder> queries = new ArrayList<>();
+        if (userIDs == null) {
+            queries.add(QueryBuilders.matchAllQuery());
+        } else {
+            for (int i = 0; i < userIDs.length; i += size.intValue()) {
+                final int to = Math.min(i + size.intValue(), userIDs.length);
+                queries.add(QueryBuilders.termsQuery(userIdField,
+                        Arrays.copyOfRange(userIDs, i, to)));
+            }
+        }
 
-        final ItemWriter writer = createRecommendedItemsWriter(indexInfo,
-                rootSettings);
+        long numOfDeleted = 0;
+        try {
+            for (final QueryBuilder query : queries) {
+                SearchResponse response = client.prepareSearch(index)
+                        .setTypes(indexInfo.getRecommendationType())
+                        .setScroll(keepAlive).setQuery(query)
+                        .addField(userIdField).setSize(size.intValue())
+                        .execute()
+                        .actionGet();
+                while (response.getHits().getHits().length > 0) {
+                    final BulkRequestBuilder bulkRequest = client
+                            .prepareBulk();
+                    for (final SearchHit hit : response.getHits()) {
+                        final SearchHitField field = hit.getFields().get(
+                                userIdField);
+                        if (field == null
+                                || !hit.getId().equals(
+                                        Long.toString(((Number) field
+                                                .getValue()).longValue()))) {
+                            bulkRequest.add(client.prepareDelete(
+                                    hit.getIndex(), hit.getType(),
+                                    hit.getId()));
+                        }
+                    }
+                    if (bulkRequest.numberOfActions() > 0) {
+                        final BulkResponse bulkResponse = bulkRequest
+                                .execute().actionGet();
+                        if (bulkResponse.hasFailures()) {
+                            throw new TasteException(
+                                    "Failed to delete old results: "
+                                            + bulkResponse
+                                                    .buildFailureMessage());
+                        }
+                        numOfDeleted += bulkRequest.numberOfActions();
+                    }
+                    response = client
+                            .prepareSearchScroll(response.getScrollId())
+                            .setScroll(keepAlive).execute().actionGet();
+                }
+                client.prepareClearScroll()
+                        .addScrollId(response.getScrollId()).execute();
+            }
+        } catch (final IndexNotFoundException e) {
+            // first run
+            return;
+        } catch (final ElasticsearchException e) {
+            throw new TasteException("Failed to delete old results from "
+                    + index, e);
+        }
+        logger.info("Deleted {} old results from {}.", numOfDeleted, index);
+    }
 
-        compute(userIDs, dataModel, recommenderBuilder, writer, numOfItems,
-                numOfThreads, maxDuration);
+    /**
+     * @return the name of this action, which is used for partitions,
+     *          checkpoints and watermarks
+     */
+    protected String getActionName() {
+        return TasteService.RECOMMENDED_ITEMS_FROM_USER;
     }
 
-    protected void compute(final long[] userIDs, final DataModel dataModel,
+    protected String getWatermarkId() {
+        return getActionName() + "-" + configHash
+                + "-watermark";
+    }
+
+    protected Long loadWatermark(final IndexInfo indexInfo) {
+        try {
+            final GetResponse response = client
+                    .prepareGet(indexInfo.getStateIndex(),
+                            indexInfo.getStateType(), getWatermarkId())
+                    .execute().actionGet();
+            if (response.isExists()) {
+                final Number watermark = (Number) response.getSourceAsMap()
+                        .get("watermark");
+                return watermark != null ? watermark.longValue() : null;
+            }
+        } catch (final IndexNotFoundException e) {
+            // first run
+        }
+        return null;
+    }
+
+    protected void saveWatermark(final IndexInfo indexInfo,
+            final long watermark) {
+        final Map<String, Object> source = new HashMap<>();
+        source.put("watermark", watermark);
+        source.put("updated", new Date());
+        try {
+            client.prepareIndex(indexInfo.getStateIndex(),
+                    indexInfo.getStateType(), getWatermarkId())
+                    .setSource(source).execute().actionGet();
+        } catch (final ElasticsearchException e) {
+            logger.warn("Failed to save a watermark.", e);
+        }
+    }
+
+    protected void compute(final IndexInfo indexInfo,
+            final long[] userIDs, final DataModel dataModel,
             final RecommenderBuilder recommenderBuilder,
             final ItemWriter writer, final int numOfRecommendedItems,
             final int degreeOfParallelism, final int maxDuration) {
         Recommender recommender = null;
+        Checkpoint checkpoint = null;
+        Cancellable cancellable = null;
         try {
+            final long[] sortedIDs = userIDs == null ? getSortedTargetIDs(
+                    dataModel.getUserIDs(), dataModel.getNumUsers())
+                    : getSortedTargetIDs(userIDs);
+            if (isDistributed()) {
+                distribute(getActionName(), sortedIDs);
+                return;
+            }
+
             final ExecutorService executorService = Executors
                     .newFixedThreadPool(degreeOfParallelism);
 
@@ -85,19 +441,33 @@ public class ItemsFromUserHandler extends RecommendationHandler {
             logger.info("NumOfRecommendedItems: {}", numOfRecommendedItems);
             logger.info("MaxDuration: {}", maxDuration);
 
-            final LongPrimitiveIterator userIdIter = userIDs == null ? dataModel
-                    .getUserIDs() : new LongPrimitiveArrayIterator(userIDs);
-
+            checkpoint = createCheckpoint(indexInfo, getActionName(),
+                    sortedIDs);
+            final long[] remainingIDs = checkpoint == null ? startDryRun(
+                    sortedIDs, degreeOfParallelism) : checkpoint
+                    .getRemainingIDs();
+            final ChunkDispenser dispenser = new ChunkDispenser(remainingIDs,
+                    getChunkSize());
+            progressStats.setTotal(remainingIDs.length);
+            listenWrites(writer, checkpoint);
+            cancellable = scheduleCheckpoint(checkpoint);
+
+            final long timeout = getTargetTimeout();
+            final long[] fallbackItemIDs = getFallbackItemIDs(indexInfo);
             for (int n = 0; n < degreeOfParallelism; n++) {
                 final RecommendedItemsWorker worker = new RecommendedItemsWorker(
-                        n, recommender, userIdIter, numOfRecommendedItems,
-                        writer);
+                        n, recommender, dispenser, numOfRecommendedItems,
+                        writer, progressStats);
+                worker.setTimeout(timeout);
+                worker.setFallbackItemIDs(fallbackItemIDs);
                 executorService.execute(worker);
             }
 
             waitFor(executorService, maxDuration);
+            finishDryRun(indexInfo, getActionName());
         } catch (final TasteException e) {
             logger.error("Recommender {} is failed.", e, recommender);
+            failure = e;
         } finally {
             if (writer != null) {
                 try {
@@ -106,6 +476,8 @@ public class ItemsFromUserHandler extends RecommendationHandler {
                     // ignore
                 }
             }
+            finishCheckpoint(checkpoint, cancellable);
+            publishWriterIndex();
         }
 
     }
@@ -113,7 +485,7 @@ public class ItemsFromUserHandler extends RecommendationHandler {
     protected ItemWriter createRecommendedItemsWriter(
             final IndexInfo indexInfo, final Map<String, Object> rootSettings) {
         final ItemWriter writer = new ItemWriter(client,
-                indexInfo.getRecommendationIndex(),
+                getWriterIndex(indexInfo.getRecommendationIndex()),
                 indexInfo.getRecommendationType(), indexInfo.getUserIdField(),
                 indexInfo.getMaxNumOfWriters());
         writer.setTargetIndex(indexInfo.getUserIndex());
@@ -124,6 +496,10 @@ public class ItemsFromUserHandler extends RecommendationHandler {
         writer.setItemsField(indexInfo.getItemsField());
         writer.setValueField(indexInfo.getValueField());
         writer.setTimestampField(indexInfo.getTimestampField());
+        writer.setBulkSettings(indexInfo.getWriterSettings());
+        // an incremental run replaces results of the users
+        writer.setOverwrite(SettingsUtils.get(rootSettings, "incremental",
+                false));
         try (XContentBuilder jsonBuilder = XContentFactory.jsonBuilder()) {
             final XContentBuilder builder = jsonBuilder//
                     .startObject()//
@@ -169,11 +545,9 @@ public class ItemsFromUserHandler extends RecommendationHandler {
                     false);
             if (verbose) {
                 writer.setVerbose(verbose);
-                final int maxCacheSize = SettingsUtils.get(writerSettings,
-                        "cache_size", 1000);
-                final Cache<Long, Map<String, Object>> cache = CacheBuilder
-                        .newBuilder().maximumSize(maxCacheSize).build();
-                writer.setCache(cache);
+                writer.setCache(createSourceCache(writerSettings));
+                writer.setBatchSize(SettingsUtils.get(writerSettings,
+                        "batch_size", 100));
             }
 
             writer.open();
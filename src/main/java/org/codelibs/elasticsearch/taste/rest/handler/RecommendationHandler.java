@@ -1,31 +1,75 @@
 package org.codelibs.elasticsearch.taste.rest.handler;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
+import org.codelibs.elasticsearch.taste.common.LongPrimitiveIterator;
 import org.codelibs.elasticsearch.taste.exception.TasteException;
 import org.codelibs.elasticsearch.taste.model.ElasticsearchDataModel;
 import org.codelibs.elasticsearch.taste.model.IndexInfo;
 import org.codelibs.elasticsearch.taste.service.TasteService;
 import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+import org.codelibs.elasticsearch.taste.worker.Checkpoint;
+import org.codelibs.elasticsearch.taste.worker.CostEstimator;
+import org.codelibs.elasticsearch.taste.worker.ProgressStats;
+import org.codelibs.elasticsearch.taste.writer.BlueGreenIndex;
+import org.codelibs.elasticsearch.taste.writer.ObjectWriter;
+import org.codelibs.elasticsearch.taste.writer.WriteListener;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.Scroll;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.threadpool.ThreadPool.Cancellable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 public abstract class RecommendationHandler extends ActionHandler {
 
     protected TasteService tasteService;
 
+    protected final ProgressStats progressStats = new ProgressStats();
+
+    protected volatile ElasticsearchDataModel activeDataModel;
+
+    protected final String configHash;
+
+    protected final Map<String, Map<String, Object>> partitionStatusMap = new ConcurrentHashMap<>();
+
+    protected long[] partitionIDs;
+
+    protected int partition;
+
+    protected int numOfPartitions;
+
+    protected BlueGreenIndex blueGreenIndex;
+
+    protected volatile Throwable failure;
+
+    protected CostEstimator costEstimator;
+
+    protected volatile Map<String, Object> dryRunReport;
+
     public RecommendationHandler(final Settings settings,
             final Map<String, Object> sourceMap, final Client client, final ThreadPool pool,
             final TasteService tasteService) {
         super(settings, sourceMap, client, pool);
         this.tasteService = tasteService;
+        configHash = Checkpoint.createConfigHash(sourceMap);
     }
 
     /* (non-Javadoc)
@@ -34,6 +78,210 @@ public abstract class RecommendationHandler extends ActionHandler {
     @Override
     public abstract void execute();
 
+    @Override
+    public Map<String, Object> getStats() {
+        final Map<String, Object> stats = progressStats.toMap();
+        final ElasticsearchDataModel dataModel = activeDataModel;
+        if (dataModel != null) {
+            stats.put("data_model", dataModel.getStats());
+        }
+        if (!partitionStatusMap.isEmpty()) {
+            stats.put("partitions", partitionStatusMap);
+        }
+        if (dryRunReport != null) {
+            stats.put("dry_run", dryRunReport);
+        }
+        return stats;
+    }
+
+    @Override
+    public String getStatus() {
+        if (failure != null) {
+            return STATUS_FAILED;
+        }
+        if (progressStats.getTotal() < 0 || progressStats.isCompleted()) {
+            return STATUS_COMPLETED;
+        }
+        return progressStats.getProcessed() > 0 ? STATUS_PARTIAL
+                : STATUS_FAILED;
+    }
+
+    public ProgressStats getProgressStats() {
+        return progressStats;
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Restricts targets to the given partition. This handler runs on a node
+     * that receives a partition from a coordinating node.
+     */
+    public void setPartition(final int partition, final int numOfPartitions,
+            final long[] partitionIDs) {
+        this.partition = partition;
+        this.numOfPartitions = numOfPartitions;
+        this.partitionIDs = partitionIDs;
+    }
+
+    protected int getChunkSize() {
+        return SettingsUtils.get(rootSettings, "chunk_size", 10);
+    }
+
+    /**
+     * @return a time budget per target in milliseconds, or 0
+     */
+    protected long getTargetTimeout() {
+        final Map<String, Object> deadlineSettings = SettingsUtils.get(
+                rootSettings, "deadline");
+        final Number timeout = SettingsUtils.get(deadlineSettings, "timeout",
+                0);
+        return timeout.longValue();
+    }
+
+    /**
+     * Returns the most preferred items if deadline.fallback is popular.
+     * They fill results of targets which exceed the time budget.
+     */
+    protected long[] getFallbackItemIDs(final IndexInfo indexInfo) {
+        final Map<String, Object> deadlineSettings = SettingsUtils.get(
+                rootSettings, "deadline");
+        if (getTargetTimeout() <= 0
+                || !"popular".equals(SettingsUtils.get(deadlineSettings,
+                        "fallback", "none"))) {
+            return null;
+        }
+        final int size = SettingsUtils.get(deadlineSettings,
+                "num_of_popular_items", 100);
+        final String name = "popular_items";
+        final SearchResponse response = client
+                .prepareSearch(indexInfo.getPreferenceIndex())
+                .setTypes(indexInfo.getPreferenceType())
+                .setSize(0)
+                .addAggregation(
+                        AggregationBuilders.terms(name)
+                                .field(indexInfo.getItemIdField()).size(size))
+                .execute().actionGet();
+        final Terms terms = response.getAggregations().get(name);
+        final long[] itemIDs = new long[terms.getBuckets().size()];
+        int count = 0;
+        for (final Terms.Bucket bucket : terms.getBuckets()) {
+            itemIDs[count++] = bucket.getKeyAsNumber().longValue();
+        }
+        logger.info("Loaded {} popular items for a fallback.", itemIDs.length);
+        return itemIDs;
+    }
+
+    protected boolean isDryRun() {
+        return SettingsUtils.get(SettingsUtils.get(rootSettings, "dry_run"),
+                "enabled", false);
+    }
+
+    /**
+     * Returns sampled targets if this is a dry run. Results of a dry run are
+     * not written and its cost report is written to the report index.
+     */
+    protected long[] startDryRun(final long[] targetIDs,
+            final int numOfThreads) {
+        if (!isDryRun()) {
+            return targetIDs;
+        }
+        final int sampleSize = SettingsUtils.get(
+                SettingsUtils.get(rootSettings, "dry_run"), "sample_size", 200);
+        costEstimator = new CostEstimator(activeDataModel, targetIDs.length,
+                numOfThreads);
+        final long[] sampleIDs = costEstimator.sample(targetIDs, sampleSize);
+        logger.info("Dry run with {} of {} targets.", sampleIDs.length,
+                targetIDs.length);
+        costEstimator.start();
+        return sampleIDs;
+    }
+
+    protected void finishDryRun(final IndexInfo indexInfo, final String action) {
+        if (costEstimator == null) {
+            return;
+        }
+        final Map<String, Object> report = costEstimator
+                .estimate(progressStats);
+        dryRunReport = report;
+        logger.info("Dry run of {}: {}", action, report);
+
+        final Map<String, Object> source = new HashMap<>();
+        source.put("action", action);
+        source.put("config_hash", configHash);
+        source.put("dry_run", report);
+        source.put(indexInfo.getTimestampField(), new Date());
+        try {
+            client.prepareIndex(indexInfo.getReportIndex(),
+                    indexInfo.getReportType()).setSource(source).execute()
+                    .actionGet();
+        } catch (final ElasticsearchException e) {
+            logger.warn("Failed to write a dry run report of {}.", e, action);
+        }
+    }
+
+    protected boolean isDistributed() {
+        return partitionIDs == null && !isDryRun() && tasteService != null
+                && SettingsUtils.get(rootSettings, "distributed", false);
+    }
+
+    protected void distribute(final String action, final long[] targetIDs) {
+        logger.info("Distribute {} targets of {} to data nodes.",
+                targetIDs.length, action);
+        final Map<String, Object> sourceMap = new HashMap<>(rootSettings);
+        if (blueGreenIndex != null) {
+            // partitions write to the index created by this node
+            final Map<String, Object> blueGreenSettings = new HashMap<>(
+                    SettingsUtils.get(rootSettings, "blue_green"));
+            blueGreenSettings.put("index", blueGreenIndex.getIndex());
+            sourceMap.put("blue_green", blueGreenSettings);
+        }
+        tasteService.distribute(action, sourceMap, targetIDs, progressStats,
+                partitionStatusMap);
+    }
+
+    /**
+     * Returns an index for writing results. If blue_green.enabled is true,
+     * the given index is used as an alias and results are written to a new
+     * index.
+     */
+    protected String getWriterIndex(final String index) {
+        final Map<String, Object> blueGreenSettings = SettingsUtils.get(
+                rootSettings, "blue_green");
+        if (!SettingsUtils.get(blueGreenSettings, "enabled", false)) {
+            return index;
+        }
+        blueGreenIndex = new BlueGreenIndex(client, index, blueGreenSettings);
+        final String partitionIndex = SettingsUtils.get(blueGreenSettings,
+                "index");
+        if (partitionIndex != null) {
+            blueGreenIndex.setIndex(partitionIndex);
+            return partitionIndex;
+        }
+        return blueGreenIndex.create(SettingsUtils.get(rootSettings,
+                "resume", false));
+    }
+
+    protected void publishWriterIndex() {
+        if (blueGreenIndex == null || partitionIDs != null) {
+            return;
+        }
+        if (!progressStats.isCompleted()) {
+            logger.info(
+                    "{} is not switched to {} because {} targets remain and {} targets failed.",
+                    blueGreenIndex.getAlias(), blueGreenIndex.getIndex(),
+                    progressStats.getRemaining(), progressStats.getFailed());
+            return;
+        }
+        try {
+            blueGreenIndex.publish();
+        } catch (final Exception e) {
+            logger.error("Failed to switch {} to {}.", e,
+                    blueGreenIndex.getAlias(), blueGreenIndex.getIndex());
+        }
+    }
+
     protected ElasticsearchDataModel createDataModel(final Client client,
             final IndexInfo indexInfo,
             final Map<String, Object> modelInfoSettings) {
@@ -107,6 +355,7 @@ public abstract class RecommendationHandler extends ActionHandler {
                 }
             }
 
+            activeDataModel = model;
             return model;
         } catch (ClassNotFoundException | InstantiationException
                 | IllegalAccessException e) {
@@ -115,6 +364,149 @@ public abstract class RecommendationHandler extends ActionHandler {
         }
     }
 
+    protected long[] getSortedTargetIDs(final long[] targetIDs) {
+        final long[] ids = Arrays.copyOf(targetIDs, targetIDs.length);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    protected long[] getSortedTargetIDs(final LongPrimitiveIterator idIter,
+            final int size) {
+        final long[] ids = new long[size];
+        int count = 0;
+        while (idIter.hasNext() && count < size) {
+            ids[count++] = idIter.nextLong();
+        }
+        Arrays.sort(ids, 0, count);
+        return count == size ? ids : Arrays.copyOf(ids, count);
+    }
+
+    protected Checkpoint createCheckpoint(final IndexInfo indexInfo,
+            final String action, final long[] targetIDs) {
+        final Map<String, Object> checkpointSettings = SettingsUtils.get(
+                rootSettings, "checkpoint");
+        final boolean enabled = SettingsUtils.get(checkpointSettings,
+                "enabled", true);
+        if (!enabled || isDryRun()) {
+            return null;
+        }
+        String id = SettingsUtils.get(checkpointSettings, "id", action + "-"
+                + configHash);
+        if (partitionIDs != null) {
+            id = id + "-" + partition + "-" + numOfPartitions;
+        }
+        final Checkpoint checkpoint = new Checkpoint(client,
+                indexInfo.getStateIndex(), indexInfo.getStateType(), id,
+                configHash, targetIDs);
+        final boolean resume = SettingsUtils.get(rootSettings, "resume",
+                false);
+        if (resume && checkpoint.load()) {
+            logger.info("Resume {}: {}/{} targets are completed.", id,
+                    checkpoint.getNumOfCompleted(), targetIDs.length);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Marks a target done in the checkpoint when its result is stored by a
+     * bulk request, not when it is queued to the writer, so that a resumed
+     * action computes targets whose results were lost. A target whose result
+     * is lost is counted as failed.
+     */
+    protected void listenWrites(final ObjectWriter writer,
+            final Checkpoint checkpoint) {
+        if (writer == null) {
+            return;
+        }
+        writer.setWriteListener(new WriteListener() {
+            @Override
+            public void onWritten(final long targetID) {
+                if (checkpoint != null) {
+                    checkpoint.markDone(targetID);
+                }
+            }
+
+            @Override
+            public void onFailure(final long targetID) {
+                // computed again when the action is resumed
+                progressStats.writeFailure();
+            }
+        });
+    }
+
+    protected Cancellable scheduleCheckpoint(final Checkpoint checkpoint) {
+        if (checkpoint == null) {
+            return null;
+        }
+        final Map<String, Object> checkpointSettings = SettingsUtils.get(
+                rootSettings, "checkpoint");
+        final Number interval = SettingsUtils.get(checkpointSettings,
+                "interval", 60);
+        checkpoint.save(Checkpoint.STATUS_RUNNING);
+        return pool.scheduleWithFixedDelay(
+                () -> checkpoint.save(Checkpoint.STATUS_RUNNING),
+                TimeValue.timeValueSeconds(interval.longValue()),
+                ThreadPool.Names.GENERIC);
+    }
+
+    protected void finishCheckpoint(final Checkpoint checkpoint,
+            final Cancellable cancellable) {
+        if (cancellable != null) {
+            cancellable.cancel();
+        }
+        if (checkpoint != null) {
+            if (checkpoint.getNumOfCompleted() == checkpoint.getTargetIDs().length) {
+                checkpoint.save(Checkpoint.STATUS_COMPLETED);
+            } else {
+                checkpoint.save(Checkpoint.STATUS_STOPPED);
+            }
+        }
+    }
+
+    /**
+     * Creates a cache for sources of users or items, which is shared by
+     * workers. The cache is limited by cache_size if specified, otherwise
+     * by the estimated size of sources(cache_weight).
+     */
+    protected Cache<Long, Map<String, Object>> createSourceCache(
+            final Map<String, Object> writerSettings) {
+        final Number maxCacheSize = SettingsUtils.get(writerSettings,
+                "cache_size");
+        if (maxCacheSize != null) {
+            return CacheBuilder.newBuilder()
+                    .maximumSize(maxCacheSize.longValue()).build();
+        }
+        final ByteSizeValue maxCacheWeight = ByteSizeValue
+                .parseBytesSizeValue(SettingsUtils.get(writerSettings,
+                        "cache_weight", "64mb"), "cache_weight");
+        return CacheBuilder
+                .newBuilder()
+                .maximumWeight(maxCacheWeight.bytes())
+                .<Long, Map<String, Object>> weigher(
+                        (key, value) -> (int) Math.min(Integer.MAX_VALUE,
+                                estimateSize(value))).build();
+    }
+
+    protected static long estimateSize(final Object value) {
+        if (value instanceof String) {
+            return 40 + ((String) value).length() * 2L;
+        } else if (value instanceof Map) {
+            long size = 48;
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += 32 + estimateSize(entry.getKey())
+                        + estimateSize(entry.getValue());
+            }
+            return size;
+        } else if (value instanceof Collection) {
+            long size = 40;
+            for (final Object obj : (Collection<?>) value) {
+                size += 8 + estimateSize(obj);
+            }
+            return size;
+        }
+        return 16;
+    }
+
     protected void waitFor(final ExecutorService executorService,
             final int maxDuration) {
         executorService.shutdown();
@@ -5,8 +5,6 @@ import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-import org.codelibs.elasticsearch.taste.common.LongPrimitiveArrayIterator;
-import org.codelibs.elasticsearch.taste.common.LongPrimitiveIterator;
 import org.codelibs.elasticsearch.taste.eval.RecommenderBuilder;
 import org.codelibs.elasticsearch.taste.exception.TasteException;
 import org.codelibs.elasticsearch.taste.model.ElasticsearchDataModel;
@@ -17,6 +15,8 @@ import org.codelibs.elasticsearch.taste.recommender.UserBasedRecommenderBuilder;
 import org.codelibs.elasticsearch.taste.service.TasteService;
 import org.codelibs.elasticsearch.taste.util.ClusterUtils;
 import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+import org.codelibs.elasticsearch.taste.worker.Checkpoint;
+import org.codelibs.elasticsearch.taste.worker.ChunkDispenser;
 import org.codelibs.elasticsearch.taste.worker.SimilarUsersWorker;
 import org.codelibs.elasticsearch.taste.writer.UserWriter;
 import org.elasticsearch.client.Client;
@@ -24,9 +24,7 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.threadpool.ThreadPool;
-
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import org.elasticsearch.threadpool.ThreadPool.Cancellable;
 
 public class SimilarUsersHandler extends RecommendationHandler {
 
@@ -57,26 +55,39 @@ public class SimilarUsersHandler extends RecommendationHandler {
                 indexInfo.getItemIndex(), indexInfo.getPreferenceIndex(),
                 indexInfo.getUserSimilarityIndex());
 
-        final long[] userIDs = getTargetIDs(indexInfo.getUserIndex(),
-                indexInfo.getUserType(), indexInfo.getUserIdField(), "users");
+        final long[] userIDs = partitionIDs != null ? partitionIDs
+                : getTargetIDs(indexInfo.getUserIndex(),
+                        indexInfo.getUserType(), indexInfo.getUserIdField(),
+                        "users");
 
         final UserBasedRecommenderBuilder recommenderBuilder = new UserBasedRecommenderBuilder(
                 indexInfo, rootSettings);
 
-        final UserWriter writer = createSimilarUsersWriter(indexInfo,
-                rootSettings);
+        final UserWriter writer = isDryRun() ? null
+                : createSimilarUsersWriter(indexInfo, rootSettings);
 
-        compute(userIDs, dataModel, recommenderBuilder, writer, numOfUsers,
-                numOfThreads, maxDuration);
+        compute(indexInfo, userIDs, dataModel, recommenderBuilder, writer,
+                numOfUsers, numOfThreads, maxDuration);
     }
 
-    protected void compute(final long[] userIDs,
+    protected void compute(final IndexInfo indexInfo,
+            final long[] userIDs,
             final ElasticsearchDataModel dataModel,
             final RecommenderBuilder recommenderBuilder,
             final UserWriter writer, final int numOfUsers,
             final int degreeOfParallelism, final int maxDuration) {
         Recommender recommender = null;
+        Checkpoint checkpoint = null;
+        Cancellable cancellable = null;
         try {
+            final long[] sortedIDs = userIDs == null ? getSortedTargetIDs(
+                    dataModel.getUserIDs(), dataModel.getNumUsers())
+                    : getSortedTargetIDs(userIDs);
+            if (isDistributed()) {
+                distribute(TasteService.SIMILAR_USERS, sortedIDs);
+                return;
+            }
+
             final ExecutorService executorService = Executors
                     .newFixedThreadPool(degreeOfParallelism);
 
@@ -86,19 +97,31 @@ public class SimilarUsersHandler extends RecommendationHandler {
             logger.info("NumOfSimilarUsers: {}", numOfUsers);
             logger.info("MaxDuration: {}", maxDuration);
 
-            final LongPrimitiveIterator userIdIter = userIDs == null ? dataModel
-                    .getUserIDs() : new LongPrimitiveArrayIterator(userIDs);
-
+            checkpoint = createCheckpoint(indexInfo,
+                    TasteService.SIMILAR_USERS, sortedIDs);
+            final long[] remainingIDs = checkpoint == null ? startDryRun(
+                    sortedIDs, degreeOfParallelism) : checkpoint
+                    .getRemainingIDs();
+            final ChunkDispenser dispenser = new ChunkDispenser(remainingIDs,
+                    getChunkSize());
+            progressStats.setTotal(remainingIDs.length);
+            listenWrites(writer, checkpoint);
+            cancellable = scheduleCheckpoint(checkpoint);
+
+            final long timeout = getTargetTimeout();
             for (int n = 0; n < degreeOfParallelism; n++) {
                 final SimilarUsersWorker worker = new SimilarUsersWorker(n,
-                        (UserBasedRecommender) recommender, userIdIter,
-                        numOfUsers, writer);
+                        (UserBasedRecommender) recommender, dispenser,
+                        numOfUsers, writer, progressStats);
+                worker.setTimeout(timeout);
                 executorService.execute(worker);
             }
 
             waitFor(executorService, maxDuration);
+            finishDryRun(indexInfo, TasteService.SIMILAR_USERS);
         } catch (final TasteException e) {
             logger.error("Recommender {} is failed.", e, recommender);
+            failure = e;
         } finally {
             if (writer != null) {
                 try {
@@ -107,6 +130,8 @@ public class SimilarUsersHandler extends RecommendationHandler {
                     // ignore
                 }
             }
+            finishCheckpoint(checkpoint, cancellable);
+            publishWriterIndex();
         }
 
     }
@@ -114,13 +139,14 @@ public class SimilarUsersHandler extends RecommendationHandler {
     protected UserWriter createSimilarUsersWriter(final IndexInfo indexInfo,
             final Map<String, Object> rootSettings) {
         final UserWriter writer = new UserWriter(client,
-                indexInfo.getUserSimilarityIndex(),
+                getWriterIndex(indexInfo.getUserSimilarityIndex()),
                 indexInfo.getUserSimilarityType(), indexInfo.getUserIdField(),
                 indexInfo.getMaxNumOfWriters());
         writer.setUserIdField(indexInfo.getUserIdField());
         writer.setUsersField(indexInfo.getUsersField());
         writer.setValueField(indexInfo.getValueField());
         writer.setTimestampField(indexInfo.getTimestampField());
+        writer.setBulkSettings(indexInfo.getWriterSettings());
         try (XContentBuilder jsonBuilder = XContentFactory.jsonBuilder()) {
             final XContentBuilder builder = jsonBuilder//
                     .startObject()//
@@ -166,11 +192,7 @@ public class SimilarUsersHandler extends RecommendationHandler {
                     false);
             if (verbose) {
                 writer.setVerbose(verbose);
-                final int maxCacheSize = SettingsUtils.get(writerSettings,
-                        "cache_size", 1000);
-                final Cache<Long, Map<String, Object>> cache = CacheBuilder
-                        .newBuilder().maximumSize(maxCacheSize).build();
-                writer.setCache(cache);
+                writer.setCache(createSourceCache(writerSettings));
             }
 
             writer.open();
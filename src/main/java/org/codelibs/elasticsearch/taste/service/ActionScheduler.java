@@ -0,0 +1,416 @@
+package org.codelibs.elasticsearch.taste.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codelibs.elasticsearch.taste.TasteConstants;
+import org.codelibs.elasticsearch.taste.exception.TasteException;
+import org.codelibs.elasticsearch.taste.rest.handler.ActionHandler;
+import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.FutureUtils;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.IndexNotFoundException;
+import org.elasticsearch.index.engine.DocumentAlreadyExistsException;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.threadpool.ThreadPool.Cancellable;
+
+/**
+ * Runs actions stored as schedules in the taste index. Every node polls
+ * the schedules, and a node runs a due schedule only if it acquires the
+ * lease document of the schedule, so each run happens on one node. The
+ * lease is renewed while the action is running and expires if the node
+ * leaves the cluster.
+ */
+public class ActionScheduler {
+    private static final ESLogger logger = Loggers
+            .getLogger(ActionScheduler.class);
+
+    private static final List<String> ACTIONS = Arrays.asList(
+            TasteService.RECOMMENDED_ITEMS_FROM_USER,
+            TasteService.RECOMMENDED_ITEMS_FROM_FACTORIZATION,
+            TasteService.RECOMMENDED_ITEMS_FROM_ITEM,
+            TasteService.SIMILAR_USERS,
+            TasteService.EVALUATE_ITEMS_FROM_USER,
+            TasteService.GENERATE_TERM_VALUES);
+
+    private final Client client;
+
+    private final ThreadPool pool;
+
+    private final ClusterService clusterService;
+
+    private final TasteService tasteService;
+
+    private final boolean enabled;
+
+    private final String index;
+
+    private final TimeValue pollInterval;
+
+    private final TimeValue leaseDuration;
+
+    private final Map<String, String> runningMap = new ConcurrentHashMap<>();
+
+    private volatile ScheduledFuture<?> future;
+
+    private volatile boolean closed;
+
+    public ActionScheduler(final Settings settings, final Client client,
+            final ThreadPool pool, final ClusterService clusterService,
+            final TasteService tasteService) {
+        this.client = client;
+        this.pool = pool;
+        this.clusterService = clusterService;
+        this.tasteService = tasteService;
+        enabled = settings.getAsBoolean("taste.schedule.enabled", true);
+        index = settings.get("taste.schedule.index", ".taste");
+        pollInterval = settings.getAsTime("taste.schedule.poll_interval",
+                TimeValue.timeValueMinutes(1));
+        leaseDuration = settings.getAsTime("taste.schedule.lease_duration",
+                TimeValue.timeValueMinutes(5));
+    }
+
+    public void start() {
+        if (enabled) {
+            closed = false;
+            future = pool.schedule(pollInterval, ThreadPool.Names.GENERIC,
+                    this::poll);
+        }
+    }
+
+    public void close() {
+        closed = true;
+        FutureUtils.cancel(future);
+    }
+
+    /**
+     * Stores a schedule. A schedule has an action, an interval and a source
+     * of the action, and optionally full_refresh with its interval and
+     * settings merged into the source.
+     */
+    public void put(final String id, final Map<String, Object> schedule) {
+        final String action = SettingsUtils.get(schedule, "action");
+        if (!ACTIONS.contains(action)) {
+            throw new TasteException("Unknown action: " + action);
+        }
+        getInterval(schedule);
+        getInterval(SettingsUtils.get(schedule, "full_refresh"));
+        if (SettingsUtils.get(schedule, "source") == null) {
+            throw new TasteException("source is not found in " + id);
+        }
+
+        createIndex();
+        final Map<String, Object> source = new HashMap<>(schedule);
+        source.putIfAbsent("enabled", true);
+        source.put("updated", new Date());
+        client.prepareIndex(index, TasteConstants.SCHEDULE_TYPE, id)
+                .setSource(source).setRefresh(true).execute().actionGet();
+    }
+
+    public boolean delete(final String id) {
+        try {
+            client.prepareDelete(index, TasteConstants.LEASE_TYPE, id)
+                    .execute().actionGet();
+            return client
+                    .prepareDelete(index, TasteConstants.SCHEDULE_TYPE, id)
+                    .setRefresh(true).execute().actionGet().isFound();
+        } catch (final IndexNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns schedules with the state of their last runs.
+     */
+    public List<Map<String, Object>> get(final String id) {
+        final List<Map<String, Object>> schedules = new ArrayList<>();
+        final SearchRequestBuilder builder = client.prepareSearch(index)
+                .setTypes(TasteConstants.SCHEDULE_TYPE).setSize(1000);
+        if (id != null) {
+            builder.setQuery(QueryBuilders.idsQuery().ids(id));
+        }
+        final SearchResponse response;
+        try {
+            response = builder.execute().actionGet();
+        } catch (final IndexNotFoundException e) {
+            return schedules;
+        }
+        for (final SearchHit hit : response.getHits()) {
+            final Map<String, Object> schedule = new LinkedHashMap<>();
+            schedule.put("id", hit.getId());
+            schedule.putAll(hit.getSource());
+            final GetResponse lease = client
+                    .prepareGet(index, TasteConstants.LEASE_TYPE, hit.getId())
+                    .execute().actionGet();
+            if (lease.isExists()) {
+                schedule.put("state", lease.getSourceAsMap());
+            }
+            schedules.add(schedule);
+        }
+        return schedules;
+    }
+
+    protected void poll() {
+        try {
+            final SearchResponse response;
+            try {
+                response = client.prepareSearch(index)
+                        .setTypes(TasteConstants.SCHEDULE_TYPE).setSize(1000)
+                        .execute().actionGet();
+            } catch (final IndexNotFoundException e) {
+                return;
+            }
+            for (final SearchHit hit : response.getHits()) {
+                if (closed) {
+                    return;
+                }
+                final Map<String, Object> schedule = hit.getSource();
+                if (!runningMap.containsKey(hit.getId())
+                        && SettingsUtils.get(schedule, "enabled", true)) {
+                    try {
+                        runIfDue(hit.getId(), schedule);
+                    } catch (final Exception e) {
+                        logger.warn("Failed to run a schedule {}.", e,
+                                hit.getId());
+                    }
+                }
+            }
+        } catch (final Exception e) {
+            logger.warn("Failed to poll schedules.", e);
+        } finally {
+            if (!closed) {
+                future = pool.schedule(pollInterval,
+                        ThreadPool.Names.GENERIC, this::poll);
+            }
+        }
+    }
+
+    protected void runIfDue(final String id, final Map<String, Object> schedule) {
+        final long now = System.currentTimeMillis();
+        final GetResponse response = client
+                .prepareGet(index, TasteConstants.LEASE_TYPE, id).execute()
+                .actionGet();
+        final Map<String, Object> state = response.isExists() ? response
+                .getSourceAsMap() : new HashMap<>();
+        if (now < getTime(state, "last_run") + getInterval(schedule)
+                || now < getTime(state, "expires")) {
+            return;
+        }
+
+        final Map<String, Object> fullRefresh = SettingsUtils.get(schedule,
+                "full_refresh");
+        final boolean full = fullRefresh != null
+                && now >= getTime(state, "last_full_run")
+                        + getInterval(fullRefresh);
+
+        final String nodeId = clusterService.localNode().getId();
+        state.put("owner", nodeId);
+        state.put("expires", now + leaseDuration.millis());
+        final AtomicLong version = new AtomicLong();
+        try {
+            version.set(writeState(id, state, response.isExists() ? response
+                    .getVersion() : -1));
+        } catch (final ElasticsearchException e) {
+            if (isConflict(e)) {
+                logger.debug("Schedule {} is taken by another node.", id);
+                return;
+            }
+            throw e;
+        }
+
+        final String action = SettingsUtils.get(schedule, "action");
+        final Map<String, Object> source = new HashMap<>(
+                SettingsUtils.<Map<String, Object>, Object> get(schedule,
+                        "source"));
+        if (full) {
+            final Map<String, Object> fullSource = SettingsUtils.get(
+                    fullRefresh, "source");
+            if (fullSource != null) {
+                source.putAll(fullSource);
+            }
+            if (SettingsUtils.get(source, "incremental", false)) {
+                // all users are computed and their results are replaced
+                final Map<String, Object> incrementalSettings = new HashMap<>();
+                final Map<String, Object> settings = SettingsUtils.get(
+                        source, "incremental_settings");
+                if (settings != null) {
+                    incrementalSettings.putAll(settings);
+                }
+                incrementalSettings.put("full_refresh", true);
+                source.put("incremental_settings", incrementalSettings);
+            }
+        }
+
+        final ActionHandler handler = tasteService.createActionHandler(
+                action, source);
+        runningMap.put(id, nodeId);
+        final String[] name = new String[1];
+        final Cancellable renewal = pool.scheduleWithFixedDelay(() -> {
+            synchronized (state) {
+                if (!runningMap.containsKey(id)) {
+                    return;
+                }
+                state.put("expires", System.currentTimeMillis()
+                        + leaseDuration.millis());
+                try {
+                    version.set(writeState(id, state, version.get()));
+                } catch (final ElasticsearchException e) {
+                    logger.warn("Failed to renew the lease of {}.", e, id);
+                    if (isConflict(e) && name[0] != null) {
+                        tasteService.stopAction(name[0]);
+                    }
+                }
+            }
+        }, TimeValue.timeValueMillis(leaseDuration.millis() / 3),
+                ThreadPool.Names.GENERIC);
+
+        try {
+            name[0] = tasteService.startAction(handler,
+                    new ActionListener<String>() {
+                        @Override
+                        public void onResponse(final String actionName) {
+                            finish(id, state, version, renewal, now, full,
+                                    actionName, handler.getStatus());
+                        }
+
+                        @Override
+                        public void onFailure(final Throwable e) {
+                            finish(id, state, version, renewal, now, full,
+                                    name[0], ActionHandler.STATUS_FAILED);
+                        }
+                    });
+        } catch (final RuntimeException e) {
+            finish(id, state, version, renewal, now, full, null,
+                    ActionHandler.STATUS_FAILED);
+            throw e;
+        }
+        logger.info("Started {} for a schedule {}{}.", name[0], id,
+                full ? " (full refresh)" : "");
+    }
+
+    private void finish(final String id, final Map<String, Object> state,
+            final AtomicLong version, final Cancellable renewal,
+            final long startTime, final boolean full, final String name,
+            final String status) {
+        renewal.cancel();
+        synchronized (state) {
+            state.remove("owner");
+            state.put("expires", 0L);
+            state.put("last_run", startTime);
+            if (full) {
+                state.put("last_full_run", startTime);
+            }
+            state.put("last_status", status);
+            if (name != null) {
+                state.put("name", name);
+            }
+            try {
+                writeState(id, state, version.get());
+            } catch (final ElasticsearchException e) {
+                logger.warn("Failed to release the lease of {}.", e, id);
+            } finally {
+                runningMap.remove(id);
+            }
+        }
+        logger.info("Schedule {} is {}: {}", id, status, name);
+    }
+
+    /**
+     * Writes the lease document if its version is not changed.
+     *
+     * @param version -1 if the document does not exist
+     * @return a new version
+     */
+    private long writeState(final String id, final Map<String, Object> state,
+            final long version) {
+        final IndexRequestBuilder builder = client.prepareIndex(index,
+                TasteConstants.LEASE_TYPE, id).setSource(state);
+        if (version < 0) {
+            builder.setCreate(true);
+        } else {
+            builder.setVersion(version);
+        }
+        return builder.execute().actionGet().getVersion();
+    }
+
+    private void createIndex() {
+        if (client.admin().indices().prepareExists(index).execute()
+                .actionGet().isExists()) {
+            return;
+        }
+        try (XContentBuilder builder = XContentFactory.jsonBuilder()) {
+            // sources of actions are stored but not indexed
+            builder.startObject()//
+                    .startObject(TasteConstants.SCHEDULE_TYPE)//
+                    .startObject("properties")//
+                    .startObject("source")//
+                    .field("type", "object")//
+                    .field("enabled", false)//
+                    .endObject()//
+                    .startObject("full_refresh")//
+                    .field("type", "object")//
+                    .field("enabled", false)//
+                    .endObject()//
+                    .endObject()//
+                    .endObject()//
+                    .endObject();
+            client.admin().indices().prepareCreate(index)
+                    .addMapping(TasteConstants.SCHEDULE_TYPE, builder)
+                    .execute().actionGet();
+        } catch (final IOException e) {
+            throw new TasteException("Failed to create " + index, e);
+        } catch (final ElasticsearchException e) {
+            // created by another request
+            logger.debug("Failed to create {}.", e, index);
+        }
+    }
+
+    private static long getInterval(final Map<String, Object> settings) {
+        if (settings == null) {
+            return 0;
+        }
+        final String interval = SettingsUtils.get(settings, "interval");
+        if (interval == null) {
+            throw new TasteException("interval is not found in " + settings);
+        }
+        return TimeValue.parseTimeValue(interval, null, "interval").millis();
+    }
+
+    private static long getTime(final Map<String, Object> state,
+            final String key) {
+        final Number value = SettingsUtils.get(state, key, 0L);
+        return value.longValue();
+    }
+
+    private static boolean isConflict(final Throwable t) {
+        final Throwable cause = ExceptionsHelper.unwrapCause(t);
+        return cause instanceof VersionConflictEngineException
+                || cause instanceof DocumentAlreadyExistsException;
+    }
+}
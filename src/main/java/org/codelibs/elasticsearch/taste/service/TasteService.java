@@ -1,27 +1,646 @@
 package org.codelibs.elasticsearch.taste.service;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.codelibs.elasticsearch.taste.exception.TasteException;
+import org.codelibs.elasticsearch.taste.rest.handler.ActionHandler;
+import org.codelibs.elasticsearch.taste.rest.handler.EvalItemsFromUserHandler;
+import org.codelibs.elasticsearch.taste.rest.handler.GenTermValuesHandler;
+import org.codelibs.elasticsearch.taste.rest.handler.ItemsFromFactorizationHandler;
+import org.codelibs.elasticsearch.taste.rest.handler.ItemsFromItemHandler;
+import org.codelibs.elasticsearch.taste.rest.handler.ItemsFromUserHandler;
+import org.codelibs.elasticsearch.taste.rest.handler.RecommendationHandler;
+import org.codelibs.elasticsearch.taste.rest.handler.SimilarUsersHandler;
+import org.codelibs.elasticsearch.taste.transport.CancelPartitionRequest;
+import org.codelibs.elasticsearch.taste.transport.PartitionRequest;
+import org.codelibs.elasticsearch.taste.transport.PartitionResponse;
+import org.codelibs.elasticsearch.taste.transport.PartitionStatsRequest;
+import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+import org.codelibs.elasticsearch.taste.worker.ProgressStats;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.component.AbstractLifecycleComponent;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.search.lookup.SourceLookup;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.threadpool.ThreadPool.Cancellable;
+import org.elasticsearch.transport.TransportChannel;
+import org.elasticsearch.transport.TransportException;
+import org.elasticsearch.transport.TransportRequestHandler;
+import org.elasticsearch.transport.TransportResponse;
+import org.elasticsearch.transport.TransportResponseHandler;
+import org.elasticsearch.transport.TransportService;
 
 public class TasteService extends AbstractLifecycleComponent<TasteService> {
 
+    public static final String GENERATE_TERM_VALUES = "generate_term_values";
+
+    public static final String EVALUATE_ITEMS_FROM_USER = "evaluate_items_from_user";
+
+    public static final String RECOMMENDED_ITEMS_FROM_ITEM = "recommended_items_from_item";
+
+    public static final String RECOMMENDED_ITEMS_FROM_USER = "recommended_items_from_user";
+
+    public static final String RECOMMENDED_ITEMS_FROM_FACTORIZATION = "recommended_items_from_factorization";
+
+    public static final String SIMILAR_USERS = "similar_users";
+
+    public static final String PARTITION_ACTION = "internal:taste/action/partition";
+
+    public static final String CANCEL_PARTITION_ACTION = "internal:taste/action/partition/cancel";
+
+    public static final String PARTITION_STATS_ACTION = "internal:taste/action/partition/stats";
+
+    private static final TimeValue PARTITION_STATS_INTERVAL = TimeValue
+            .timeValueSeconds(5);
+
+    private static final String THREAD_NAME_PREFIX = "Taste-";
+
+    private final Client client;
+
+    private final ThreadPool pool;
+
+    private final ClusterService clusterService;
+
+    private final TransportService transportService;
+
+    private final Map<String, Thread> partitionThreadMap = new ConcurrentHashMap<>();
+
+    private final Map<String, RecommendationHandler> partitionHandlerMap = new ConcurrentHashMap<>();
+
+    private final Map<String, Thread> handlerMap = new ConcurrentHashMap<>();
+
+    private final Map<String, ActionHandler> actionHandlerMap = new ConcurrentHashMap<>();
+
+    private final ActionScheduler scheduler;
+
     @Inject
-    public TasteService(final Settings settings) {
+    public TasteService(final Settings settings, final Client client,
+            final ThreadPool pool, final ClusterService clusterService,
+            final TransportService transportService) {
         super(settings);
+        this.client = client;
+        this.pool = pool;
+        this.clusterService = clusterService;
+        this.transportService = transportService;
+        scheduler = new ActionScheduler(settings, client, pool,
+                clusterService, this);
+
+        transportService.registerRequestHandler(PARTITION_ACTION,
+                PartitionRequest.class, ThreadPool.Names.GENERIC,
+                new PartitionRequestHandler());
+        transportService.registerRequestHandler(PARTITION_STATS_ACTION,
+                PartitionStatsRequest.class, ThreadPool.Names.SAME,
+                new PartitionStatsRequestHandler());
+        transportService.registerRequestHandler(CANCEL_PARTITION_ACTION,
+                CancelPartitionRequest.class, ThreadPool.Names.SAME,
+                new CancelPartitionRequestHandler());
     }
 
     @Override
     protected void doStart() throws ElasticsearchException {
+        scheduler.start();
     }
 
     @Override
     protected void doStop() throws ElasticsearchException {
+        scheduler.close();
     }
 
     @Override
     protected void doClose() throws ElasticsearchException {
+        scheduler.close();
+        for (final Thread thread : partitionThreadMap.values()) {
+            thread.interrupt();
+        }
+        for (final Thread thread : handlerMap.values()) {
+            thread.interrupt();
+        }
+    }
+
+    public ActionScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public String startAction(final ActionHandler handler) {
+        return startAction(handler, null);
+    }
+
+    /**
+     * Runs the handler in a new thread.
+     *
+     * @param listener notified with the action name when the thread ends
+     * @return the action name
+     */
+    public String startAction(final ActionHandler handler,
+            final ActionListener<String> listener) {
+        final String name = UUID.randomUUID().toString();
+        final Thread thread = new Thread(() -> {
+            Throwable failure = null;
+            try {
+                handler.execute();
+            } catch (final Exception e) {
+                logger.error("TasteThread {} is failed.", e, name);
+                failure = e;
+            } finally {
+                handlerMap.remove(name);
+                actionHandlerMap.remove(name);
+                handler.close();
+            }
+            if (listener != null) {
+                if (failure == null) {
+                    listener.onResponse(name);
+                } else {
+                    listener.onFailure(failure);
+                }
+            }
+        }, THREAD_NAME_PREFIX + name);
+        actionHandlerMap.put(name, handler);
+        handlerMap.put(name, thread);
+        thread.start();
+        return name;
+    }
+
+    public boolean stopAction(final String name) {
+        final Thread thread = handlerMap.remove(name);
+        actionHandlerMap.remove(name);
+        if (thread == null) {
+            return false;
+        }
+        thread.interrupt();
+        return true;
+    }
+
+    public Set<String> getActionNames() {
+        return handlerMap.keySet();
+    }
+
+    public ActionHandler getActionHandler(final String name) {
+        return actionHandlerMap.get(name);
+    }
+
+    public ActionHandler createActionHandler(final String action,
+            final Map<String, Object> sourceMap) {
+        if (RECOMMENDED_ITEMS_FROM_USER.equals(action)) {
+            return new ItemsFromUserHandler(settings, sourceMap, client, pool,
+                    this);
+        } else if (RECOMMENDED_ITEMS_FROM_FACTORIZATION.equals(action)) {
+            return new ItemsFromFactorizationHandler(settings, sourceMap,
+                    client, pool, this);
+        } else if (RECOMMENDED_ITEMS_FROM_ITEM.equals(action)) {
+            return new ItemsFromItemHandler(settings, sourceMap, client, pool,
+                    this);
+        } else if (SIMILAR_USERS.equals(action)) {
+            return new SimilarUsersHandler(settings, sourceMap, client, pool,
+                    this);
+        } else if (EVALUATE_ITEMS_FROM_USER.equals(action)) {
+            return new EvalItemsFromUserHandler(settings, sourceMap, client,
+                    pool, this);
+        } else if (GENERATE_TERM_VALUES.equals(action)) {
+            return new GenTermValuesHandler(settings, sourceMap, client, pool);
+        }
+        throw new TasteException("Unknown action: " + action);
+    }
+
+    /**
+     * Splits sorted target IDs into one partition per data node and runs
+     * the action on each node. Progress of running partitions is collected
+     * periodically. A failed partition is sent to another data node up to
+     * partition_retries times, and it is resumed from its checkpoint if the
+     * failed node has started to compute it. This method blocks until all
+     * partitions finish.
+     */
+    public void distribute(final String action,
+            final Map<String, Object> sourceMap, final long[] targetIDs,
+            final ProgressStats progressStats,
+            final Map<String, Map<String, Object>> partitionStatusMap) {
+        final List<DiscoveryNode> nodes = getDataNodes();
+        if (nodes.isEmpty()) {
+            throw new TasteException("No data nodes.");
+        }
+
+        final Map<String, Object> partitionSource = new HashMap<>(sourceMap);
+        partitionSource.remove("distributed");
+        final BytesReference source = toBytes(partitionSource);
+        partitionSource.put("resume", true);
+        final BytesReference resumeSource = toBytes(partitionSource);
+        final int maxRetries = SettingsUtils.get(sourceMap,
+                "partition_retries", 2);
+
+        // IDs are assigned in a round-robin manner so that each node has
+        // a similar mix of light and heavy targets.
+        final int numOfPartitions = nodes.size();
+        final long[][] partitionIDs = new long[numOfPartitions][];
+        for (int i = 0; i < numOfPartitions; i++) {
+            partitionIDs[i] = new long[(targetIDs.length - i
+                    + numOfPartitions - 1)
+                    / numOfPartitions];
+        }
+        for (int i = 0; i < targetIDs.length; i++) {
+            partitionIDs[i % numOfPartitions][i / numOfPartitions] = targetIDs[i];
+        }
+
+        final String name = UUID.randomUUID().toString();
+        final CountDownLatch latch = new CountDownLatch(numOfPartitions);
+        progressStats.setTotal(targetIDs.length);
+        final List<Partition> partitions = new ArrayList<>(numOfPartitions);
+        for (int i = 0; i < numOfPartitions; i++) {
+            final Partition partition = new Partition(new PartitionRequest(
+                    name, action, source, i, numOfPartitions,
+                    partitionIDs[i]), resumeSource, maxRetries,
+                    progressStats, latch);
+            partitionStatusMap.put(Integer.toString(i), partition.status);
+            partitions.add(partition);
+        }
+        for (int i = 0; i < numOfPartitions; i++) {
+            partitions.get(i).send(nodes.get(i));
+        }
+
+        final Cancellable cancellable = pool.scheduleWithFixedDelay(() -> {
+            for (final Partition partition : partitions) {
+                partition.requestStats();
+            }
+        }, PARTITION_STATS_INTERVAL, ThreadPool.Names.GENERIC);
+        try {
+            latch.await();
+        } catch (final InterruptedException e) {
+            logger.info("Cancel partitions of {}.", name);
+            for (final Partition partition : partitions) {
+                partition.cancel();
+            }
+            Thread.currentThread().interrupt();
+        } finally {
+            cancellable.cancel();
+        }
+    }
+
+    private List<DiscoveryNode> getDataNodes() {
+        final List<DiscoveryNode> nodes = new ArrayList<>();
+        for (final DiscoveryNode node : clusterService.state().nodes()
+                .dataNodes().values().toArray(DiscoveryNode.class)) {
+            nodes.add(node);
+        }
+        nodes.sort((n1, n2) -> n1.getId().compareTo(n2.getId()));
+        return nodes;
     }
 
+    private static BytesReference toBytes(final Map<String, Object> sourceMap) {
+        try {
+            return XContentFactory.jsonBuilder().map(sourceMap).bytes();
+        } catch (final IOException e) {
+            throw new TasteException("Failed to create a partition source.", e);
+        }
+    }
+
+    private static String getPartitionKey(final String name,
+            final int partition) {
+        return name + "/" + partition;
+    }
+
+    /**
+     * A partition sent by the coordinating node. Progress reported by a
+     * node is added to the stats of the action as a difference, and a
+     * progress of an old attempt is ignored.
+     */
+    private class Partition implements
+            TransportResponseHandler<PartitionResponse> {
+        private final PartitionRequest request;
+
+        private final BytesReference resumeSource;
+
+        private final int maxRetries;
+
+        private final ProgressStats progressStats;
+
+        private final CountDownLatch latch;
+
+        private final Map<String, Object> status = new ConcurrentHashMap<>();
+
+        private final Set<String> failedNodeIds = new HashSet<>();
+
+        private DiscoveryNode node;
+
+        private int attempt;
+
+        private boolean started;
+
+        private boolean cancelled;
+
+        private boolean finished;
+
+        /** processed targets of failed attempts */
+        private long previousProcessed;
+
+        /** processed targets of the current attempt */
+        private long processed;
+
+        /** failed targets of the current attempt */
+        private long failed;
+
+        Partition(final PartitionRequest request,
+                final BytesReference resumeSource, final int maxRetries,
+                final ProgressStats progressStats, final CountDownLatch latch) {
+            this.request = request;
+            this.resumeSource = resumeSource;
+            this.maxRetries = maxRetries;
+            this.progressStats = progressStats;
+            this.latch = latch;
+            status.put("targets", request.getTargetIDs().length);
+            status.put("processed", 0L);
+            status.put("failed", 0L);
+            status.put("status", "running");
+        }
+
+        synchronized void send(final DiscoveryNode node) {
+            this.node = node;
+            status.put("node", node.getName());
+            status.put("attempts", attempt + 1);
+            status.put("status", "running");
+            logger.info("Send partition {}/{} of {} to {}: {} targets",
+                    request.getPartition(), request.getNumOfPartitions(),
+                    request.getName(), node, request.getTargetIDs().length);
+            // a failed node stores completed targets to its checkpoint
+            final PartitionRequest partitionRequest = started ? new PartitionRequest(
+                    request.getName(), request.getAction(), resumeSource,
+                    request.getPartition(), request.getNumOfPartitions(),
+                    request.getTargetIDs()) : request;
+            transportService.sendRequest(node, PARTITION_ACTION,
+                    partitionRequest, this);
+        }
+
+        void requestStats() {
+            final DiscoveryNode node;
+            final int attempt;
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                node = this.node;
+                attempt = this.attempt;
+            }
+            transportService.sendRequest(node, PARTITION_STATS_ACTION,
+                    new PartitionStatsRequest(request.getName(),
+                            request.getPartition()),
+                    new TransportResponseHandler<PartitionResponse>() {
+                        @Override
+                        public PartitionResponse newInstance() {
+                            return new PartitionResponse();
+                        }
+
+                        @Override
+                        public void handleResponse(
+                                final PartitionResponse response) {
+                            update(attempt, response);
+                        }
+
+                        @Override
+                        public void handleException(final TransportException e) {
+                            logger.debug("Failed to get stats of {} on {}.",
+                                    e, request.getName(), node);
+                        }
+
+                        @Override
+                        public String executor() {
+                            return ThreadPool.Names.SAME;
+                        }
+                    });
+        }
+
+        synchronized void cancel() {
+            if (finished) {
+                return;
+            }
+            cancelled = true;
+            final DiscoveryNode node = this.node;
+            transportService.sendRequest(node, CANCEL_PARTITION_ACTION,
+                    new CancelPartitionRequest(request.getName()),
+                    new TransportResponseHandler<TransportResponse.Empty>() {
+                        @Override
+                        public TransportResponse.Empty newInstance() {
+                            return TransportResponse.Empty.INSTANCE;
+                        }
+
+                        @Override
+                        public void handleResponse(
+                                final TransportResponse.Empty response) {
+                        }
+
+                        @Override
+                        public void handleException(final TransportException e) {
+                            logger.warn("Failed to cancel {} on {}.", e,
+                                    request.getName(), node);
+                        }
+
+                        @Override
+                        public String executor() {
+                            return ThreadPool.Names.SAME;
+                        }
+                    });
+        }
+
+        private synchronized void update(final int attempt,
+                final PartitionResponse response) {
+            if (finished || attempt != this.attempt) {
+                return;
+            }
+            // stats requests may be answered out of order
+            setProgress(Math.max(processed, response.getProcessed()),
+                    Math.max(failed, response.getFailed()));
+            if (processed + failed > 0) {
+                started = true;
+            }
+        }
+
+        private void setProgress(final long processed, final long failed) {
+            progressStats.add(processed - this.processed, failed
+                    - this.failed);
+            this.processed = processed;
+            this.failed = failed;
+            status.put("processed", previousProcessed + processed);
+            status.put("failed", failed);
+        }
+
+        @Override
+        public PartitionResponse newInstance() {
+            return new PartitionResponse();
+        }
+
+        @Override
+        public synchronized void handleResponse(
+                final PartitionResponse response) {
+            setProgress(response.getProcessed(), response.getFailed());
+            status.put("elapsed", response.getElapsed());
+            status.put("status", "completed");
+            finish();
+        }
+
+        @Override
+        public synchronized void handleException(final TransportException e) {
+            logger.error("Partition {} of {} on {} is failed.", e,
+                    request.getPartition(), request.getName(), node);
+            status.put("error", e.getDetailedMessage());
+            failedNodeIds.add(node.getId());
+            // failed targets of this attempt are computed again
+            setProgress(processed, 0);
+            previousProcessed += processed;
+            processed = 0;
+            if (attempt < maxRetries && !cancelled) {
+                final DiscoveryNode nextNode = selectNode();
+                if (nextNode != null) {
+                    attempt++;
+                    send(nextNode);
+                    return;
+                }
+            }
+            status.put("status", "failed");
+            setProgress(0, Math.max(0, request.getTargetIDs().length
+                    - previousProcessed));
+            finish();
+        }
+
+        /**
+         * @return a data node which has not failed this partition
+         */
+        private DiscoveryNode selectNode() {
+            final List<DiscoveryNode> candidates = new ArrayList<>();
+            for (final DiscoveryNode dataNode : getDataNodes()) {
+                if (!failedNodeIds.contains(dataNode.getId())) {
+                    candidates.add(dataNode);
+                }
+            }
+            if (candidates.isEmpty()) {
+                return null;
+            }
+            return candidates.get((request.getPartition() + attempt)
+                    % candidates.size());
+        }
+
+        private void finish() {
+            finished = true;
+            latch.countDown();
+        }
+
+        @Override
+        public String executor() {
+            return ThreadPool.Names.SAME;
+        }
+    }
+
+    private class PartitionRequestHandler extends
+            TransportRequestHandler<PartitionRequest> {
+        /**
+         * Starts the partition in a new thread and replies when it
+         * finishes, so that a pooled thread is not blocked.
+         */
+        @Override
+        public void messageReceived(final PartitionRequest request,
+                final TransportChannel channel) throws Exception {
+            final long startTime = System.currentTimeMillis();
+            final Map<String, Object> sourceMap = SourceLookup
+                    .sourceAsMap(request.getSource());
+            final ActionHandler handler = createActionHandler(
+                    request.getAction(), sourceMap);
+            if (!(handler instanceof RecommendationHandler)) {
+                throw new TasteException(request.getAction()
+                        + " does not support a distributed mode.");
+            }
+            final RecommendationHandler recommendationHandler = (RecommendationHandler) handler;
+            recommendationHandler.setPartition(request.getPartition(),
+                    request.getNumOfPartitions(), request.getTargetIDs());
+
+            logger.info("Start partition {}/{} of {}: {} targets",
+                    request.getPartition(), request.getNumOfPartitions(),
+                    request.getName(), request.getTargetIDs().length);
+            final String key = getPartitionKey(request.getName(),
+                    request.getPartition());
+            final Thread thread = new Thread(() -> {
+                Exception failure = null;
+                try {
+                    handler.execute();
+                    // handlers catch a failure of computing, so it is
+                    // replied as an exception to retry the partition
+                    if (ActionHandler.STATUS_FAILED.equals(handler
+                            .getStatus())) {
+                        throw new TasteException("Partition " + key
+                                + " is not computed.",
+                                recommendationHandler.getFailure());
+                    }
+                } catch (final Exception e) {
+                    logger.error("Partition {} is failed.", e, key);
+                    failure = e;
+                } finally {
+                    partitionThreadMap.remove(key);
+                    partitionHandlerMap.remove(key);
+                    handler.close();
+                }
+                try {
+                    if (failure != null) {
+                        channel.sendResponse(failure);
+                    } else {
+                        final ProgressStats stats = recommendationHandler
+                                .getProgressStats();
+                        channel.sendResponse(new PartitionResponse(stats
+                                .getProcessed(), stats.getFailed(), System
+                                .currentTimeMillis() - startTime));
+                    }
+                } catch (final IOException e) {
+                    logger.error("Failed to reply partition {}.", e, key);
+                }
+            }, THREAD_NAME_PREFIX + key);
+            partitionHandlerMap.put(key, recommendationHandler);
+            partitionThreadMap.put(key, thread);
+            thread.start();
+        }
+    }
+
+    private class PartitionStatsRequestHandler extends
+            TransportRequestHandler<PartitionStatsRequest> {
+        @Override
+        public void messageReceived(final PartitionStatsRequest request,
+                final TransportChannel channel) throws Exception {
+            final RecommendationHandler handler = partitionHandlerMap
+                    .get(getPartitionKey(request.getName(),
+                            request.getPartition()));
+            if (handler == null) {
+                throw new TasteException("Partition "
+                        + request.getPartition() + " of "
+                        + request.getName() + " is not running.");
+            }
+            final ProgressStats stats = handler.getProgressStats();
+            channel.sendResponse(new PartitionResponse(stats.getProcessed(),
+                    stats.getFailed(), 0));
+        }
+    }
+
+    private class CancelPartitionRequestHandler extends
+            TransportRequestHandler<CancelPartitionRequest> {
+        @Override
+        public void messageReceived(final CancelPartitionRequest request,
+                final TransportChannel channel) throws Exception {
+            final String prefix = request.getName() + "/";
+            for (final Map.Entry<String, Thread> entry : partitionThreadMap
+                    .entrySet()) {
+                if (entry.getKey().startsWith(prefix)) {
+                    entry.getValue().interrupt();
+                }
+            }
+            channel.sendResponse(TransportResponse.Empty.INSTANCE);
+        }
+    }
 }
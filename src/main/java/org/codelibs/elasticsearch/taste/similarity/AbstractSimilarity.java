@@ -17,8 +17,10 @@
 
 package org.codelibs.elasticsearch.taste.similarity;
 
+import java.util.Arrays;
 import java.util.Collection;
 
+import org.apache.mahout.math.map.OpenLongIntHashMap;
 import org.codelibs.elasticsearch.taste.common.RefreshHelper;
 import org.codelibs.elasticsearch.taste.common.Refreshable;
 import org.codelibs.elasticsearch.taste.common.Weighting;
@@ -66,6 +68,14 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements
         return inferrer;
     }
 
+    /**
+     * @return true if missing preferences are inferred, so that users without
+     *         common items can be similar
+     */
+    public final boolean hasPreferenceInferrer() {
+        return inferrer != null;
+    }
+
     @Override
     public final void setPreferenceInferrer(final PreferenceInferrer inferrer) {
         Preconditions.checkArgument(inferrer != null, "inferrer is null");
@@ -74,7 +84,7 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements
         this.inferrer = inferrer;
     }
 
-    final boolean isWeighted() {
+    public final boolean isWeighted() {
         return weighted;
     }
 
@@ -281,6 +291,81 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements
             }
         }
 
+        return computeItemResult(count, sumX, sumX2, sumY, sumY2, sumXY,
+                sumXYdiff2);
+    }
+
+    /**
+     * Loads preferences for itemID1 once and streams preferences for each
+     * item in itemID2s against them, instead of a sorted merge per pair.
+     * Co-rated values are summed in the same order as
+     * {@link #itemSimilarity(long, long)}, so results are identical.
+     */
+    @Override
+    public double[] itemSimilarities(final long itemID1, final long[] itemID2s) {
+        final int length = itemID2s.length;
+        final double[] result = new double[length];
+        if (length < 2) {
+            for (int i = 0; i < length; i++) {
+                result[i] = itemSimilarity(itemID1, itemID2s[i]);
+            }
+            return result;
+        }
+
+        final DataModel dataModel = getDataModel();
+        final PreferenceArray xPrefs = dataModel.getPreferencesForItem(itemID1);
+        final int xLength = xPrefs.length();
+        if (xLength == 0) {
+            Arrays.fill(result, Double.NaN);
+            return result;
+        }
+        // positions are stored with an offset of 1 because 0 means absence
+        final OpenLongIntHashMap xPositions = new OpenLongIntHashMap(
+                xLength * 2);
+        for (int i = 0; i < xLength; i++) {
+            xPositions.put(xPrefs.getUserID(i), i + 1);
+        }
+
+        for (int i = 0; i < length; i++) {
+            final PreferenceArray yPrefs = dataModel
+                    .getPreferencesForItem(itemID2s[i]);
+            final int yLength = yPrefs.length();
+            if (yLength == 0) {
+                result[i] = Double.NaN;
+                continue;
+            }
+
+            double sumX = 0.0;
+            double sumX2 = 0.0;
+            double sumY = 0.0;
+            double sumY2 = 0.0;
+            double sumXY = 0.0;
+            double sumXYdiff2 = 0.0;
+            int count = 0;
+            for (int j = 0; j < yLength; j++) {
+                final int xPos = xPositions.get(yPrefs.getUserID(j));
+                if (xPos > 0) {
+                    final double x = xPrefs.getValue(xPos - 1);
+                    final double y = yPrefs.getValue(j);
+                    sumXY += x * y;
+                    sumX += x;
+                    sumX2 += x * x;
+                    sumY += y;
+                    sumY2 += y * y;
+                    final double diff = x - y;
+                    sumXYdiff2 += diff * diff;
+                    count++;
+                }
+            }
+            result[i] = computeItemResult(count, sumX, sumX2, sumY, sumY2,
+                    sumXY, sumXYdiff2);
+        }
+        return result;
+    }
+
+    private double computeItemResult(final int count, final double sumX,
+            final double sumX2, final double sumY, final double sumY2,
+            final double sumXY, final double sumXYdiff2) {
         double result;
         if (centerData) {
             // See comments above on these computations
@@ -305,16 +390,6 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements
         return result;
     }
 
-    @Override
-    public double[] itemSimilarities(final long itemID1, final long[] itemID2s) {
-        final int length = itemID2s.length;
-        final double[] result = new double[length];
-        for (int i = 0; i < length; i++) {
-            result[i] = itemSimilarity(itemID1, itemID2s[i]);
-        }
-        return result;
-    }
-
     final double normalizeWeightResult(final double result, final int count,
             final int num) {
         double normalizedResult = result;
@@ -19,11 +19,9 @@ package org.codelibs.elasticsearch.taste.similarity;
 
 import java.util.Collection;
 
-import org.codelibs.elasticsearch.taste.common.Cache;
-import org.codelibs.elasticsearch.taste.common.LongPair;
+import org.codelibs.elasticsearch.taste.common.LongPairDoubleCache;
 import org.codelibs.elasticsearch.taste.common.RefreshHelper;
 import org.codelibs.elasticsearch.taste.common.Refreshable;
-import org.codelibs.elasticsearch.taste.common.Retriever;
 import org.codelibs.elasticsearch.taste.model.DataModel;
 
 import com.google.common.base.Preconditions;
@@ -35,7 +33,7 @@ public final class CachingItemSimilarity implements ItemSimilarity {
 
     private final ItemSimilarity similarity;
 
-    private final Cache<LongPair, Double> similarityCache;
+    private final LongPairDoubleCache similarityCache;
 
     private final RefreshHelper refreshHelper;
 
@@ -56,8 +54,9 @@ public final class CachingItemSimilarity implements ItemSimilarity {
             final int maxCacheSize) {
         Preconditions.checkArgument(similarity != null, "similarity is null");
         this.similarity = similarity;
-        similarityCache = new Cache<>(new SimilarityRetriever(
-                similarity), maxCacheSize);
+        similarityCache = new LongPairDoubleCache(
+                (first, second) -> similarity.itemSimilarity(first, second),
+                maxCacheSize);
         refreshHelper = new RefreshHelper(() -> {
             similarityCache.clear();
             return null;
@@ -67,9 +66,8 @@ public final class CachingItemSimilarity implements ItemSimilarity {
 
     @Override
     public double itemSimilarity(final long itemID1, final long itemID2) {
-        final LongPair key = itemID1 < itemID2 ? new LongPair(itemID1, itemID2)
-                : new LongPair(itemID2, itemID1);
-        return similarityCache.get(key);
+        return itemID1 < itemID2 ? similarityCache.get(itemID1, itemID2)
+                : similarityCache.get(itemID2, itemID1);
     }
 
     @Override
@@ -93,21 +91,7 @@ public final class CachingItemSimilarity implements ItemSimilarity {
     }
 
     public void clearCacheForItem(final long itemID) {
-        similarityCache.removeKeysMatching(new LongPairMatchPredicate(itemID));
-    }
-
-    private static final class SimilarityRetriever implements
-            Retriever<LongPair, Double> {
-        private final ItemSimilarity similarity;
-
-        private SimilarityRetriever(final ItemSimilarity similarity) {
-            this.similarity = similarity;
-        }
-
-        @Override
-        public Double get(final LongPair key) {
-            return similarity.itemSimilarity(key.getFirst(), key.getSecond());
-        }
+        similarityCache.removeKeysContaining(itemID);
     }
 
 }
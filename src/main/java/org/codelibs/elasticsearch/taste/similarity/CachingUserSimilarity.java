@@ -19,11 +19,9 @@ package org.codelibs.elasticsearch.taste.similarity;
 
 import java.util.Collection;
 
-import org.codelibs.elasticsearch.taste.common.Cache;
-import org.codelibs.elasticsearch.taste.common.LongPair;
+import org.codelibs.elasticsearch.taste.common.LongPairDoubleCache;
 import org.codelibs.elasticsearch.taste.common.RefreshHelper;
 import org.codelibs.elasticsearch.taste.common.Refreshable;
-import org.codelibs.elasticsearch.taste.common.Retriever;
 import org.codelibs.elasticsearch.taste.model.DataModel;
 
 import com.google.common.base.Preconditions;
@@ -35,7 +33,7 @@ public final class CachingUserSimilarity implements UserSimilarity {
 
     private final UserSimilarity similarity;
 
-    private final Cache<LongPair, Double> similarityCache;
+    private final LongPairDoubleCache similarityCache;
 
     private final RefreshHelper refreshHelper;
 
@@ -56,8 +54,9 @@ public final class CachingUserSimilarity implements UserSimilarity {
             final int maxCacheSize) {
         Preconditions.checkArgument(similarity != null, "similarity is null");
         this.similarity = similarity;
-        similarityCache = new Cache<>(new SimilarityRetriever(
-                similarity), maxCacheSize);
+        similarityCache = new LongPairDoubleCache(
+                (first, second) -> similarity.userSimilarity(first, second),
+                maxCacheSize);
         refreshHelper = new RefreshHelper(() -> {
             similarityCache.clear();
             return null;
@@ -67,9 +66,8 @@ public final class CachingUserSimilarity implements UserSimilarity {
 
     @Override
     public double userSimilarity(final long userID1, final long userID2) {
-        final LongPair key = userID1 < userID2 ? new LongPair(userID1, userID2)
-                : new LongPair(userID2, userID1);
-        return similarityCache.get(key);
+        return userID1 < userID2 ? similarityCache.get(userID1, userID2)
+                : similarityCache.get(userID2, userID1);
     }
 
     @Override
@@ -79,7 +77,7 @@ public final class CachingUserSimilarity implements UserSimilarity {
     }
 
     public void clearCacheForUser(final long userID) {
-        similarityCache.removeKeysMatching(new LongPairMatchPredicate(userID));
+        similarityCache.removeKeysContaining(userID);
     }
 
     @Override
@@ -87,18 +85,4 @@ public final class CachingUserSimilarity implements UserSimilarity {
         refreshHelper.refresh(alreadyRefreshed);
     }
 
-    private static final class SimilarityRetriever implements
-            Retriever<LongPair, Double> {
-        private final UserSimilarity similarity;
-
-        private SimilarityRetriever(final UserSimilarity similarity) {
-            this.similarity = similarity;
-        }
-
-        @Override
-        public Double get(final LongPair key) {
-            return similarity.userSimilarity(key.getFirst(), key.getSecond());
-        }
-    }
-
 }
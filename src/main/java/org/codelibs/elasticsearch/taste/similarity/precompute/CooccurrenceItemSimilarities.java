@@ -0,0 +1,337 @@
+package org.codelibs.elasticsearch.taste.similarity.precompute;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.mahout.math.map.OpenLongIntHashMap;
+import org.apache.mahout.math.stats.LogLikelihood;
+import org.codelibs.elasticsearch.taste.common.Deadline;
+import org.codelibs.elasticsearch.taste.common.LongPrimitiveIterator;
+import org.codelibs.elasticsearch.taste.exception.TasteException;
+import org.codelibs.elasticsearch.taste.model.DataModel;
+import org.codelibs.elasticsearch.taste.model.PreferenceArray;
+import org.codelibs.elasticsearch.taste.recommender.RecommendedItem;
+import org.codelibs.elasticsearch.taste.recommender.TopItems;
+import org.codelibs.elasticsearch.taste.similarity.ItemSimilarity;
+import org.codelibs.elasticsearch.taste.similarity.LogLikelihoodSimilarity;
+import org.codelibs.elasticsearch.taste.similarity.PearsonCorrelationSimilarity;
+import org.codelibs.elasticsearch.taste.similarity.TanimotoCoefficientSimilarity;
+import org.codelibs.elasticsearch.taste.similarity.UncenteredCosineSimilarity;
+
+/**
+ * Computes the most similar items of an item by walking the users of the
+ * item and their items once, instead of evaluating the similarity of every
+ * candidate pair. Co-occurrence counts and sums of co-rated values are
+ * accumulated in primitive arrays indexed by items, so an
+ * {@link Accumulator} is created for each thread and takes 8 bytes per item
+ * for LogLikelihood and Tanimoto, 32 bytes for UncenteredCosine and 48 bytes
+ * for PearsonCorrelation.
+ * The results are the same as most similar items of
+ * GenericItemBasedRecommender with the same similarity.
+ */
+public class CooccurrenceItemSimilarities {
+
+    public enum Metric {
+        LOG_LIKELIHOOD, TANIMOTO, COSINE, PEARSON;
+
+        public static Metric of(final ItemSimilarity similarity) {
+            if (similarity instanceof LogLikelihoodSimilarity) {
+                return LOG_LIKELIHOOD;
+            } else if (similarity instanceof TanimotoCoefficientSimilarity) {
+                return TANIMOTO;
+            } else if (similarity instanceof UncenteredCosineSimilarity
+                    && !((UncenteredCosineSimilarity) similarity).isWeighted()) {
+                return COSINE;
+            } else if (similarity instanceof PearsonCorrelationSimilarity
+                    && !((PearsonCorrelationSimilarity) similarity)
+                            .isWeighted()) {
+                return PEARSON;
+            }
+            throw new TasteException("Unsupported similarity: " + similarity);
+        }
+    }
+
+    protected DataModel dataModel;
+
+    protected Metric metric;
+
+    private final OpenLongIntHashMap itemIndex;
+
+    private long[] itemIDs;
+
+    private int[] numOfUsers;
+
+    private int numOfItems;
+
+    private final int totalUsers;
+
+    public CooccurrenceItemSimilarities(final DataModel dataModel,
+            final Metric metric) {
+        this.dataModel = dataModel;
+        this.metric = metric;
+        totalUsers = dataModel.getNumUsers();
+
+        final int size = dataModel.getNumItems();
+        itemIndex = new OpenLongIntHashMap(size * 2);
+        itemIDs = new long[size];
+        final LongPrimitiveIterator it = dataModel.getItemIDs();
+        while (it.hasNext()) {
+            indexOf(it.nextLong());
+        }
+
+        if (metric == Metric.LOG_LIKELIHOOD || metric == Metric.TANIMOTO) {
+            // users per item are counted from the user->items lists in one pass
+            numOfUsers = new int[numOfItems];
+            final LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+            while (userIDs.hasNext()) {
+                final PreferenceArray prefs = dataModel
+                        .getPreferencesFromUser(userIDs.nextLong());
+                final int length = prefs.length();
+                for (int i = 0; i < length; i++) {
+                    final int index = indexOf(prefs.getItemID(i));
+                    if (index >= numOfUsers.length) {
+                        numOfUsers = Arrays.copyOf(numOfUsers, itemIDs.length);
+                    }
+                    numOfUsers[index]++;
+                }
+            }
+        }
+    }
+
+    private int indexOf(final long itemID) {
+        final int pos = itemIndex.get(itemID);
+        if (pos > 0) {
+            return pos - 1;
+        }
+        if (numOfItems == itemIDs.length) {
+            itemIDs = Arrays.copyOf(itemIDs,
+                    Math.max(16, numOfItems + (numOfItems >> 1)));
+        }
+        itemIDs[numOfItems] = itemID;
+        itemIndex.put(itemID, ++numOfItems);
+        return numOfItems - 1;
+    }
+
+    public Metric getMetric() {
+        return metric;
+    }
+
+    public int getNumOfItems() {
+        return numOfItems;
+    }
+
+    /**
+     * @return the heap size of an accumulator in bytes
+     */
+    public long getAccumulatorSize() {
+        final int numOfSums;
+        if (metric == Metric.PEARSON) {
+            numOfSums = 5;
+        } else if (metric == Metric.COSINE) {
+            numOfSums = 3;
+        } else {
+            numOfSums = 0;
+        }
+        // counts and touched, and sums of values
+        return (long) numOfItems * (8 + 8 * numOfSums);
+    }
+
+    /**
+     * Checks if accumulators for the threads fit in the free heap.
+     */
+    public void checkHeap(final int numOfAccumulators) {
+        final Runtime runtime = Runtime.getRuntime();
+        final long freeHeap = runtime.maxMemory() - runtime.totalMemory()
+                + runtime.freeMemory();
+        final long required = getAccumulatorSize() * numOfAccumulators;
+        if (required > freeHeap) {
+            throw new TasteException(numOfAccumulators
+                    + " accumulators for " + numOfItems + " items need "
+                    + required + " bytes, but the free heap is " + freeHeap
+                    + " bytes. Reduce num_of_threads.");
+        }
+    }
+
+    /**
+     * Creates accumulators for one thread. An accumulator is not thread-safe.
+     */
+    public Accumulator newAccumulator() {
+        return new Accumulator();
+    }
+
+    @Override
+    public String toString() {
+        return "CooccurrenceItemSimilarities[metric:" + metric
+                + ", numOfItems:" + numOfItems + ", dataModel:" + dataModel
+                + ']';
+    }
+
+    public class Accumulator {
+        private final int[] counts;
+
+        private final double[] sumX;
+
+        private final double[] sumY;
+
+        private final double[] sumXY;
+
+        private final double[] sumX2;
+
+        private final double[] sumY2;
+
+        private final int[] touched;
+
+        private int numOfTouched;
+
+        Accumulator() {
+            counts = new int[numOfItems];
+            touched = new int[numOfItems];
+            final boolean values = metric == Metric.COSINE
+                    || metric == Metric.PEARSON;
+            final boolean centered = metric == Metric.PEARSON;
+            sumXY = values ? new double[numOfItems] : null;
+            sumX2 = values ? new double[numOfItems] : null;
+            sumY2 = values ? new double[numOfItems] : null;
+            sumX = centered ? new double[numOfItems] : null;
+            sumY = centered ? new double[numOfItems] : null;
+        }
+
+        /**
+         * @return null if the deadline of the current thread expires, because
+         *         partial sums are not similarities of the items
+         */
+        public List<RecommendedItem> mostSimilarItems(final long itemID,
+                final int howMany) {
+            final int pos = itemIndex.get(itemID);
+            final int target = pos - 1;
+            try {
+                if (!accumulate(itemID, target)) {
+                    return null;
+                }
+                return getTopItems(target, howMany);
+            } finally {
+                reset();
+            }
+        }
+
+        private boolean accumulate(final long itemID, final int target) {
+            final PreferenceArray itemPrefs = dataModel
+                    .getPreferencesForItem(itemID);
+            final int numOfItemUsers = itemPrefs.length();
+            for (int i = 0; i < numOfItemUsers; i++) {
+                if (Deadline.check()) {
+                    return false;
+                }
+                final double x = itemPrefs.getValue(i);
+                final PreferenceArray userPrefs = dataModel
+                        .getPreferencesFromUser(itemPrefs.getUserID(i));
+                final int length = userPrefs.length();
+                for (int j = 0; j < length; j++) {
+                    final int pos = itemIndex.get(userPrefs.getItemID(j));
+                    final int index = pos - 1;
+                    // items added after the index is built are skipped
+                    if (index < 0 || index == target
+                            || index >= counts.length) {
+                        continue;
+                    }
+                    if (counts[index]++ == 0) {
+                        touched[numOfTouched++] = index;
+                    }
+                    if (sumXY != null) {
+                        final double y = userPrefs.getValue(j);
+                        sumXY[index] += x * y;
+                        sumX2[index] += x * x;
+                        sumY2[index] += y * y;
+                        if (sumX != null) {
+                            sumX[index] += x;
+                            sumY[index] += y;
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        private List<RecommendedItem> getTopItems(final int target,
+                final int howMany) {
+            final TopItems.TopN topN = new TopItems.TopN(howMany);
+            final int numOfTargetUsers = numOfUsers != null
+                    && target >= 0 ? numOfUsers[target] : 0;
+            for (int i = 0; i < numOfTouched; i++) {
+                final int index = touched[i];
+                final double value = computeResult(index, numOfTargetUsers);
+                if (!Double.isNaN(value) && topN.accepts((float) value)) {
+                    // compared as the float value of RecommendedItem
+                    topN.add(itemIDs[index], (float) value);
+                }
+            }
+            return topN.toRecommendedItems();
+        }
+
+        private double computeResult(final int index, final int preferring1) {
+            final int count = counts[index];
+            switch (metric) {
+            case LOG_LIKELIHOOD: {
+                final long preferring2 = numOfUsers[index];
+                final double logLikelihood = LogLikelihood.logLikelihoodRatio(
+                        count, preferring2 - count, preferring1 - count,
+                        totalUsers - preferring1 - preferring2 + count);
+                return 1.0 - 1.0 / (1.0 + logLikelihood);
+            }
+            case TANIMOTO:
+                return (double) count
+                        / (double) (preferring1 + numOfUsers[index] - count);
+            case COSINE: {
+                final double denominator = Math.sqrt(sumX2[index])
+                        * Math.sqrt(sumY2[index]);
+                return denominator < 0.0 || denominator > 0.0 ? clamp(
+                        sumXY[index] / denominator) : Double.NaN;
+            }
+            case PEARSON: {
+                final double n = count;
+                final double meanX = sumX[index] / n;
+                final double meanY = sumY[index] / n;
+                final double centeredSumXY = sumXY[index] - meanY * sumX[index];
+                final double centeredSumX2 = sumX2[index] - meanX * sumX[index];
+                final double centeredSumY2 = sumY2[index] - meanY * sumY[index];
+                final double denominator = Math.sqrt(centeredSumX2)
+                        * Math.sqrt(centeredSumY2);
+                return denominator < 0.0 || denominator > 0.0 ? clamp(
+                        centeredSumXY / denominator) : Double.NaN;
+            }
+            default:
+                return Double.NaN;
+            }
+        }
+
+        /**
+         * Keeps a result in [-1.0, 1.0] against rounding, as the pairwise
+         * similarities do.
+         */
+        private double clamp(final double result) {
+            if (result < -1.0) {
+                return -1.0;
+            } else if (result > 1.0) {
+                return 1.0;
+            }
+            return result;
+        }
+
+        private void reset() {
+            for (int i = 0; i < numOfTouched; i++) {
+                final int index = touched[i];
+                counts[index] = 0;
+                if (sumXY != null) {
+                    sumXY[index] = 0;
+                    sumX2[index] = 0;
+                    sumY2[index] = 0;
+                    if (sumX != null) {
+                        sumX[index] = 0;
+                        sumY[index] = 0;
+                    }
+                }
+            }
+            numOfTouched = 0;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.codelibs.elasticsearch.taste.similarity.precompute;
+
+import java.util.Arrays;
+
+import org.apache.mahout.math.map.OpenLongIntHashMap;
+
+/**
+ * Precomputed most similar items of items, such as documents of an
+ * item_similarity index. Neighbors of all items are stored in flat primitive
+ * arrays, and the neighbors of an item are a range of them. Items are added
+ * by {@link #add(long, long[], float[], int)} from one thread and then read
+ * from any thread.
+ */
+public class ItemNeighbors {
+
+    /** index + 1 of an item */
+    private final OpenLongIntHashMap itemIndex = new OpenLongIntHashMap();
+
+    private final int maxNeighbors;
+
+    /** neighbors of item i are in offsets[i] to offsets[i + 1] */
+    private int[] offsets = new int[17];
+
+    private long[] neighborIDs = new long[16];
+
+    private float[] similarities = new float[16];
+
+    private int numOfItems;
+
+    /**
+     * @param maxNeighbors the number of neighbors kept for an item; 0 keeps
+     *          all
+     */
+    public ItemNeighbors(final int maxNeighbors) {
+        this.maxNeighbors = maxNeighbors > 0 ? maxNeighbors
+                : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Adds neighbors of an item, which are ordered by similarity in
+     * descending order. An item added twice is ignored.
+     */
+    public void add(final long itemID, final long[] ids,
+            final float[] values, final int length) {
+        if (itemIndex.containsKey(itemID)) {
+            return;
+        }
+        final int size = Math.min(length, maxNeighbors);
+        final int start = offsets[numOfItems];
+        if (start + size > neighborIDs.length) {
+            final int capacity = Math.max(start + size, neighborIDs.length * 2);
+            neighborIDs = Arrays.copyOf(neighborIDs, capacity);
+            similarities = Arrays.copyOf(similarities, capacity);
+        }
+        System.arraycopy(ids, 0, neighborIDs, start, size);
+        System.arraycopy(values, 0, similarities, start, size);
+        if (numOfItems + 1 == offsets.length - 1) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[numOfItems + 1] = start + size;
+        itemIndex.put(itemID, ++numOfItems);
+    }
+
+    /**
+     * Visits neighbors of an item.
+     *
+     * @return the number of visited neighbors
+     */
+    public int forEachNeighbor(final long itemID, final NeighborVisitor visitor) {
+        final int index = itemIndex.get(itemID) - 1;
+        if (index < 0) {
+            return 0;
+        }
+        final int end = offsets[index + 1];
+        for (int i = offsets[index]; i < end; i++) {
+            visitor.visit(neighborIDs[i], similarities[i]);
+        }
+        return end - offsets[index];
+    }
+
+    /**
+     * @return the similarity of the neighbor, or NaN if it is not a neighbor
+     */
+    public float getSimilarity(final long itemID, final long neighborID) {
+        final int index = itemIndex.get(itemID) - 1;
+        if (index >= 0) {
+            final int end = offsets[index + 1];
+            for (int i = offsets[index]; i < end; i++) {
+                if (neighborIDs[i] == neighborID) {
+                    return similarities[i];
+                }
+            }
+        }
+        return Float.NaN;
+    }
+
+    public int getNumOfItems() {
+        return numOfItems;
+    }
+
+    public int getNumOfNeighbors() {
+        return offsets[numOfItems];
+    }
+
+    @Override
+    public String toString() {
+        return "ItemNeighbors[items:" + numOfItems + ", neighbors:"
+                + getNumOfNeighbors() + ']';
+    }
+
+    /**
+     * Receives a neighbor and its similarity.
+     */
+    public interface NeighborVisitor {
+        void visit(long neighborID, float similarity);
+    }
+}
@@ -0,0 +1,86 @@
+package org.codelibs.elasticsearch.taste.transport;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.transport.TransportRequest;
+
+/**
+ * Runs an action for a part of target IDs on a node.
+ */
+public class PartitionRequest extends TransportRequest {
+
+    private String name;
+
+    private String action;
+
+    private BytesReference source;
+
+    private int partition;
+
+    private int numOfPartitions;
+
+    private long[] targetIDs;
+
+    public PartitionRequest() {
+    }
+
+    public PartitionRequest(final String name, final String action,
+            final BytesReference source, final int partition,
+            final int numOfPartitions, final long[] targetIDs) {
+        this.name = name;
+        this.action = action;
+        this.source = source;
+        this.partition = partition;
+        this.numOfPartitions = numOfPartitions;
+        this.targetIDs = targetIDs;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public BytesReference getSource() {
+        return source;
+    }
+
+    public int getPartition() {
+        return partition;
+    }
+
+    public int getNumOfPartitions() {
+        return numOfPartitions;
+    }
+
+    public long[] getTargetIDs() {
+        return targetIDs;
+    }
+
+    @Override
+    public void readFrom(final StreamInput in) throws IOException {
+        super.readFrom(in);
+        name = in.readString();
+        action = in.readString();
+        source = in.readBytesReference();
+        partition = in.readVInt();
+        numOfPartitions = in.readVInt();
+        targetIDs = in.readLongArray();
+    }
+
+    @Override
+    public void writeTo(final StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(name);
+        out.writeString(action);
+        out.writeBytesReference(source);
+        out.writeVInt(partition);
+        out.writeVInt(numOfPartitions);
+        out.writeLongArray(targetIDs);
+    }
+}
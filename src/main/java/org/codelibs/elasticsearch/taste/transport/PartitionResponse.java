@@ -0,0 +1,54 @@
+package org.codelibs.elasticsearch.taste.transport;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.transport.TransportResponse;
+
+public class PartitionResponse extends TransportResponse {
+
+    private long processed;
+
+    private long failed;
+
+    private long elapsed;
+
+    public PartitionResponse() {
+    }
+
+    public PartitionResponse(final long processed, final long failed,
+            final long elapsed) {
+        this.processed = processed;
+        this.failed = failed;
+        this.elapsed = elapsed;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    @Override
+    public void readFrom(final StreamInput in) throws IOException {
+        super.readFrom(in);
+        processed = in.readVLong();
+        failed = in.readVLong();
+        elapsed = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(final StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVLong(processed);
+        out.writeVLong(failed);
+        out.writeVLong(elapsed);
+    }
+}
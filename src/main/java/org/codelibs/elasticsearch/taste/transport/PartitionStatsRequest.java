@@ -0,0 +1,47 @@
+package org.codelibs.elasticsearch.taste.transport;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.transport.TransportRequest;
+
+/**
+ * Gets the progress of a running partition.
+ */
+public class PartitionStatsRequest extends TransportRequest {
+
+    private String name;
+
+    private int partition;
+
+    public PartitionStatsRequest() {
+    }
+
+    public PartitionStatsRequest(final String name, final int partition) {
+        this.name = name;
+        this.partition = partition;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPartition() {
+        return partition;
+    }
+
+    @Override
+    public void readFrom(final StreamInput in) throws IOException {
+        super.readFrom(in);
+        name = in.readString();
+        partition = in.readVInt();
+    }
+
+    @Override
+    public void writeTo(final StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(name);
+        out.writeVInt(partition);
+    }
+}
@@ -1,5 +1,6 @@
 package org.codelibs.elasticsearch.taste.util;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.elasticsearch.ElasticsearchException;
@@ -12,9 +13,21 @@ public final class ClusterUtils {
 
     public static void waitForAvailable(final Client client,
             final String... indices) {
+        // an index to be created, such as a new alias, is not waited for
+        final List<String> existingIndices = new ArrayList<>();
+        for (final String index : indices) {
+            if (index != null
+                    && client.admin().indices().prepareExists(index)
+                            .execute().actionGet().isExists()) {
+                existingIndices.add(index);
+            }
+        }
+        if (existingIndices.isEmpty()) {
+            return;
+        }
         final ClusterHealthResponse response = client.admin().cluster()
-                .prepareHealth(indices).setWaitForYellowStatus().execute()
-                .actionGet();
+                .prepareHealth(existingIndices.toArray(new String[0]))
+                .setWaitForYellowStatus().execute().actionGet();
         final List<String> failures = response.getValidationFailures();
         if (!failures.isEmpty()) {
             throw new ElasticsearchException(
@@ -0,0 +1,242 @@
+package org.codelibs.elasticsearch.taste.worker;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.codelibs.elasticsearch.taste.exception.TasteException;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Keeps track of completed targets in a batch action and persists them to
+ * the state index, so that a restarted action can skip finished targets.
+ * Completed targets are stored as a cursor (all targets up to it are done)
+ * and a list of completed ranges after the cursor.
+ */
+public class Checkpoint {
+    private static final ESLogger logger = Loggers.getLogger(Checkpoint.class);
+
+    private static final String[] VOLATILE_SETTINGS = { "resume",
+            "num_of_threads", "max_duration", "checkpoint", "distributed",
+            "partition_retries", "blue_green", "incremental",
+            "incremental_settings", "deadline", "dry_run" };
+
+    public static final String STATUS_RUNNING = "running";
+
+    public static final String STATUS_STOPPED = "stopped";
+
+    public static final String STATUS_COMPLETED = "completed";
+
+    protected Client client;
+
+    protected String index;
+
+    protected String type;
+
+    protected String id;
+
+    protected String configHash;
+
+    protected long[] targetIDs;
+
+    protected String targetsHash;
+
+    private final BitSet completed;
+
+    private int numOfCompleted;
+
+    public Checkpoint(final Client client, final String index,
+            final String type, final String id, final String configHash,
+            final long[] targetIDs) {
+        this.client = client;
+        this.index = index;
+        this.type = type;
+        this.id = id;
+        this.configHash = configHash;
+        this.targetIDs = targetIDs;
+        completed = new BitSet(targetIDs.length);
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (final long targetID : targetIDs) {
+            hasher.putLong(targetID);
+        }
+        targetsHash = hasher.hash().toString();
+    }
+
+    public static String createConfigHash(final Map<String, Object> settings) {
+        final Map<String, Object> map = new TreeMap<>(settings);
+        for (final String key : VOLATILE_SETTINGS) {
+            map.remove(key);
+        }
+        try (XContentBuilder builder = XContentFactory.jsonBuilder()) {
+            builder.map(sort(map));
+            return Hashing.murmur3_128()
+                    .hashString(builder.string(), StandardCharsets.UTF_8)
+                    .toString();
+        } catch (final IOException e) {
+            throw new TasteException("Failed to create a hash of " + settings,
+                    e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> sort(final Map<String, Object> map) {
+        final Map<String, Object> sorted = new TreeMap<>();
+        for (final Map.Entry<String, Object> entry : map.entrySet()) {
+            final Object value = entry.getValue();
+            if (value instanceof Map) {
+                sorted.put(entry.getKey(), sort((Map<String, Object>) value));
+            } else {
+                sorted.put(entry.getKey(), value);
+            }
+        }
+        return sorted;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long[] getTargetIDs() {
+        return targetIDs;
+    }
+
+    public void markDone(final long targetID) {
+        final int pos = Arrays.binarySearch(targetIDs, targetID);
+        if (pos >= 0) {
+            synchronized (completed) {
+                if (!completed.get(pos)) {
+                    completed.set(pos);
+                    numOfCompleted++;
+                }
+            }
+        }
+    }
+
+    public int getNumOfCompleted() {
+        synchronized (completed) {
+            return numOfCompleted;
+        }
+    }
+
+    public long[] getRemainingIDs() {
+        synchronized (completed) {
+            final long[] ids = new long[targetIDs.length - numOfCompleted];
+            int count = 0;
+            for (int i = completed.nextClearBit(0); i < targetIDs.length; i = completed
+                    .nextClearBit(i + 1)) {
+                ids[count++] = targetIDs[i];
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Restores completed targets from the stored checkpoint.
+     *
+     * @return true if the checkpoint exists
+     */
+    @SuppressWarnings("unchecked")
+    public boolean load() {
+        final GetResponse response;
+        try {
+            response = client.prepareGet(index, type, id).execute()
+                    .actionGet();
+        } catch (final ElasticsearchException e) {
+            logger.warn("Failed to load a checkpoint {}.", e, id);
+            return false;
+        }
+        if (!response.isExists()) {
+            return false;
+        }
+
+        final Map<String, Object> source = response.getSourceAsMap();
+        final Object hash = source.get("config_hash");
+        if (!configHash.equals(hash)) {
+            throw new TasteException("The configuration of " + id
+                    + " is changed: " + hash + " -> " + configHash);
+        }
+        // completed ranges are valid only for the same targets
+        if (!targetsHash.equals(source.get("targets_hash"))) {
+            logger.info("Targets of {} are changed. Start from the beginning.",
+                    id);
+            return false;
+        }
+
+        synchronized (completed) {
+            final Number cursor = (Number) source.get("cursor");
+            if (cursor != null) {
+                final int end = upperIndex(cursor.longValue());
+                completed.set(0, end);
+            }
+            final List<Object> ranges = (List<Object>) source.get("ranges");
+            if (ranges != null) {
+                for (final Object range : ranges) {
+                    final List<Number> values = (List<Number>) range;
+                    final int start = lowerIndex(values.get(0).longValue());
+                    final int end = upperIndex(values.get(1).longValue());
+                    if (start < end) {
+                        completed.set(start, end);
+                    }
+                }
+            }
+            numOfCompleted = completed.cardinality();
+        }
+        return true;
+    }
+
+    public void save(final String status) {
+        final Map<String, Object> source = new HashMap<>();
+        synchronized (completed) {
+            final int cursorIndex = completed.nextClearBit(0);
+            if (cursorIndex > 0) {
+                source.put("cursor", targetIDs[cursorIndex - 1]);
+            }
+            final List<List<Long>> ranges = new ArrayList<>();
+            int start = completed.nextSetBit(cursorIndex);
+            while (start >= 0 && start < targetIDs.length) {
+                final int end = completed.nextClearBit(start);
+                ranges.add(Arrays.asList(targetIDs[start], targetIDs[end - 1]));
+                start = completed.nextSetBit(end);
+            }
+            source.put("ranges", ranges);
+            source.put("completed", numOfCompleted);
+        }
+        source.put("total", targetIDs.length);
+        source.put("config_hash", configHash);
+        source.put("targets_hash", targetsHash);
+        source.put("status", status);
+        source.put("updated", new Date());
+        try {
+            client.prepareIndex(index, type, id).setSource(source).execute()
+                    .actionGet();
+        } catch (final ElasticsearchException e) {
+            logger.warn("Failed to save a checkpoint {}.", e, id);
+        }
+    }
+
+    private int lowerIndex(final long targetID) {
+        final int pos = Arrays.binarySearch(targetIDs, targetID);
+        return pos >= 0 ? pos : -pos - 1;
+    }
+
+    private int upperIndex(final long targetID) {
+        final int pos = Arrays.binarySearch(targetIDs, targetID);
+        return pos >= 0 ? pos + 1 : -pos - 1;
+    }
+}
@@ -0,0 +1,53 @@
+package org.codelibs.elasticsearch.taste.worker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out chunks of target IDs to workers without locking.
+ * A worker takes a chunk by {@link #nextChunk()} and processes IDs from
+ * the returned position to {@link #getChunkEnd(int)}.
+ */
+public class ChunkDispenser {
+    private final long[] ids;
+
+    private final int chunkSize;
+
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    public ChunkDispenser(final long[] ids, final int chunkSize) {
+        this.ids = ids;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * @return the start position of the next chunk, or -1 if no IDs remain
+     */
+    public int nextChunk() {
+        // avoid overflowing the cursor by many workers at the end
+        if (cursor.get() >= ids.length) {
+            return -1;
+        }
+        final int start = cursor.getAndAdd(chunkSize);
+        return start < ids.length ? start : -1;
+    }
+
+    public int getChunkEnd(final int start) {
+        return Math.min(start + chunkSize, ids.length);
+    }
+
+    public long getID(final int position) {
+        return ids[position];
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getNumOfDispatched() {
+        return Math.min(cursor.get(), ids.length);
+    }
+}
@@ -0,0 +1,112 @@
+package org.codelibs.elasticsearch.taste.worker;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.codelibs.elasticsearch.taste.model.ElasticsearchDataModel;
+
+/**
+ * Measures an action on sampled targets and extrapolates the cost of the
+ * whole action. The estimate is pessimistic because the sample starts with
+ * a cold data model cache.
+ */
+public class CostEstimator {
+    protected ElasticsearchDataModel dataModel;
+
+    protected long numOfTargets;
+
+    protected int numOfThreads;
+
+    private long startTime;
+
+    private long startRequests;
+
+    private long startHeap;
+
+    private int numOfSamples;
+
+    public CostEstimator(final ElasticsearchDataModel dataModel,
+            final long numOfTargets, final int numOfThreads) {
+        this.dataModel = dataModel;
+        this.numOfTargets = numOfTargets;
+        this.numOfThreads = numOfThreads;
+    }
+
+    /**
+     * Picks targets at random and keeps them sorted.
+     */
+    public long[] sample(final long[] targetIDs, final int sampleSize) {
+        long[] ids = targetIDs;
+        if (targetIDs.length > sampleSize) {
+            ids = targetIDs.clone();
+            final Random random = new Random();
+            for (int i = 0; i < sampleSize; i++) {
+                final int pos = i + random.nextInt(ids.length - i);
+                final long id = ids[pos];
+                ids[pos] = ids[i];
+                ids[i] = id;
+            }
+            ids = Arrays.copyOf(ids, sampleSize);
+            Arrays.sort(ids);
+        }
+        numOfSamples = ids.length;
+        return ids;
+    }
+
+    public void start() {
+        startTime = System.nanoTime();
+        startRequests = dataModel != null ? dataModel.getNumOfRequests() : 0;
+        startHeap = getUsedHeap();
+    }
+
+    public Map<String, Object> estimate(final ProgressStats stats) {
+        final long elapsed = System.nanoTime() - startTime;
+        final long done = stats.getProcessed() + stats.getFailed();
+        final long requests = dataModel != null ? dataModel
+                .getNumOfRequests() - startRequests : 0;
+        final double requestsPerTarget = done > 0 ? (double) requests / done
+                : 0;
+        final double meanLatency = stats.getLatency().getMean();
+        final long usedHeap = getUsedHeap();
+
+        final Map<String, Object> sampleMap = new LinkedHashMap<>();
+        sampleMap.put("targets", numOfSamples);
+        sampleMap.put("processed", stats.getProcessed());
+        sampleMap.put("failed", stats.getFailed());
+        sampleMap.put("elapsed", elapsed / 1000000);
+        sampleMap.put("latency", stats.getLatency().toMap());
+        sampleMap.put("requests", requests);
+        sampleMap.put("requests_per_target", requestsPerTarget);
+        if (dataModel != null) {
+            sampleMap.put("data_model", dataModel.getStats());
+        }
+
+        final Map<String, Object> estimateMap = new LinkedHashMap<>();
+        // mean latency is in milliseconds
+        estimateMap.put("time",
+                (long) (meanLatency * numOfTargets / numOfThreads));
+        estimateMap.put("requests", (long) (requestsPerTarget * numOfTargets));
+        estimateMap.put("search_qps", meanLatency > 0 ? requestsPerTarget
+                * numOfThreads * 1000.0 / meanLatency : 0);
+
+        final Map<String, Object> heapMap = new LinkedHashMap<>();
+        heapMap.put("used", usedHeap);
+        heapMap.put("used_by_sample", Math.max(0, usedHeap - startHeap));
+        heapMap.put("max", Runtime.getRuntime().maxMemory());
+
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("targets", numOfTargets);
+        map.put("num_of_threads", numOfThreads);
+        map.put("sample", sampleMap);
+        map.put("estimate", estimateMap);
+        map.put("heap", heapMap);
+        return map;
+    }
+
+    private static long getUsedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,87 @@
+package org.codelibs.elasticsearch.taste.worker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power-of-two microsecond buckets.
+ * Percentiles are reported as the upper bound of the matching bucket.
+ */
+public class LatencyHistogram {
+    private static final int NUM_OF_BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(
+            NUM_OF_BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    public void record(final long nanos) {
+        final long micros = nanos < 0 ? 0 : nanos / 1000L;
+        buckets.incrementAndGet(bucketIndex(micros));
+        count.increment();
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMean() {
+        final long n = count.sum();
+        return n == 0 ? 0.0 : (double) sum.sum() / n / 1000.0;
+    }
+
+    public double getMax() {
+        return max.get() / 1000.0;
+    }
+
+    public double getPercentile(final double percentile) {
+        long n = 0;
+        final long[] snapshot = new long[NUM_OF_BUCKETS];
+        for (int i = 0; i < NUM_OF_BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) {
+            return 0.0;
+        }
+        final long threshold = (long) Math.ceil(n * percentile);
+        long cumulative = 0;
+        for (int i = 0; i < NUM_OF_BUCKETS; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= threshold) {
+                return Math.min(upperBound(i), max.get()) / 1000.0;
+            }
+        }
+        return getMax();
+    }
+
+    public Map<String, Object> toMap() {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("count", getCount());
+        map.put("mean", getMean());
+        map.put("max", getMax());
+        map.put("p50", getPercentile(0.5));
+        map.put("p90", getPercentile(0.9));
+        map.put("p99", getPercentile(0.99));
+        return map;
+    }
+
+    private static int bucketIndex(final long micros) {
+        return micros == 0 ? 0
+                : Math.min(NUM_OF_BUCKETS - 1,
+                        64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    private static long upperBound(final int index) {
+        return index >= 63 ? Long.MAX_VALUE : 1L << index;
+    }
+}
@@ -0,0 +1,131 @@
+package org.codelibs.elasticsearch.taste.worker;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ProgressStats {
+    private static final int MAX_OUTLIERS = 100;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private volatile long total = -1;
+
+    private final LongAdder processed = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder timedOut = new LongAdder();
+
+    private final ConcurrentLinkedQueue<Map<String, Object>> outliers = new ConcurrentLinkedQueue<>();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public void setTotal(final long total) {
+        this.total = total;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void success(final long nanos) {
+        processed.increment();
+        latency.record(nanos);
+    }
+
+    public void failure(final long nanos) {
+        failed.increment();
+        latency.record(nanos);
+    }
+
+    /**
+     * Moves a processed target to failed because its result was not stored.
+     */
+    public void writeFailure() {
+        processed.decrement();
+        failed.increment();
+    }
+
+    /**
+     * Records a target which exceeded its time budget. The latest
+     * {@value #MAX_OUTLIERS} targets are kept.
+     */
+    public void timeout(final long targetID, final long nanos) {
+        timedOut.increment();
+        final Map<String, Object> outlier = new LinkedHashMap<>();
+        outlier.put("id", targetID);
+        outlier.put("elapsed", nanos / 1000000);
+        outliers.add(outlier);
+        while (outliers.size() > MAX_OUTLIERS) {
+            outliers.poll();
+        }
+    }
+
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    public List<Map<String, Object>> getOutliers() {
+        return new ArrayList<>(outliers);
+    }
+
+    public void add(final long processed, final long failed) {
+        this.processed.add(processed);
+        this.failed.add(failed);
+    }
+
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getRemaining() {
+        if (total < 0) {
+            return -1;
+        }
+        return Math.max(0, total - processed.sum() - failed.sum());
+    }
+
+    /**
+     * Returns true if all targets are processed and none of them failed.
+     */
+    public boolean isCompleted() {
+        return getRemaining() == 0 && failed.sum() == 0;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public Map<String, Object> toMap() {
+        final long elapsed = System.currentTimeMillis() - startTime;
+        final long done = processed.sum() + failed.sum();
+        final long remaining = getRemaining();
+        final double throughput = elapsed > 0 ? done * 1000.0 / elapsed : 0.0;
+
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("total", total);
+        map.put("processed", processed.sum());
+        map.put("failed", failed.sum());
+        map.put("remaining", remaining);
+        map.put("elapsed", elapsed);
+        map.put("throughput", throughput);
+        if (remaining >= 0 && throughput > 0) {
+            map.put("eta", (long) (remaining * 1000.0 / throughput));
+        }
+        map.put("latency", latency.toMap());
+        final long numOfTimedOut = timedOut.sum();
+        if (numOfTimedOut > 0) {
+            map.put("timed_out", numOfTimedOut);
+            map.put("outliers", getOutliers());
+        }
+        return map;
+    }
+}
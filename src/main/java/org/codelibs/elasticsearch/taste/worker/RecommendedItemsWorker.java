@@ -1,10 +1,14 @@
 package org.codelibs.elasticsearch.taste.worker;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
 
-import org.codelibs.elasticsearch.taste.common.LongPrimitiveIterator;
+import org.codelibs.elasticsearch.taste.common.Deadline;
+import org.codelibs.elasticsearch.taste.common.FastIDSet;
 import org.codelibs.elasticsearch.taste.common.MemoryUtil;
+import org.codelibs.elasticsearch.taste.recommender.BatchRecommender;
+import org.codelibs.elasticsearch.taste.recommender.GenericRecommendedItem;
 import org.codelibs.elasticsearch.taste.recommender.RecommendedItem;
 import org.codelibs.elasticsearch.taste.recommender.Recommender;
 import org.codelibs.elasticsearch.taste.writer.ItemWriter;
@@ -19,22 +23,45 @@ public class RecommendedItemsWorker implements Runnable {
 
     protected Recommender recommender;
 
-    protected LongPrimitiveIterator userIDs;
+    protected ChunkDispenser dispenser;
 
     protected int numOfRecommendedItems;
 
     protected ItemWriter writer;
 
+    protected ProgressStats stats;
+
+    protected long timeout;
+
+    protected long[] fallbackItemIDs;
+
     private boolean running;
 
     public RecommendedItemsWorker(final int number,
-            final Recommender recommender, final LongPrimitiveIterator userIDs,
-            final int numOfRecommendedItems, final ItemWriter writer) {
+            final Recommender recommender, final ChunkDispenser dispenser,
+            final int numOfRecommendedItems, final ItemWriter writer,
+            final ProgressStats stats) {
         this.number = number;
         this.recommender = recommender;
-        this.userIDs = userIDs;
+        this.dispenser = dispenser;
         this.numOfRecommendedItems = numOfRecommendedItems;
         this.writer = writer;
+        this.stats = stats;
+    }
+
+    /**
+     * Sets a time budget per user in milliseconds. 0 disables it.
+     */
+    public void setTimeout(final long timeout) {
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    /**
+     * Sets items, such as popular items, which fill a result cut short by
+     * the time budget.
+     */
+    public void setFallbackItemIDs(final long[] fallbackItemIDs) {
+        this.fallbackItemIDs = fallbackItemIDs;
     }
 
     @Override
@@ -42,52 +69,126 @@ public class RecommendedItemsWorker implements Runnable {
         int count = 0;
         final long startTime = System.currentTimeMillis();
         logger.info("Worker {} is started.", number);
-        long userID;
         running = true;
-        while ((userID = nextId(userIDs)) != -1 && running) {
-            if (Thread.currentThread().isInterrupted()) {
-                break;
-            }
-            try {
-                long time = System.nanoTime();
-                final List<RecommendedItem> recommendedItems = recommender
-                        .recommend(userID, numOfRecommendedItems);
-                writer.write(userID, recommendedItems);
-                time = (System.nanoTime() - time) / 1000000;
-                if (logger.isDebugEnabled()) {
-                    logger.debug("User {} => Time: {} ms, Result: {}", userID,
-                            time, recommendedItems);
-                    if (count % 100 == 0) {
-                        MemoryUtil.logMemoryStatistics();
+        int start;
+        while (running && (start = dispenser.nextChunk()) != -1) {
+            final int end = dispenser.getChunkEnd(start);
+            final long batchTime = System.nanoTime();
+            final List<List<RecommendedItem>> batch = recommendBatch(start,
+                    end);
+            // the time of a batch is shared by its users
+            final long batchElapsed = batch == null ? 0 : (System
+                    .nanoTime() - batchTime) / (end - start);
+            for (int i = start; i < end && running; i++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    running = false;
+                    break;
+                }
+                final long userID = dispenser.getID(i);
+                final long time = System.nanoTime();
+                if (timeout > 0) {
+                    Deadline.start(timeout);
+                }
+                try {
+                    List<RecommendedItem> recommendedItems = null;
+                    if (batch != null) {
+                        recommendedItems = batch.get(i - start);
+                    }
+                    if (recommendedItems == null) {
+                        recommendedItems = recommender.recommend(userID,
+                                numOfRecommendedItems);
                     }
-                } else {
-                    logger.info("User {} => Time: {} ms, Result: {} items",
-                            userID, time, recommendedItems.size());
-                    if (count % 1000 == 0) {
+                    final boolean expired = Deadline.isExpired();
+                    if (expired) {
+                        recommendedItems = fillWithFallbackItems(userID,
+                                recommendedItems);
+                    }
+                    if (writer != null) {
+                        writer.write(userID, recommendedItems);
+                    }
+                    final long elapsed = System.nanoTime() - time
+                            + batchElapsed;
+                    stats.success(elapsed);
+                    if (expired) {
+                        stats.timeout(userID, elapsed);
+                        logger.warn(
+                                "User {} exceeded the time budget: {} ms, {} items",
+                                userID, elapsed / 1000000,
+                                recommendedItems.size());
+                    }
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("User {} => Time: {} ms, Result: {}",
+                                userID, elapsed / 1000000, recommendedItems);
+                        if (count % 100 == 0) {
+                            MemoryUtil.logMemoryStatistics();
+                        }
+                    } else if (count % 1000 == 0) {
                         MemoryUtil.logMemoryStatistics();
                     }
+                } catch (final Exception e) {
+                    if (!Thread.currentThread().isInterrupted()) {
+                        stats.failure(System.nanoTime() - time);
+                        logger.error("User {} could not be processed.",
+                                e, userID);
+                    } else {
+                        running = false;
+                        break;
+                    }
+                } finally {
+                    Deadline.clear();
                 }
-            } catch (final Exception e) {
-                if (!Thread.currentThread().isInterrupted()) {
-                    logger.error("User {} could not be processed.", e, userID);
-                } else {
-                    break;
-                }
+                count++;
             }
-            count++;
         }
         logger.info("Worker {} processed {} users at {} ms. ", number, count,
                 System.currentTimeMillis() - startTime);
     }
 
-    private long nextId(final LongPrimitiveIterator userIDs) {
-        synchronized (userIDs) {
-            try {
-                return userIDs.nextLong();
-            } catch (final NoSuchElementException e) {
-                return -1;
+    /**
+     * Recommends items to users of a chunk at once if the recommender is a
+     * {@link BatchRecommender}. A batch is not used with a time budget,
+     * which is checked per user.
+     *
+     * @return null if users should be processed one by one
+     */
+    protected List<List<RecommendedItem>> recommendBatch(final int start,
+            final int end) {
+        if (!(recommender instanceof BatchRecommender) || timeout > 0) {
+            return null;
+        }
+        final long[] userIDs = new long[end - start];
+        for (int i = start; i < end; i++) {
+            userIDs[i - start] = dispenser.getID(i);
+        }
+        try {
+            return ((BatchRecommender) recommender).recommend(userIDs,
+                    numOfRecommendedItems);
+        } catch (final Exception e) {
+            logger.warn("Users from {} could not be processed in a batch.",
+                    e, userIDs[0]);
+            return null;
+        }
+    }
+
+    protected List<RecommendedItem> fillWithFallbackItems(final long userID,
+            final List<RecommendedItem> recommendedItems) {
+        if (fallbackItemIDs == null
+                || recommendedItems.size() >= numOfRecommendedItems) {
+            return recommendedItems;
+        }
+        final FastIDSet excludedIDs = recommender.getDataModel()
+                .getItemIDsFromUser(userID).clone();
+        for (final RecommendedItem recommendedItem : recommendedItems) {
+            excludedIDs.add(recommendedItem.getItemID());
+        }
+        final List<RecommendedItem> items = new ArrayList<>(recommendedItems);
+        for (int i = 0; i < fallbackItemIDs.length
+                && items.size() < numOfRecommendedItems; i++) {
+            if (!excludedIDs.contains(fallbackItemIDs[i])) {
+                items.add(new GenericRecommendedItem(fallbackItemIDs[i], 0f));
             }
         }
+        return items;
     }
 
     public void stop() {
@@ -1,12 +1,13 @@
 package org.codelibs.elasticsearch.taste.worker;
 
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
 
-import org.codelibs.elasticsearch.taste.common.LongPrimitiveIterator;
+import org.codelibs.elasticsearch.taste.common.Deadline;
 import org.codelibs.elasticsearch.taste.common.MemoryUtil;
 import org.codelibs.elasticsearch.taste.recommender.ItemBasedRecommender;
 import org.codelibs.elasticsearch.taste.recommender.RecommendedItem;
+import org.codelibs.elasticsearch.taste.similarity.precompute.CooccurrenceItemSimilarities;
 import org.codelibs.elasticsearch.taste.writer.ItemWriter;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
@@ -19,23 +20,47 @@ public class SimilarItemsWorker implements Runnable {
 
     protected ItemBasedRecommender recommender;
 
-    protected LongPrimitiveIterator itemIDs;
+    protected CooccurrenceItemSimilarities cooccurrence;
+
+    protected ChunkDispenser dispenser;
 
     protected int numOfMostSimilarItems;
 
     protected ItemWriter writer;
 
+    protected ProgressStats stats;
+
+    protected long timeout;
+
     private boolean running;
 
     public SimilarItemsWorker(final int number,
             final ItemBasedRecommender recommender,
-            final LongPrimitiveIterator itemIDs,
-            final int numOfMostSimilarItems, final ItemWriter writer) {
+            final ChunkDispenser dispenser,
+            final int numOfMostSimilarItems, final ItemWriter writer,
+            final ProgressStats stats) {
         this.number = number;
         this.recommender = recommender;
-        this.itemIDs = itemIDs;
+        this.dispenser = dispenser;
         this.numOfMostSimilarItems = numOfMostSimilarItems;
         this.writer = writer;
+        this.stats = stats;
+    }
+
+    /**
+     * Computes similar items with the co-occurrence engine instead of
+     * the recommender.
+     */
+    public void setCooccurrence(
+            final CooccurrenceItemSimilarities cooccurrence) {
+        this.cooccurrence = cooccurrence;
+    }
+
+    /**
+     * Sets a time budget per item in milliseconds. 0 disables it.
+     */
+    public void setTimeout(final long timeout) {
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
     }
 
     @Override
@@ -43,54 +68,75 @@ public class SimilarItemsWorker implements Runnable {
         int count = 0;
         final long startTime = System.currentTimeMillis();
         logger.info("Worker {} is started.", number);
-        long itemID;
         running = true;
-        while ((itemID = nextId(itemIDs)) != -1 && running) {
-            if (Thread.currentThread().isInterrupted()) {
-                break;
-            }
-            try {
-                long time = System.nanoTime();
-                final List<RecommendedItem> recommendedItems = recommender
-                        .mostSimilarItems(itemID, numOfMostSimilarItems);
-                writer.write(itemID, recommendedItems);
-                time = (System.nanoTime() - time) / 1000000;
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Item {} => Time: {} ms, Result: {}", itemID,
-                            time, recommendedItems);
-                    if (count % 100 == 0) {
-                        MemoryUtil.logMemoryStatistics();
+        final CooccurrenceItemSimilarities.Accumulator accumulator = cooccurrence != null ? cooccurrence
+                .newAccumulator() : null;
+        int start;
+        while (running && (start = dispenser.nextChunk()) != -1) {
+            final int end = dispenser.getChunkEnd(start);
+            for (int i = start; i < end && running; i++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    running = false;
+                    break;
+                }
+                final long itemID = dispenser.getID(i);
+                final long time = System.nanoTime();
+                if (timeout > 0) {
+                    Deadline.start(timeout);
+                }
+                try {
+                    final List<RecommendedItem> recommendedItems = accumulator != null ? accumulator
+                            .mostSimilarItems(itemID, numOfMostSimilarItems)
+                            : recommender.mostSimilarItems(itemID,
+                                    numOfMostSimilarItems);
+                    final long elapsed = System.nanoTime() - time;
+                    if (recommendedItems == null) {
+                        // co-occurrences are incomplete
+                        stats.failure(elapsed);
+                        stats.timeout(itemID, elapsed);
+                        logger.warn(
+                                "Item {} is not stored because it exceeded the time budget: {} ms",
+                                itemID, elapsed / 1000000);
+                        count++;
+                        continue;
+                    }
+                    if (writer != null) {
+                        writer.write(itemID, recommendedItems);
+                    }
+                    stats.success(elapsed);
+                    if (Deadline.isExpired()) {
+                        stats.timeout(itemID, elapsed);
+                        logger.warn("Item {} exceeded the time budget: {} ms",
+                                itemID, elapsed / 1000000);
                     }
-                } else {
-                    logger.info("Item {} => Time: {} ms, Result: {} items",
-                            itemID, time, recommendedItems.size());
-                    if (count % 1000 == 0) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Item {} => Time: {} ms, Result: {}",
+                                itemID, elapsed / 1000000, recommendedItems);
+                        if (count % 100 == 0) {
+                            MemoryUtil.logMemoryStatistics();
+                        }
+                    } else if (count % 1000 == 0) {
                         MemoryUtil.logMemoryStatistics();
                     }
+                } catch (final Exception e) {
+                    if (!Thread.currentThread().isInterrupted()) {
+                        stats.failure(System.nanoTime() - time);
+                        logger.error("Item {} could not be processed.",
+                                e, itemID);
+                    } else {
+                        running = false;
+                        break;
+                    }
+                } finally {
+                    Deadline.clear();
                 }
-            } catch (final Exception e) {
-                if (!Thread.currentThread().isInterrupted()) {
-                    logger.error("Item {} could not be processed.", e, itemID);
-                } else {
-                    break;
-                }
+                count++;
             }
-            count++;
         }
         logger.info("Worker {} processed {} items at {} ms. ", number, count,
                 System.currentTimeMillis() - startTime);
     }
 
-    private long nextId(final LongPrimitiveIterator itemIDs) {
-        synchronized (itemIDs) {
-            try {
-                return itemIDs.nextLong();
-            } catch (final NoSuchElementException e) {
-                return -1;
-            }
-        }
-    }
-
     public void stop() {
         running = false;
     }
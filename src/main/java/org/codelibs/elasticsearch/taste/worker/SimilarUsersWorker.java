@@ -1,9 +1,9 @@
 package org.codelibs.elasticsearch.taste.worker;
 
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
 
-import org.codelibs.elasticsearch.taste.common.LongPrimitiveIterator;
+import org.codelibs.elasticsearch.taste.common.Deadline;
 import org.codelibs.elasticsearch.taste.common.MemoryUtil;
 import org.codelibs.elasticsearch.taste.recommender.SimilarUser;
 import org.codelibs.elasticsearch.taste.recommender.UserBasedRecommender;
@@ -19,23 +19,36 @@ public class SimilarUsersWorker implements Runnable {
 
     protected UserBasedRecommender recommender;
 
-    protected LongPrimitiveIterator userIDs;
+    protected ChunkDispenser dispenser;
 
     protected int numOfSimilarUsers;
 
     protected UserWriter writer;
 
+    protected ProgressStats stats;
+
+    protected long timeout;
+
     private boolean running;
 
     public SimilarUsersWorker(final int number,
             final UserBasedRecommender recommender,
-            final LongPrimitiveIterator userIDs, final int numOfSimilarUsers,
-            final UserWriter writer) {
+            final ChunkDispenser dispenser, final int numOfSimilarUsers,
+            final UserWriter writer,
+            final ProgressStats stats) {
         this.number = number;
         this.recommender = recommender;
-        this.userIDs = userIDs;
+        this.dispenser = dispenser;
         this.numOfSimilarUsers = numOfSimilarUsers;
         this.writer = writer;
+        this.stats = stats;
+    }
+
+    /**
+     * Sets a time budget per user in milliseconds. 0 disables it.
+     */
+    public void setTimeout(final long timeout) {
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
     }
 
     @Override
@@ -43,39 +56,56 @@ public class SimilarUsersWorker implements Runnable {
         int count = 0;
         final long startTime = System.currentTimeMillis();
         logger.info("Worker {} is started.", number);
-        long userID;
         running = true;
-        while ((userID = nextId(userIDs)) != -1 && running) {
-            if (Thread.currentThread().isInterrupted()) {
-                break;
-            }
-            try {
-                long time = System.nanoTime();
-                final List<SimilarUser> mostSimilarUsers = recommender
-                        .mostSimilarUserIDs(userID, numOfSimilarUsers);
-                writer.write(userID, mostSimilarUsers);
-                time = (System.nanoTime() - time) / 1000000;
-                if (logger.isDebugEnabled()) {
-                    logger.debug("User {} => Time: {} ms, Result: {}", userID,
-                            time, mostSimilarUsers);
-                    if (count % 100 == 0) {
-                        MemoryUtil.logMemoryStatistics();
+        int start;
+        while (running && (start = dispenser.nextChunk()) != -1) {
+            final int end = dispenser.getChunkEnd(start);
+            for (int i = start; i < end && running; i++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    running = false;
+                    break;
+                }
+                final long userID = dispenser.getID(i);
+                final long time = System.nanoTime();
+                if (timeout > 0) {
+                    Deadline.start(timeout);
+                }
+                try {
+                    final List<SimilarUser> mostSimilarUsers = recommender
+                            .mostSimilarUserIDs(userID, numOfSimilarUsers);
+                    if (writer != null) {
+                        writer.write(userID, mostSimilarUsers);
                     }
-                } else {
-                    logger.info("User {} => Time: {} ms, Result: {} items",
-                            userID, time, mostSimilarUsers.size());
-                    if (count % 1000 == 0) {
+                    final long elapsed = System.nanoTime() - time;
+                    stats.success(elapsed);
+                    if (Deadline.isExpired()) {
+                        stats.timeout(userID, elapsed);
+                        logger.warn("User {} exceeded the time budget: {} ms",
+                                userID, elapsed / 1000000);
+                    }
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("User {} => Time: {} ms, Result: {}",
+                                userID, elapsed / 1000000, mostSimilarUsers);
+                        if (count % 100 == 0) {
+                            MemoryUtil.logMemoryStatistics();
+                        }
+                    } else if (count % 1000 == 0) {
                         MemoryUtil.logMemoryStatistics();
                     }
+                } catch (final Exception e) {
+                    if (!Thread.currentThread().isInterrupted()) {
+                        stats.failure(System.nanoTime() - time);
+                        logger.error("User {} could not be processed.",
+                                e, userID);
+                    } else {
+                        running = false;
+                        break;
+                    }
+                } finally {
+                    Deadline.clear();
                 }
-            } catch (final Exception e) {
-                if (!Thread.currentThread().isInterrupted()) {
-                    logger.error("User {} could not be processed.", e, userID);
-                } else {
-                    break;
-                }
+                count++;
             }
-            count++;
         }
         logger.info("Worker {} processed {} users at {} ms. ", number, count,
                 System.currentTimeMillis() - startTime);
@@ -84,14 +114,4 @@ public class SimilarUsersWorker implements Runnable {
     public void stop() {
         running = false;
     }
-
-    private long nextId(final LongPrimitiveIterator userIDs) {
-        synchronized (userIDs) {
-            try {
-                return userIDs.nextLong();
-            } catch (final NoSuchElementException e) {
-                return -1;
-            }
-        }
-    }
 }
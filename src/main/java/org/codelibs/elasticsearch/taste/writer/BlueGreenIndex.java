@@ -0,0 +1,214 @@
+package org.codelibs.elasticsearch.taste.writer;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.codelibs.elasticsearch.taste.exception.TasteException;
+import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+
+import com.carrotsearch.hppc.cursors.ObjectObjectCursor;
+
+/**
+ * Writes results to a new timestamped index and switches an alias to it
+ * when the action completes. The index is created without replicas and
+ * refreshes, which are restored on {@link #publish()}.
+ */
+public class BlueGreenIndex {
+    private static final ESLogger logger = Loggers
+            .getLogger(BlueGreenIndex.class);
+
+    protected Client client;
+
+    protected String alias;
+
+    protected String index;
+
+    protected int numOfReplicas;
+
+    protected String refreshInterval;
+
+    protected int maxNumSegments;
+
+    protected int numOfKeptIndices;
+
+    private final Pattern indexPattern;
+
+    public BlueGreenIndex(final Client client, final String alias,
+            final Map<String, Object> blueGreenSettings) {
+        this.client = client;
+        this.alias = alias;
+        numOfReplicas = SettingsUtils.get(blueGreenSettings,
+                "number_of_replicas", 1);
+        refreshInterval = SettingsUtils.get(blueGreenSettings,
+                "refresh_interval", "1s");
+        maxNumSegments = SettingsUtils.get(blueGreenSettings,
+                "max_num_segments", 1);
+        numOfKeptIndices = SettingsUtils.get(blueGreenSettings, "keep", 2);
+        indexPattern = Pattern.compile(Pattern.quote(alias + "_")
+                + "\\d{17}");
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    /**
+     * Uses the given index, which is created by a coordinating node.
+     */
+    public void setIndex(final String index) {
+        this.index = index;
+    }
+
+    /**
+     * Creates a new index, or reuses the latest unpublished index if
+     * resume is true.
+     */
+    public String create(final boolean resume) {
+        final MetaData metaData = client.admin().cluster().prepareState()
+                .setMetaData(true).execute().actionGet().getState()
+                .getMetaData();
+        if (metaData.hasIndex(alias)) {
+            throw new TasteException(alias
+                    + " is an index. Use another index name for an alias.");
+        }
+
+        if (resume) {
+            final List<String> indices = getIndices(metaData);
+            if (!indices.isEmpty()) {
+                final String latest = indices.get(indices.size() - 1);
+                if (!getAliasedIndices().contains(latest)) {
+                    logger.info("Resume writing to {}.", latest);
+                    index = latest;
+                    return index;
+                }
+            }
+        }
+
+        final String name = alias
+                + "_"
+                + new SimpleDateFormat("yyyyMMddHHmmssSSS", Locale.ROOT)
+                        .format(new Date());
+        final CreateIndexResponse response = client
+                .admin()
+                .indices()
+                .prepareCreate(name)
+                .setSettings(
+                        Settings.builder()
+                                .put("index.number_of_replicas", 0)
+                                .put("index.refresh_interval", "-1"))
+                .execute().actionGet();
+        if (!response.isAcknowledged()) {
+            throw new TasteException("Failed to create " + name + " index.");
+        }
+        logger.info("Created {} for {}.", name, alias);
+        index = name;
+        return index;
+    }
+
+    /**
+     * Optimizes the index, restores replicas and switches the alias to it.
+     * Old indices are deleted except for the latest ones.
+     */
+    public void publish() {
+        if (index == null) {
+            return;
+        }
+
+        client.admin().indices().prepareRefresh(index).execute().actionGet();
+        if (maxNumSegments > 0) {
+            client.admin().indices().prepareForceMerge(index)
+                    .setMaxNumSegments(maxNumSegments).execute().actionGet();
+        }
+        client.admin()
+                .indices()
+                .prepareUpdateSettings(index)
+                .setSettings(
+                        Settings.builder()
+                                .put("index.number_of_replicas",
+                                        numOfReplicas)
+                                .put("index.refresh_interval",
+                                        refreshInterval)).execute()
+                .actionGet();
+
+        final List<String> aliasedIndices = getAliasedIndices();
+        final IndicesAliasesRequestBuilder builder = client.admin().indices()
+                .prepareAliases();
+        for (final String aliasedIndex : aliasedIndices) {
+            if (!aliasedIndex.equals(index)) {
+                builder.removeAlias(aliasedIndex, alias);
+            }
+        }
+        builder.addAlias(index, alias);
+        if (!builder.execute().actionGet().isAcknowledged()) {
+            throw new TasteException("Failed to switch " + alias + " to "
+                    + index);
+        }
+        logger.info("Switched {} from {} to {}.", alias, aliasedIndices, index);
+
+        prune();
+    }
+
+    protected void prune() {
+        final MetaData metaData = client.admin().cluster().prepareState()
+                .setMetaData(true).execute().actionGet().getState()
+                .getMetaData();
+        final List<String> indices = getIndices(metaData);
+        final int numOfDeleted = indices.size() - Math.max(1, numOfKeptIndices);
+        for (int i = 0; i < numOfDeleted; i++) {
+            final String name = indices.get(i);
+            if (name.equals(index)) {
+                continue;
+            }
+            try {
+                client.admin().indices().prepareDelete(name).execute()
+                        .actionGet();
+                logger.info("Deleted {}.", name);
+            } catch (final Exception e) {
+                logger.warn("Failed to delete {}.", e, name);
+            }
+        }
+    }
+
+    private List<String> getIndices(final MetaData metaData) {
+        final List<String> indices = new ArrayList<>();
+        for (final String name : metaData.getConcreteAllIndices()) {
+            if (indexPattern.matcher(name).matches()) {
+                indices.add(name);
+            }
+        }
+        Collections.sort(indices);
+        return indices;
+    }
+
+    private List<String> getAliasedIndices() {
+        final List<String> indices = new ArrayList<>();
+        final ImmutableOpenMap<String, List<AliasMetaData>> aliases = client
+                .admin().indices().prepareGetAliases(alias).execute()
+                .actionGet().getAliases();
+        for (final ObjectObjectCursor<String, List<AliasMetaData>> cursor : aliases) {
+            if (!cursor.value.isEmpty()) {
+                indices.add(cursor.key);
+            }
+        }
+        return indices;
+    }
+}
@@ -1,18 +1,27 @@
 package org.codelibs.elasticsearch.taste.writer;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.codelibs.elasticsearch.taste.TasteConstants;
 import org.codelibs.elasticsearch.taste.recommender.RecommendedItem;
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
 
 import com.google.common.cache.Cache;
 
 public class ItemWriter extends ObjectWriter {
+    private static final ESLogger logger = Loggers.getLogger(ItemWriter.class);
 
     protected String targetIdField;
 
@@ -34,6 +43,10 @@ public class ItemWriter extends ObjectWriter {
 
     protected Cache<Long, Map<String, Object>> cache;
 
+    protected int batchSize = 100;
+
+    private final List<PendingResult> pendingResults = new ArrayList<>();
+
     public ItemWriter(final Client client, final String index,
             final String type, final String targetIdField, final int capacity) {
         super(client, index, type, capacity);
@@ -42,25 +55,112 @@ public class ItemWriter extends ObjectWriter {
 
     public void write(final long id,
             final List<RecommendedItem> recommendedItems) {
-        final Map<String, Object> rootObj = new HashMap<>();
-        rootObj.put(targetIdField, id);
-        if (verbose) {
-            final GetResponse response = client
-                    .prepareGet(targetIndex, targetType, Long.toString(id))
-                    .execute().actionGet();
-            if (response.isExists()) {
-                final Map<String, Object> map = response.getSourceAsMap();
+        if (!verbose) {
+            write(createRootObject(id, recommendedItems, null, null), id);
+            return;
+        }
+
+        List<PendingResult> batch = null;
+        synchronized (pendingResults) {
+            pendingResults.add(new PendingResult(id, recommendedItems));
+            if (pendingResults.size() >= batchSize) {
+                batch = new ArrayList<>(pendingResults);
+                pendingResults.clear();
+            }
+        }
+        if (batch != null) {
+            writeVerbose(batch);
+        }
+    }
+
+    /**
+     * Fetches target and item sources for the batch with one multi-get and
+     * writes results with them.
+     */
+    protected void writeVerbose(final List<PendingResult> batch) {
+        final MultiGetRequestBuilder builder = client.prepareMultiGet();
+        for (final PendingResult result : batch) {
+            builder.add(targetIndex, targetType, Long.toString(result.id));
+        }
+        final Map<Long, Map<String, Object>> itemMaps = new HashMap<>();
+        final Set<Long> missingItemIDs = new LinkedHashSet<>();
+        for (final PendingResult result : batch) {
+            for (final RecommendedItem recommendedItem : result.recommendedItems) {
+                final long itemID = recommendedItem.getItemID();
+                if (itemMaps.containsKey(itemID)
+                        || missingItemIDs.contains(itemID)) {
+                    continue;
+                }
+                final Map<String, Object> map = cache != null ? cache
+                        .getIfPresent(itemID) : null;
+                if (map != null) {
+                    itemMaps.put(itemID, map);
+                } else {
+                    missingItemIDs.add(itemID);
+                }
+            }
+        }
+        for (final Long itemID : missingItemIDs) {
+            builder.add(itemIndex, itemType, itemID.toString());
+        }
+
+        final Map<Long, Map<String, Object>> targetMaps = new HashMap<>();
+        final MultiGetItemResponse[] responses;
+        try {
+            responses = builder.execute().actionGet().getResponses();
+        } catch (final ElasticsearchException e) {
+            // results are written without sources rather than dropped
+            logger.warn("Failed to get sources for {}: {}", e,
+                    getIDs(batch), e.getMessage());
+            for (final PendingResult result : batch) {
+                write(createRootObject(result.id, result.recommendedItems,
+                        null, itemMaps), result.id);
+            }
+            return;
+        }
+        // responses are in the order of requests: targets and then items
+        for (int i = 0; i < batch.size(); i++) {
+            final Map<String, Object> map = getSourceAsMap(responses[i]);
+            if (map != null) {
                 map.remove(targetIdField);
-                rootObj.putAll(map);
+                targetMaps.put(batch.get(i).id, map);
             }
         }
+        int pos = batch.size();
+        for (final Long itemID : missingItemIDs) {
+            final Map<String, Object> map = getSourceAsMap(responses[pos++]);
+            if (map != null) {
+                map.remove(itemIdField);
+                map.remove(valueField);
+                if (cache != null) {
+                    cache.put(itemID, map);
+                }
+                itemMaps.put(itemID, map);
+            }
+        }
+
+        for (final PendingResult result : batch) {
+            write(createRootObject(result.id, result.recommendedItems,
+                    targetMaps.get(result.id), itemMaps), result.id);
+        }
+    }
+
+    protected Map<String, Object> createRootObject(final long id,
+            final List<RecommendedItem> recommendedItems,
+            final Map<String, Object> targetMap,
+            final Map<Long, Map<String, Object>> itemMaps) {
+        final Map<String, Object> rootObj = new HashMap<>();
+        rootObj.put(targetIdField, id);
+        if (targetMap != null) {
+            rootObj.putAll(targetMap);
+        }
         final List<Map<String, Object>> itemList = new ArrayList<>();
         for (final RecommendedItem recommendedItem : recommendedItems) {
             final Map<String, Object> item = new HashMap<>();
             item.put(itemIdField, recommendedItem.getItemID());
             item.put(valueField, recommendedItem.getValue());
-            if (verbose) {
-                final Map<String, Object> map = getItemMap(recommendedItem
+            if (itemMaps != null) {
+                final Map<String, Object> map = itemMaps.get(recommendedItem
                         .getItemID());
                 if (map != null) {
                     item.putAll(map);
@@ -69,31 +169,46 @@ public class ItemWriter extends ObjectWriter {
             itemList.add(item);
         }
         rootObj.put(itemsField, itemList);
+        return rootObj;
+    }
 
-        write(rootObj);
+    private static List<Long> getIDs(final List<PendingResult> batch) {
+        final List<Long> ids = new ArrayList<>(batch.size());
+        for (final PendingResult result : batch) {
+            ids.add(result.id);
+        }
+        return ids;
+    }
 
+    private Map<String, Object> getSourceAsMap(
+            final MultiGetItemResponse response) {
+        if (response.isFailed()) {
+            logger.warn("Failed to get {}/{}/{}: {}", response.getIndex(),
+                    response.getType(), response.getId(), response
+                            .getFailure().getMessage());
+            return null;
+        }
+        final GetResponse getResponse = response.getResponse();
+        if (getResponse.isExists()) {
+            return getResponse.getSourceAsMap();
+        }
+        return null;
     }
 
-    protected Map<String, Object> getItemMap(final long itemID) {
-        if (cache != null) {
-            final Map<String, Object> map = cache.getIfPresent(itemID);
-            if (map != null) {
-                return map;
-            }
+    @Override
+    public void close() throws IOException {
+        final List<PendingResult> batch;
+        synchronized (pendingResults) {
+            batch = new ArrayList<>(pendingResults);
+            pendingResults.clear();
         }
-        final GetResponse response = client
-                .prepareGet(itemIndex, itemType, Long.toString(itemID))
-                .execute().actionGet();
-        if (response.isExists()) {
-            final Map<String, Object> map = response.getSourceAsMap();
-            map.remove(itemIdField);
-            map.remove(valueField);
-            if (cache != null) {
-                cache.put(itemID, map);
+        try {
+            if (!batch.isEmpty()) {
+                writeVerbose(batch);
             }
-            return map;
+        } finally {
+            super.close();
         }
-        return null;
     }
 
     public void setTargetIndex(final String targetIndex) {
@@ -132,4 +247,20 @@ public class ItemWriter extends ObjectWriter {
         this.verbose = verbose;
     }
 
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    protected static class PendingResult {
+        protected final long id;
+
+        protected final List<RecommendedItem> recommendedItems;
+
+        protected PendingResult(final long id,
+                final List<RecommendedItem> recommendedItems) {
+            this.id = id;
+            this.recommendedItems = recommendedItems;
+        }
+    }
+
 }
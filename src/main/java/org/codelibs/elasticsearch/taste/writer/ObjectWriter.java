@@ -2,81 +2,247 @@ package org.codelibs.elasticsearch.taste.writer;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.codelibs.elasticsearch.taste.exception.TasteException;
-import org.elasticsearch.action.ActionListener;
-import org.elasticsearch.action.index.IndexResponse;
+import org.codelibs.elasticsearch.taste.util.SettingsUtils;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 
 public class ObjectWriter extends AbstractWriter {
-    private static final ESLogger logger = Loggers.getLogger(ItemWriter.class);
+    private static final ESLogger logger = Loggers
+            .getLogger(ObjectWriter.class);
 
-    private ArrayBlockingQueue<Boolean> queue;
+    protected int concurrentRequests;
+
+    protected int bulkActions = 1000;
+
+    protected ByteSizeValue bulkSize = new ByteSizeValue(5, ByteSizeUnit.MB);
+
+    protected TimeValue flushInterval = TimeValue.timeValueSeconds(5);
+
+    protected TimeValue retryDelay = TimeValue.timeValueMillis(50);
+
+    protected int maxRetries = 8;
+
+    protected final LongAdder numOfWritten = new LongAdder();
+
+    protected final LongAdder numOfFailures = new LongAdder();
+
+    protected WriteListener writeListener;
+
+    protected boolean overwrite = false;
+
+    private volatile BulkProcessor bulkProcessor;
 
     public ObjectWriter(final Client client, final String index,
             final String type, final int capacity) {
         super(client, index, type);
-        queue = new ArrayBlockingQueue<>(capacity);
+        concurrentRequests = capacity;
     }
 
-    public void write(final Map<String, Object> rootObj) {
-        countUp();
-        try {
-            rootObj.put(timestampField, new Date());
-
-            client.prepareIndex(index, type).setSource(rootObj)
-                    .execute(new ActionListener<IndexResponse>() {
-                        @Override
-                        public void onResponse(final IndexResponse response) {
-                            if (logger.isDebugEnabled()) {
-                                logger.debug(
-                                        "Response: {}/{}/{}, Created: {}, Version: {}",
-                                        response.getIndex(), response.getType(),
-                                        response.getId(), response.isCreated(),
-                                        response.getVersion());
+    /**
+     * Reads bulk_actions, bulk_size, concurrent_requests, flush_interval,
+     * max_retries and retry_delay from writer settings.
+     */
+    public void setBulkSettings(final Map<String, Object> writerSettings) {
+        if (writerSettings == null) {
+            return;
+        }
+        bulkActions = SettingsUtils.get(writerSettings, "bulk_actions",
+                bulkActions);
+        bulkSize = ByteSizeValue.parseBytesSizeValue(
+                SettingsUtils.get(writerSettings, "bulk_size",
+                        bulkSize.toString()), "bulk_size");
+        concurrentRequests = SettingsUtils.get(writerSettings,
+                "concurrent_requests", concurrentRequests);
+        flushInterval = TimeValue.parseTimeValue(
+                SettingsUtils.get(writerSettings, "flush_interval",
+                        flushInterval.toString()), null, "flush_interval");
+        maxRetries = SettingsUtils.get(writerSettings, "max_retries",
+                maxRetries);
+        retryDelay = TimeValue.parseTimeValue(
+                SettingsUtils.get(writerSettings, "retry_delay",
+                        retryDelay.toString()), null, "retry_delay");
+    }
+
+    @Override
+    public void open() {
+        super.open();
+
+        bulkProcessor = BulkProcessor
+                .builder(client, new BulkProcessor.Listener() {
+                    @Override
+                    public void beforeBulk(final long executionId,
+                            final BulkRequest request) {
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Sending {} requests to {}/{}.",
+                                    request.numberOfActions(), index, type);
+                        }
+                    }
+
+                    @Override
+                    public void afterBulk(final long executionId,
+                            final BulkRequest request,
+                            final BulkResponse response) {
+                        final Map<String, Long> targetIDs = getTargetIDs(request);
+                        int failures = 0;
+                        for (final BulkItemResponse item : response) {
+                            final Long targetID = targetIDs.get(item.getId());
+                            if (item.isFailed()) {
+                                failures++;
+                                if (targetID != null) {
+                                    writeListener.onFailure(targetID);
+                                }
+                            } else if (targetID != null) {
+                                writeListener.onWritten(targetID);
                             }
-                            countDown();
                         }
+                        if (failures > 0) {
+                            logger.error(
+                                    "Failed to write {} objects to {}/{}: {}",
+                                    failures, index, type,
+                                    response.buildFailureMessage());
+                        }
+                        numOfFailures.add(failures);
+                        numOfWritten.add(request.numberOfActions()
+                                - failures);
+                    }
 
-                        @Override
-                        public void onFailure(final Throwable e) {
-                            logger.error("Failed to write " + rootObj, e);
-                            countDown();
+                    @Override
+                    public void afterBulk(final long executionId,
+                            final BulkRequest request,
+                            final Throwable failure) {
+                        logger.error("Failed to write {} objects to {}/{}.",
+                                failure, request.numberOfActions(), index,
+                                type);
+                        numOfFailures.add(request.numberOfActions());
+                        for (final Long targetID : getTargetIDs(request)
+                                .values()) {
+                            writeListener.onFailure(targetID);
                         }
-                    });
-        } catch (final Throwable t) {
-            countDown();
-            throw new TasteException(t);
+                    }
+                }).setName("taste-" + index + "-" + type)
+                .setBulkActions(bulkActions).setBulkSize(bulkSize)
+                .setConcurrentRequests(concurrentRequests)
+                .setFlushInterval(flushInterval)
+                .setBackoffPolicy(
+                        BackoffPolicy.exponentialBackoff(retryDelay,
+                                maxRetries)).build();
+    }
+
+    public void write(final Map<String, Object> rootObj) {
+        if (bulkProcessor == null) {
+            throw new TasteException(index + "/" + type + " is not opened.");
         }
+        rootObj.put(timestampField, new Date());
+        bulkProcessor.add(client.prepareIndex(index, type).setSource(rootObj)
+                .request());
     }
 
-    @Override
-    public void close() throws IOException {
-        for (int i = 0; i < 60; i++) {
-            if (queue.isEmpty()) {
-                break;
-            }
-            try {
-                Thread.sleep(1000L);
-            } catch (InterruptedException e) {
-                break;
-            }
+    /**
+     * Writes an object of the target. The write listener receives the
+     * target when its bulk request completes. An ID is generated here
+     * because responses of retried requests are not in the order of
+     * requests. If overwrite is true, the target ID is used as the ID, so
+     * the object replaces the previous object of the target.
+     */
+    public void write(final Map<String, Object> rootObj, final long targetID) {
+        if (writeListener == null && !overwrite) {
+            write(rootObj);
+            return;
+        }
+        if (bulkProcessor == null) {
+            throw new TasteException(index + "/" + type + " is not opened.");
+        }
+        rootObj.put(timestampField, new Date());
+        final IndexRequest request;
+        if (overwrite) {
+            request = client.prepareIndex(index, type, Long.toString(targetID))
+                    .setSource(rootObj).request();
+        } else {
+            request = client.prepareIndex(index, type, Strings.base64UUID())
+                    .setCreate(true).setSource(rootObj).request();
         }
+        bulkProcessor.add(request, writeListener != null ? targetID : null);
     }
 
-    protected void countUp() {
-        try {
-            queue.put(Boolean.TRUE);
-        } catch (InterruptedException e) {
-            throw new TasteException(e);
+    private static Map<String, Long> getTargetIDs(final BulkRequest request) {
+        final Map<String, Long> targetIDs = new HashMap<>();
+        final List<Object> payloads = request.payloads();
+        if (payloads == null) {
+            return targetIDs;
+        }
+        for (int i = 0; i < payloads.size(); i++) {
+            final Object payload = payloads.get(i);
+            if (payload instanceof Long) {
+                targetIDs.put(((IndexRequest) request.requests().get(i)).id(),
+                        (Long) payload);
+            }
         }
+        return targetIDs;
     }
 
-    protected void countDown() {
-        queue.poll();
+    /**
+     * Sets a listener which receives targets of objects written by
+     * {@link #write(Map, long)}. It is called from threads of bulk
+     * requests.
+     */
+    public void setWriteListener(final WriteListener writeListener) {
+        this.writeListener = writeListener;
+    }
+
+    public void setOverwrite(final boolean overwrite) {
+        this.overwrite = overwrite;
+    }
+
+    public long getNumOfWritten() {
+        return numOfWritten.sum();
+    }
+
+    public long getNumOfFailures() {
+        return numOfFailures.sum();
+    }
+
+    /**
+     * Flushes pending objects and waits until all bulk requests complete.
+     */
+    @Override
+    public void close() throws IOException {
+        final BulkProcessor processor = bulkProcessor;
+        if (processor == null) {
+            return;
+        }
+        bulkProcessor = null;
+        // computed objects are flushed even if the action is stopped
+        final boolean interrupted = Thread.interrupted();
+        try {
+            processor.awaitClose(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            logger.warn("Interrupted while closing a writer for {}/{}.",
+                    index, type);
+            Thread.currentThread().interrupt();
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        logger.info("Wrote {} objects to {}/{} ({} failures).",
+                numOfWritten.sum(), index, type, numOfFailures.sum());
     }
 }
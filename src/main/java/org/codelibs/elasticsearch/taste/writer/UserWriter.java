@@ -66,7 +66,7 @@ public class UserWriter extends ObjectWriter {
         }
         rootObj.put(usersField, userList);
 
-        write(rootObj);
+        write(rootObj, userID);
 
     }
 
@@ -0,0 +1,17 @@
+package org.codelibs.elasticsearch.taste.writer;
+
+/**
+ * Receives targets of objects when their bulk requests complete.
+ */
+public interface WriteListener {
+
+    /**
+     * Called when an object of the target is stored.
+     */
+    void onWritten(long targetID);
+
+    /**
+     * Called when an object of the target is not stored after retries.
+     */
+    void onFailure(long targetID);
+}
@@ -0,0 +1,120 @@
+package org.codelibs.elasticsearch.taste.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongPairDoubleCacheTest {
+    private static final int NUM_OF_OPERATIONS = 200000;
+
+    @Test
+    public void test_withoutEviction() {
+        // all keys fit, so every cached key is found
+        runRandomOperations(new Random(1), 4096, 40, false);
+    }
+
+    @Test
+    public void test_withEviction() {
+        runRandomOperations(new Random(2), 256, 100, true);
+    }
+
+    @Test
+    public void test_singleStripe() {
+        runRandomOperations(new Random(3), 8, 6, true);
+    }
+
+    @Test
+    public void test_clear() {
+        final CountingLoader loader = new CountingLoader();
+        final LongPairDoubleCache cache = new LongPairDoubleCache(loader, 128);
+        for (long i = 0; i < 10; i++) {
+            cache.get(i, i + 1);
+        }
+        assertEquals(10, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        loader.count = 0;
+        cache.get(0, 1);
+        assertEquals(1, loader.count);
+    }
+
+    /**
+     * Compares get/removeKeysContaining with a reference map of cached
+     * values. A value returned without loading must be the cached one, and a
+     * removed key must be loaded again.
+     *
+     * @param numOfIDs IDs in keys are in [0, numOfIDs)
+     * @param evicting true if entries may be evicted
+     */
+    private void runRandomOperations(final Random random,
+            final int maxEntries, final int numOfIDs, final boolean evicting) {
+        final CountingLoader loader = new CountingLoader();
+        final LongPairDoubleCache cache = new LongPairDoubleCache(loader,
+                maxEntries);
+        final Map<List<Long>, Double> reference = new HashMap<>();
+        for (int n = 0; n < NUM_OF_OPERATIONS; n++) {
+            final long first = random.nextInt(numOfIDs);
+            final long second = random.nextInt(numOfIDs);
+            if (random.nextInt(20) == 0) {
+                cache.removeKeysContaining(first);
+                final Iterator<List<Long>> it = reference.keySet().iterator();
+                while (it.hasNext()) {
+                    final List<Long> key = it.next();
+                    if (key.get(0) == first || key.get(1) == first) {
+                        it.remove();
+                    }
+                }
+                continue;
+            }
+
+            // values of the loader change, so a stale entry is detected
+            loader.version = n;
+            loader.count = 0;
+            final double value = cache.get(first, second);
+            final List<Long> key = Arrays.asList(first, second);
+            final Double cached = reference.get(key);
+            if (loader.count == 0) {
+                assertTrue("hit for an uncached key " + key, cached != null);
+                assertEquals(cached, value, 0);
+            } else {
+                assertEquals(1, loader.count);
+                assertEquals(CountingLoader.valueOf(first, second, n), value,
+                        0);
+                if (!evicting) {
+                    assertTrue("miss for a cached key " + key, cached == null);
+                }
+                reference.put(key, value);
+            }
+
+            assertTrue(cache.size() <= maxEntries);
+            if (!evicting) {
+                assertEquals(reference.size(), cache.size());
+            }
+        }
+    }
+
+    private static class CountingLoader implements LongPairDoubleCache.Loader {
+        private int version;
+
+        private int count;
+
+        @Override
+        public double load(final long first, final long second) {
+            count++;
+            return valueOf(first, second, version);
+        }
+
+        private static double valueOf(final long first, final long second,
+                final int version) {
+            return first * 1000003.0 + second + version / 1000000.0;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.codelibs.elasticsearch.taste.neighborhood;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.codelibs.elasticsearch.taste.common.FastByIDMap;
+import org.codelibs.elasticsearch.taste.common.LongPrimitiveIterator;
+import org.codelibs.elasticsearch.taste.model.DataModel;
+import org.codelibs.elasticsearch.taste.model.GenericDataModel;
+import org.codelibs.elasticsearch.taste.model.GenericUserPreferenceArray;
+import org.codelibs.elasticsearch.taste.model.PreferenceArray;
+import org.codelibs.elasticsearch.taste.recommender.SimilarUser;
+import org.codelibs.elasticsearch.taste.similarity.AveragingPreferenceInferrer;
+import org.codelibs.elasticsearch.taste.similarity.LogLikelihoodSimilarity;
+import org.codelibs.elasticsearch.taste.similarity.PearsonCorrelationSimilarity;
+import org.codelibs.elasticsearch.taste.similarity.TanimotoCoefficientSimilarity;
+import org.codelibs.elasticsearch.taste.similarity.UncenteredCosineSimilarity;
+import org.codelibs.elasticsearch.taste.similarity.UserSimilarity;
+import org.junit.Test;
+
+public class AllPairsUserNeighborhoodTest {
+    private static final int NUM_OF_USERS = 150;
+
+    private static final int NUM_OF_ITEMS = 80;
+
+    @Test
+    public void test_tanimoto() {
+        final DataModel dataModel = createDataModel(new Random(1));
+        final UserSimilarity similarity = new TanimotoCoefficientSimilarity(
+                dataModel);
+        for (final double threshold : new double[] { 0.0, 0.05, 0.1, 0.2,
+                0.3, 0.5, 0.8, 1.0 }) {
+            assertSameNeighbors(threshold, similarity, dataModel);
+        }
+    }
+
+    @Test
+    public void test_pearsonCorrelation() {
+        final DataModel dataModel = createDataModel(new Random(2));
+        final UserSimilarity similarity = new PearsonCorrelationSimilarity(
+                dataModel);
+        for (final double threshold : new double[] { -1.0, -0.5, 0.0, 0.5,
+                0.9, 1.0 }) {
+            assertSameNeighbors(threshold, similarity, dataModel);
+        }
+    }
+
+    @Test
+    public void test_uncenteredCosine() {
+        final DataModel dataModel = createDataModel(new Random(3));
+        final UserSimilarity similarity = new UncenteredCosineSimilarity(
+                dataModel);
+        for (final double threshold : new double[] { 0.0, 0.5, 0.8, 0.9,
+                0.99, 1.0 }) {
+            assertSameNeighbors(threshold, similarity, dataModel);
+        }
+    }
+
+    @Test
+    public void test_logLikelihood() {
+        final DataModel dataModel = createDataModel(new Random(4));
+        final UserSimilarity similarity = new LogLikelihoodSimilarity(
+                dataModel);
+        for (final double threshold : new double[] { 0.0, 0.5, 0.8, 0.9,
+                0.95, 0.99 }) {
+            assertSameNeighbors(threshold, similarity, dataModel);
+        }
+    }
+
+    @Test
+    public void test_preferenceInferrer() {
+        // all users are scored
+        final DataModel dataModel = createDataModel(new Random(5));
+        final UserSimilarity similarity = new PearsonCorrelationSimilarity(
+                dataModel);
+        similarity.setPreferenceInferrer(new AveragingPreferenceInferrer(
+                dataModel));
+        for (final double threshold : new double[] { 0.0, 0.5 }) {
+            assertSameNeighbors(threshold, similarity, dataModel);
+        }
+    }
+
+    /**
+     * Compares neighbors of every user with {@link ThresholdUserNeighborhood}.
+     */
+    private void assertSameNeighbors(final double threshold,
+            final UserSimilarity similarity, final DataModel dataModel) {
+        final UserNeighborhood expectedNeighborhood = new ThresholdUserNeighborhood(
+                threshold, similarity, dataModel);
+        final UserNeighborhood neighborhood = new AllPairsUserNeighborhood(
+                threshold, similarity, dataModel);
+        final LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+        while (userIDs.hasNext()) {
+            final long userID = userIDs.nextLong();
+            assertEquals(similarity + " at " + threshold + " for " + userID,
+                    toMap(expectedNeighborhood.getUserNeighborhood(userID)),
+                    toMap(neighborhood.getUserNeighborhood(userID)));
+        }
+    }
+
+    private static Map<Long, Double> toMap(final List<SimilarUser> users) {
+        final Map<Long, Double> map = new HashMap<>();
+        for (final SimilarUser user : users) {
+            map.put(user.getUserID(), user.getSimilarity());
+        }
+        return map;
+    }
+
+    /**
+     * Creates users with 1 to 30 items. Items are skewed, so the orders of
+     * items by frequency differ from their IDs, and some users share all
+     * items.
+     */
+    private static DataModel createDataModel(final Random random) {
+        final FastByIDMap<PreferenceArray> userData = new FastByIDMap<>();
+        for (int u = 0; u < NUM_OF_USERS; u++) {
+            final long userID = u + 1;
+            final PreferenceArray prefs;
+            if (u % 10 == 1) {
+                // the same items as the previous user
+                prefs = new GenericUserPreferenceArray(userData.get(userID - 1)
+                        .length());
+                for (int i = 0; i < prefs.length(); i++) {
+                    prefs.setUserID(i, userID);
+                    prefs.setItemID(i, userData.get(userID - 1).getItemID(i));
+                    prefs.setValue(i, 1 + random.nextInt(5));
+                }
+            } else {
+                final Map<Long, Float> items = new HashMap<>();
+                final int numOfItems = 1 + random.nextInt(30);
+                while (items.size() < numOfItems) {
+                    final double r = random.nextDouble();
+                    items.put((long) (r * r * NUM_OF_ITEMS),
+                            (float) (1 + random.nextInt(5)));
+                }
+                prefs = new GenericUserPreferenceArray(items.size());
+                int i = 0;
+                for (final Map.Entry<Long, Float> entry : items.entrySet()) {
+                    prefs.setUserID(i, userID);
+                    prefs.setItemID(i, entry.getKey());
+                    prefs.setValue(i, entry.getValue());
+                    i++;
+                }
+            }
+            userData.put(userID, prefs);
+        }
+        return new GenericDataModel(userData);
+    }
+}
@@ -0,0 +1,167 @@
+package org.codelibs.elasticsearch.taste.recommender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.codelibs.elasticsearch.taste.common.LongPrimitiveArrayIterator;
+import org.codelibs.elasticsearch.taste.exception.NoSuchItemException;
+import org.codelibs.elasticsearch.taste.exception.NoSuchUserException;
+import org.junit.Test;
+
+public class TopItemsTest {
+    private static final int NUM_OF_IDS = 500;
+
+    @Test
+    public void test_getTopItems() {
+        final Random random = new Random(1);
+        for (int n = 0; n < 200; n++) {
+            final double[] values = createValues(random);
+            final Set<Long> filteredIDs = createFilteredIDs(random);
+            final int howMany = random.nextInt(NUM_OF_IDS + 10);
+            final List<RecommendedItem> topItems = TopItems.getTopItems(
+                    howMany, new LongPrimitiveArrayIterator(createIDs()),
+                    createRescorer(filteredIDs),
+                    (TopItems.LongEstimator) id -> {
+                        if (id % 97 == 0) {
+                            throw new NoSuchItemException(id);
+                        }
+                        return values[(int) id];
+                    });
+
+            // recommended items are compared by float values
+            final List<Double> expected = new ArrayList<>();
+            for (int id = 0; id < NUM_OF_IDS; id++) {
+                if (isCandidate(id, values, filteredIDs)) {
+                    expected.add((double) (float) values[id]);
+                }
+            }
+            Collections.sort(expected, Collections.reverseOrder());
+
+            assertEquals(Math.min(howMany, expected.size()), topItems.size());
+            final Set<Long> ids = new HashSet<>();
+            for (int i = 0; i < topItems.size(); i++) {
+                final RecommendedItem item = topItems.get(i);
+                final long id = item.getItemID();
+                assertTrue(ids.add(id));
+                assertTrue(isCandidate(id, values, filteredIDs));
+                assertEquals((float) values[(int) id], item.getValue(), 0);
+                assertEquals(expected.get(i), item.getValue(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void test_getTopUsers() {
+        final Random random = new Random(2);
+        for (int n = 0; n < 200; n++) {
+            final double[] values = createValues(random);
+            final Set<Long> filteredIDs = createFilteredIDs(random);
+            final int howMany = random.nextInt(NUM_OF_IDS + 10);
+            final List<SimilarUser> topUsers = TopItems.getTopUsers(howMany,
+                    new LongPrimitiveArrayIterator(createIDs()),
+                    createRescorer(filteredIDs),
+                    (TopItems.LongEstimator) id -> {
+                        if (id % 97 == 0) {
+                            throw new NoSuchUserException(id);
+                        }
+                        return values[(int) id];
+                    });
+
+            final List<Double> expected = new ArrayList<>();
+            for (int id = 0; id < NUM_OF_IDS; id++) {
+                if (isCandidate(id, values, filteredIDs)) {
+                    expected.add(values[id]);
+                }
+            }
+            Collections.sort(expected, Collections.reverseOrder());
+
+            assertEquals(Math.min(howMany, expected.size()), topUsers.size());
+            final Set<Long> ids = new HashSet<>();
+            for (int i = 0; i < topUsers.size(); i++) {
+                final SimilarUser user = topUsers.get(i);
+                final long id = user.getUserID();
+                assertTrue(ids.add(id));
+                assertTrue(isCandidate(id, values, filteredIDs));
+                assertEquals(values[(int) id], user.getSimilarity(), 0);
+                assertEquals(expected.get(i), user.getSimilarity(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void test_empty() {
+        assertTrue(TopItems.getTopItems(0,
+                new LongPrimitiveArrayIterator(createIDs()), null,
+                (TopItems.LongEstimator) id -> id).isEmpty());
+        assertTrue(TopItems.getTopItems(10,
+                new LongPrimitiveArrayIterator(new long[0]), null,
+                (TopItems.LongEstimator) id -> id).isEmpty());
+        assertTrue(TopItems.getTopUsers(10,
+                new LongPrimitiveArrayIterator(createIDs()), null,
+                (TopItems.LongEstimator) id -> Double.NaN).isEmpty());
+    }
+
+    private static long[] createIDs() {
+        final long[] ids = new long[NUM_OF_IDS];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        return ids;
+    }
+
+    /**
+     * Creates values with ties and NaN.
+     */
+    private static double[] createValues(final Random random) {
+        final double[] values = new double[NUM_OF_IDS];
+        for (int i = 0; i < values.length; i++) {
+            switch (random.nextInt(10)) {
+            case 0:
+                values[i] = Double.NaN;
+                break;
+            case 1:
+                values[i] = random.nextInt(5);
+                break;
+            default:
+                values[i] = random.nextGaussian();
+                break;
+            }
+        }
+        return values;
+    }
+
+    private static Set<Long> createFilteredIDs(final Random random) {
+        final Set<Long> filteredIDs = new HashSet<>();
+        for (int i = 0; i < NUM_OF_IDS / 10; i++) {
+            filteredIDs.add((long) random.nextInt(NUM_OF_IDS));
+        }
+        return filteredIDs;
+    }
+
+    private static IDRescorer createRescorer(final Set<Long> filteredIDs) {
+        return new IDRescorer() {
+            @Override
+            public double rescore(final long id, final double originalScore) {
+                return originalScore;
+            }
+
+            @Override
+            public boolean isFiltered(final long id) {
+                return filteredIDs.contains(id);
+            }
+        };
+    }
+
+    private static boolean isCandidate(final long id, final double[] values,
+            final Set<Long> filteredIDs) {
+        return id % 97 != 0 && !filteredIDs.contains(id)
+                && !Double.isNaN(values[(int) id]);
+    }
+}
@@ -0,0 +1,130 @@
+package org.codelibs.elasticsearch.taste.recommender.svd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import org.codelibs.elasticsearch.taste.common.FastByIDMap;
+import org.codelibs.elasticsearch.taste.common.Refreshable;
+import org.codelibs.elasticsearch.taste.model.DataModel;
+import org.codelibs.elasticsearch.taste.model.GenericDataModel;
+import org.codelibs.elasticsearch.taste.model.GenericUserPreferenceArray;
+import org.codelibs.elasticsearch.taste.model.PreferenceArray;
+import org.codelibs.elasticsearch.taste.recommender.AllUnknownItemsCandidateItemsStrategy;
+import org.codelibs.elasticsearch.taste.recommender.RecommendedItem;
+import org.junit.Test;
+
+public class BlockedTopItemsTest {
+
+    @Test
+    public void test_oneTile() {
+        // 4 users at a time, 3 remaining users and a user without features
+        assertSameAsRecommend(new Random(1), 3, 50, 11, 10);
+    }
+
+    @Test
+    public void test_tiles() {
+        // 200 features make tiles of 81 items
+        assertSameAsRecommend(new Random(2), 200, 300, 9, 20);
+    }
+
+    @Test
+    public void test_excludedItems() {
+        // users prefer most of the items, so fewer items than howMany remain
+        assertSameAsRecommend(new Random(3), 8, 30, 6, 25);
+    }
+
+    /**
+     * Compares the batch recommendation of SVDRecommender with the
+     * recommendation of each user.
+     */
+    private void assertSameAsRecommend(final Random random,
+            final int numFeatures, final int numItems, final int numUsers,
+            final int howMany) {
+        final long[] userIDs = new long[numUsers];
+        final FastByIDMap<PreferenceArray> userData = new FastByIDMap<>();
+        for (int u = 0; u < numUsers; u++) {
+            userIDs[u] = u * 10 + 1;
+            // the last user prefers all items, so candidates of
+            // recommend(long, int) are all items of the factorization
+            final boolean last = u == numUsers - 1;
+            final int numPrefs;
+            if (last) {
+                numPrefs = numItems;
+            } else if (howMany > numItems / 2) {
+                numPrefs = numItems - howMany / 2;
+            } else {
+                numPrefs = 1 + random.nextInt(numItems / 2);
+            }
+            final GenericUserPreferenceArray prefs = new GenericUserPreferenceArray(
+                    numPrefs);
+            for (int i = 0; i < numPrefs; i++) {
+                prefs.setUserID(i, userIDs[u]);
+                prefs.setItemID(i, last ? i : random.nextInt(numItems));
+                prefs.setValue(i, 1 + random.nextInt(5));
+            }
+            userData.put(userIDs[u], prefs);
+        }
+        // the last user has preferences, but no features
+        final long[] factorizedUserIDs = new long[numUsers - 1];
+        System.arraycopy(userIDs, 0, factorizedUserIDs, 0, numUsers - 1);
+        final long[] itemIDs = new long[numItems];
+        for (int i = 0; i < numItems; i++) {
+            itemIDs[i] = i;
+        }
+        final Factorization factorization = new Factorization(
+                factorizedUserIDs, itemIDs, createFeatures(random,
+                        factorizedUserIDs.length * numFeatures),
+                createFeatures(random, numItems * numFeatures), numFeatures);
+        final DataModel dataModel = new GenericDataModel(userData);
+        final SVDRecommender recommender = new SVDRecommender(dataModel,
+                new FixedFactorizer(factorization),
+                new AllUnknownItemsCandidateItemsStrategy(),
+                new NoPersistenceStrategy());
+
+        final List<List<RecommendedItem>> results = recommender.recommend(
+                userIDs, howMany);
+        assertEquals(numUsers, results.size());
+        for (int u = 0; u < numUsers - 1; u++) {
+            final List<RecommendedItem> expected = recommender.recommend(
+                    userIDs[u], howMany);
+            final List<RecommendedItem> actual = results.get(u);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getItemID(), actual.get(i)
+                        .getItemID());
+                assertEquals(expected.get(i).getValue(), actual.get(i)
+                        .getValue(), 0);
+            }
+        }
+        assertNull(results.get(numUsers - 1));
+    }
+
+    private static float[] createFeatures(final Random random, final int size) {
+        final float[] features = new float[size];
+        for (int i = 0; i < size; i++) {
+            features[i] = (float) random.nextGaussian();
+        }
+        return features;
+    }
+
+    private static class FixedFactorizer implements Factorizer {
+        private final Factorization factorization;
+
+        private FixedFactorizer(final Factorization factorization) {
+            this.factorization = factorization;
+        }
+
+        @Override
+        public Factorization factorize() {
+            return factorization;
+        }
+
+        @Override
+        public void refresh(final Collection<Refreshable> alreadyRefreshed) {
+        }
+    }
+}
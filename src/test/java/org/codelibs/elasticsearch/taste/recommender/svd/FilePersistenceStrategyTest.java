@@ -0,0 +1,146 @@
+package org.codelibs.elasticsearch.taste.recommender.svd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FilePersistenceStrategyTest {
+    private static final int NUM_FEATURES = 3;
+
+    private File file;
+
+    @Before
+    public void setup() throws Exception {
+        file = File.createTempFile("taste", ".factorization");
+        file.delete();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void test_roundTrip() throws Exception {
+        // 4 rows in a buffer, so features are split into several buffers
+        final FilePersistenceStrategy strategy = new FilePersistenceStrategy(
+                file) {
+            @Override
+            protected int getRowShift(final int numFeatures) {
+                return 2;
+            }
+        };
+        assertNull(strategy.load());
+
+        final Factorization factorization = createFactorization(new Random(1),
+                new long[] { 30, 10, 90, 20, 50, 70, 60, 80, 40, 100 },
+                new long[] { 7, 3, 5, 1, 6, 2, 4 });
+        strategy.maybePersist(factorization);
+        assertTrue(file.exists());
+
+        final Factorization loaded = strategy.load();
+        assertTrue(loaded instanceof MappedFactorization);
+        assertEquals(NUM_FEATURES, loaded.numFeatures());
+        assertEquals(factorization.numUsers(), loaded.numUsers());
+        assertEquals(factorization.numItems(), loaded.numItems());
+        for (int u = 0; u < factorization.numUsers(); u++) {
+            final long userID = factorization.getUserID(u);
+            final int userIndex = loaded.userIndex(userID);
+            assertEquals(userID, loaded.getUserID(userIndex));
+            assertArrayEquals(factorization.getUserFeatures(userID),
+                    loaded.getUserFeatures(userID), 0);
+            for (int i = 0; i < factorization.numItems(); i++) {
+                final long itemID = factorization.getItemID(i);
+                assertEquals(factorization.dot(u, i),
+                        loaded.dot(userIndex, loaded.itemIndex(itemID)), 0);
+            }
+        }
+        for (int i = 0; i < factorization.numItems(); i++) {
+            final long itemID = factorization.getItemID(i);
+            assertEquals(itemID, loaded.getItemID(loaded.itemIndex(itemID)));
+            assertArrayEquals(factorization.getItemFeatures(itemID),
+                    loaded.getItemFeatures(itemID), 0);
+        }
+
+        // rows across buffers
+        final float[] rows = new float[7 * NUM_FEATURES];
+        loaded.copyUserFeatures(1, 8, rows, 0);
+        for (int u = 1; u < 8; u++) {
+            final double[] features = loaded.getUserFeatures(loaded
+                    .getUserID(u));
+            for (int f = 0; f < NUM_FEATURES; f++) {
+                assertEquals(features[f], rows[(u - 1) * NUM_FEATURES + f], 0);
+            }
+        }
+        loaded.copyItemFeatures(0, 7, rows, 0);
+        for (int i = 0; i < 7; i++) {
+            final double[] features = loaded.getItemFeatures(loaded
+                    .getItemID(i));
+            for (int f = 0; f < NUM_FEATURES; f++) {
+                assertEquals(features[f], rows[i * NUM_FEATURES + f], 0);
+            }
+        }
+
+        // the loaded factorization is not written again
+        final long lastModified = file.lastModified();
+        strategy.maybePersist(loaded);
+        assertEquals(lastModified, file.lastModified());
+    }
+
+    @Test
+    public void test_invalidFile() throws Exception {
+        final FilePersistenceStrategy strategy = new FilePersistenceStrategy(
+                file);
+        strategy.maybePersist(createFactorization(new Random(2), new long[] {
+                1, 2, 3 }, new long[] { 4, 5 }));
+        assertEquals(3, strategy.load().numUsers());
+
+        // truncated
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 4);
+        }
+        try {
+            strategy.load();
+            fail();
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("bytes are expected"));
+        }
+
+        // wrong magic
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(0);
+            raf.writeInt(0);
+        }
+        try {
+            strategy.load();
+            fail();
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("is not a factorization file"));
+        }
+    }
+
+    private static Factorization createFactorization(final Random random,
+            final long[] userIDs, final long[] itemIDs) {
+        final float[] userFeatures = new float[userIDs.length * NUM_FEATURES];
+        for (int i = 0; i < userFeatures.length; i++) {
+            userFeatures[i] = (float) random.nextGaussian();
+        }
+        final float[] itemFeatures = new float[itemIDs.length * NUM_FEATURES];
+        for (int i = 0; i < itemFeatures.length; i++) {
+            itemFeatures[i] = (float) random.nextGaussian();
+        }
+        return new Factorization(userIDs, itemIDs, userFeatures,
+                itemFeatures, NUM_FEATURES);
+    }
+}
@@ -0,0 +1,174 @@
+package org.codelibs.elasticsearch.taste.rest.handler;
+
+import static org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner.newConfigs;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner;
+import org.codelibs.elasticsearch.runner.net.Curl;
+import org.codelibs.elasticsearch.runner.net.CurlResponse;
+import org.codelibs.elasticsearch.taste.model.IndexInfo;
+import org.codelibs.elasticsearch.taste.similarity.precompute.ItemNeighbors;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.Settings.Builder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHits;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ItemsFromUserHandlerTest {
+    private static final String INDEX = "test";
+
+    private ElasticsearchClusterRunner runner;
+
+    private Client client;
+
+    @Before
+    public void setup() throws Exception {
+        final String clusterName = "es-taste-" + System.currentTimeMillis();
+        runner = new ElasticsearchClusterRunner();
+        runner.onBuild(new ElasticsearchClusterRunner.Builder() {
+            @Override
+            public void build(final int number, final Builder settingsBuilder) {
+                settingsBuilder.put("index.number_of_replicas", 0);
+                settingsBuilder.putArray("discovery.zen.ping.unicast.hosts",
+                        "localhost:9301-9305");
+                settingsBuilder.put("plugin.types",
+                        "org.codelibs.elasticsearch.taste.TastePlugin");
+            }
+        }).build(newConfigs().clusterName(clusterName).numOfNode(1));
+        runner.ensureYellow();
+        client = runner.client();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        runner.close();
+        runner.clean();
+    }
+
+    @Test
+    public void test_loadItemNeighbors() throws Exception {
+        // documents of a previous run are indexed first
+        indexNeighbors(1, 2, 0.5f, "2026-10-18T00:00:00.000Z");
+        indexNeighbors(1, 3, 0.9f, "2026-10-19T00:00:00.000Z");
+        indexNeighbors(4, 2, 0.7f, "2026-10-19T00:00:00.000Z");
+        indexNeighbors(4, 3, 0.1f, "2026-10-18T00:00:00.000Z");
+        runner.refresh();
+
+        final Map<String, Object> indexInfoSettings = new HashMap<>();
+        indexInfoSettings.put("index", INDEX);
+        final Map<String, Object> rootSettings = new HashMap<>();
+        rootSettings.put("index_info", indexInfoSettings);
+        final ItemsFromUserHandler handler = new ItemsFromUserHandler(
+                Settings.EMPTY, rootSettings, client, null, null);
+        final ItemNeighbors itemNeighbors = handler
+                .loadItemNeighbors(new IndexInfo(indexInfoSettings));
+
+        assertEquals(2, itemNeighbors.getNumOfItems());
+        assertEquals(0.9f, itemNeighbors.getSimilarity(1, 3), 0);
+        assertTrue(Float.isNaN(itemNeighbors.getSimilarity(1, 2)));
+        assertEquals(0.7f, itemNeighbors.getSimilarity(4, 2), 0);
+        assertTrue(Float.isNaN(itemNeighbors.getSimilarity(4, 3)));
+    }
+
+    @Test
+    public void test_incremental() throws Exception {
+        final int numOfUsers = 20;
+        for (int i = 1; i <= numOfUsers; i++) {
+            for (int j = i % 5 + 1; j < 30; j += i % 3 + 2) {
+                postPreference(i, j);
+            }
+        }
+        // a result of a run without incremental
+        final Map<String, Object> source = new HashMap<>();
+        source.put("user_id", 1);
+        source.put("items", new ArrayList<>());
+        client.prepareIndex(INDEX, "recommendation").setSource(source)
+                .setRefresh(true).execute().actionGet();
+        runner.refresh();
+
+        final String action = "{\"incremental\":true,\"num_of_items\":5,"
+                + "\"data_model\":{\"cache\":{\"weight\":\"10m\"}},"
+                + "\"index_info\":{\"index\":\"" + INDEX + "\"}}";
+        runAction(action);
+        assertOneResultPerUser(numOfUsers);
+
+        // users of item 3 are computed again
+        postPreference(2, 3);
+        runner.refresh();
+        runAction(action);
+        assertOneResultPerUser(numOfUsers);
+    }
+
+    private void postPreference(final long userID, final long itemID)
+            throws IOException {
+        final String source = "{\"user\":{\"id\":" + userID
+                + "},\"item\":{\"id\":" + itemID + "},\"value\":1}";
+        try (CurlResponse curlResponse = Curl
+                .post(runner.node(), "/" + INDEX + "/_taste/event")
+                .body(source).execute()) {
+            assertEquals("{\"acknowledged\":true}",
+                    curlResponse.getContentAsString());
+        }
+    }
+
+    private void runAction(final String source) throws Exception {
+        try (CurlResponse curlResponse = Curl
+                .post(runner.node(),
+                        "/_taste/action/recommended_items_from_user")
+                .body(source).execute()) {
+            assertEquals("true", curlResponse.getContentAsMap()
+                    .get("acknowledged").toString());
+        }
+        for (int i = 0; i < 60; i++) {
+            Thread.sleep(1000L);
+            try (CurlResponse curlResponse = Curl.get(runner.node(),
+                    "/_taste/action").execute()) {
+                if (((List<?>) curlResponse.getContentAsMap().get("names"))
+                        .isEmpty()) {
+                    break;
+                }
+            }
+        }
+        runner.refresh();
+    }
+
+    private void assertOneResultPerUser(final int numOfUsers) {
+        assertEquals(numOfUsers,
+                client.prepareSearch(INDEX).setTypes("recommendation")
+                        .setSize(0).execute().actionGet().getHits()
+                        .getTotalHits());
+        for (int i = 1; i <= numOfUsers; i++) {
+            final SearchHits hits = client.prepareSearch(INDEX)
+                    .setTypes("recommendation")
+                    .setQuery(QueryBuilders.termQuery("user_id", i))
+                    .execute().actionGet().getHits();
+            assertEquals(1, hits.getTotalHits());
+            assertEquals(Integer.toString(i), hits.getAt(0).getId());
+        }
+    }
+
+    private void indexNeighbors(final long itemID, final long neighborID,
+            final float value, final String timestamp) {
+        final Map<String, Object> item = new HashMap<>();
+        item.put("item_id", neighborID);
+        item.put("value", value);
+        final List<Map<String, Object>> items = new ArrayList<>();
+        items.add(item);
+        final Map<String, Object> source = new HashMap<>();
+        source.put("item_id", itemID);
+        source.put("items", items);
+        source.put("@timestamp", timestamp);
+        client.prepareIndex(INDEX, "item_similarity").setSource(source)
+                .setRefresh(true).execute().actionGet();
+    }
+}
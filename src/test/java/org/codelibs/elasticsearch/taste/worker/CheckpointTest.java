@@ -0,0 +1,169 @@
+package org.codelibs.elasticsearch.taste.worker;
+
+import static org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner.newConfigs;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner;
+import org.codelibs.elasticsearch.taste.exception.TasteException;
+import org.codelibs.elasticsearch.taste.writer.ObjectWriter;
+import org.codelibs.elasticsearch.taste.writer.WriteListener;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings.Builder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckpointTest {
+    private static final String STATE_INDEX = "state";
+
+    private static final String STATE_TYPE = "checkpoint";
+
+    private static final long[] TARGET_IDS = { 1, 2, 3, 5, 8, 13, 21, 34,
+            55, 89 };
+
+    private ElasticsearchClusterRunner runner;
+
+    private Client client;
+
+    @Before
+    public void setup() throws Exception {
+        final String clusterName = "es-taste-" + System.currentTimeMillis();
+        runner = new ElasticsearchClusterRunner();
+        runner.onBuild(new ElasticsearchClusterRunner.Builder() {
+            @Override
+            public void build(final int number, final Builder settingsBuilder) {
+                settingsBuilder.put("index.number_of_replicas", 0);
+                settingsBuilder.putArray("discovery.zen.ping.unicast.hosts",
+                        "localhost:9301-9305");
+                settingsBuilder.put("plugin.types",
+                        "org.codelibs.elasticsearch.taste.TastePlugin");
+            }
+        }).build(newConfigs().clusterName(clusterName).numOfNode(1));
+        runner.ensureYellow();
+        client = runner.client();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        runner.close();
+        runner.clean();
+    }
+
+    @Test
+    public void test_saveAndLoad() throws Exception {
+        final String configHash = Checkpoint
+                .createConfigHash(createSettings(10));
+        final Checkpoint checkpoint = new Checkpoint(client, STATE_INDEX,
+                STATE_TYPE, "test", configHash, TARGET_IDS);
+        // a cursor up to 3 and ranges [8, 13] and [55, 55]
+        for (final long id : new long[] { 1, 2, 3, 8, 13, 55 }) {
+            checkpoint.markDone(id);
+        }
+        checkpoint.markDone(4);
+        checkpoint.markDone(8);
+        assertEquals(6, checkpoint.getNumOfCompleted());
+        checkpoint.save(Checkpoint.STATUS_STOPPED);
+        runner.refresh();
+
+        final Checkpoint resumed = new Checkpoint(client, STATE_INDEX,
+                STATE_TYPE, "test", configHash, TARGET_IDS);
+        assertTrue(resumed.load());
+        assertEquals(6, resumed.getNumOfCompleted());
+        assertArrayEquals(new long[] { 5, 21, 34, 89 },
+                resumed.getRemainingIDs());
+
+        // volatile settings do not change the configuration
+        final Map<String, Object> resumeSettings = createSettings(10);
+        resumeSettings.put("resume", true);
+        resumeSettings.put("num_of_threads", 8);
+        assertEquals(configHash, Checkpoint.createConfigHash(resumeSettings));
+
+        // completed ranges are ignored for other targets
+        final Checkpoint otherTargets = new Checkpoint(client, STATE_INDEX,
+                STATE_TYPE, "test", configHash, new long[] { 1, 2, 3 });
+        assertFalse(otherTargets.load());
+        assertEquals(0, otherTargets.getNumOfCompleted());
+
+        final Checkpoint otherConfig = new Checkpoint(client, STATE_INDEX,
+                STATE_TYPE, "test",
+                Checkpoint.createConfigHash(createSettings(20)), TARGET_IDS);
+        try {
+            otherConfig.load();
+            fail();
+        } catch (final TasteException e) {
+            // expected
+        }
+
+        assertFalse(new Checkpoint(client, STATE_INDEX, STATE_TYPE,
+                "missing", configHash, TARGET_IDS).load());
+    }
+
+    @Test
+    public void test_markDoneWhenWritten() throws Exception {
+        client.admin()
+                .indices()
+                .prepareCreate("result")
+                .addMapping(
+                        "item",
+                        XContentFactory.jsonBuilder().startObject()
+                                .startObject("item")
+                                .startObject("properties")
+                                .startObject("value").field("type", "long")
+                                .endObject().endObject().endObject()
+                                .endObject()).execute().actionGet();
+        runner.ensureYellow("result");
+
+        final Checkpoint checkpoint = new Checkpoint(client, STATE_INDEX,
+                STATE_TYPE, "test", "hash", TARGET_IDS);
+        final ObjectWriter writer = new ObjectWriter(client, "result",
+                "item", 1);
+        final Map<String, Object> writerSettings = new HashMap<>();
+        writerSettings.put("flush_interval", "1h");
+        writer.setBulkSettings(writerSettings);
+        final long[] failedIDs = new long[1];
+        writer.setWriteListener(new WriteListener() {
+            @Override
+            public void onWritten(final long targetID) {
+                checkpoint.markDone(targetID);
+            }
+
+            @Override
+            public void onFailure(final long targetID) {
+                failedIDs[0] = targetID;
+            }
+        });
+        writer.open();
+        for (final long id : TARGET_IDS) {
+            final Map<String, Object> source = new HashMap<>();
+            // 21 is rejected by the mapping
+            source.put("value", id == 21 ? "invalid" : id);
+            writer.write(source, id);
+        }
+        // queued results are not completed
+        assertEquals(0, checkpoint.getNumOfCompleted());
+
+        writer.close();
+        assertEquals(TARGET_IDS.length - 1, checkpoint.getNumOfCompleted());
+        assertArrayEquals(new long[] { 21 }, checkpoint.getRemainingIDs());
+        assertEquals(21, failedIDs[0]);
+        assertEquals(TARGET_IDS.length - 1, writer.getNumOfWritten());
+        assertEquals(1, writer.getNumOfFailures());
+    }
+
+    private Map<String, Object> createSettings(final int numOfItems) {
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put("num_of_items", numOfItems);
+        final Map<String, Object> indexInfo = new HashMap<>();
+        indexInfo.put("index", "test");
+        settings.put("index_info", indexInfo);
+        return settings;
+    }
+}